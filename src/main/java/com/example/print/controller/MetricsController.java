@@ -0,0 +1,151 @@
+package com.example.print.controller;
+
+import com.example.print.service.AdaptiveSyncScheduler;
+import com.example.print.service.NotificationService;
+import com.example.print.service.PendingTaskIndex;
+import com.example.print.service.PrintHistoryWriter;
+import com.example.print.service.PrintTaskPurgeService;
+import com.example.print.service.PrintTaskService;
+import com.example.print.service.ReceiptRenderService;
+import com.example.print.service.ReferenceDataCache;
+import com.example.print.service.TaskArchiveService;
+import com.example.print.service.TaskAssignmentService;
+import com.example.print.service.TaskLeaseService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Map;
+
+/**
+ * 运行指标查询
+ */
+@RestController
+@RequestMapping("/api/metrics")
+@Slf4j
+public class MetricsController {
+
+    @Autowired
+    private ReferenceDataCache referenceDataCache;
+
+    @Autowired
+    private AdaptiveSyncScheduler adaptiveSyncScheduler;
+
+    @Autowired
+    private ReceiptRenderService receiptRenderService;
+
+    @Autowired
+    private PendingTaskIndex pendingTaskIndex;
+
+    @Autowired
+    private PrintHistoryWriter printHistoryWriter;
+
+    @Autowired
+    private PrintTaskPurgeService printTaskPurgeService;
+
+    @Autowired
+    private TaskArchiveService taskArchiveService;
+
+    @Autowired
+    private PrintTaskService printTaskService;
+
+    @Autowired
+    private NotificationService notificationService;
+
+    @Autowired
+    private TaskAssignmentService taskAssignmentService;
+
+    @Autowired
+    private TaskLeaseService taskLeaseService;
+
+    /**
+     * 基础数据缓存命中情况
+     */
+    @GetMapping("/reference-cache")
+    public ResponseEntity<Map<String, Object>> getReferenceCacheStats() {
+        return ResponseEntity.ok(referenceDataCache.getStats());
+    }
+
+    /**
+     * 订单同步节奏：当前间隔、批次大小、积压估算
+     */
+    @GetMapping("/sync")
+    public ResponseEntity<Map<String, Object>> getSyncStats() {
+        return ResponseEntity.ok(adaptiveSyncScheduler.getStats());
+    }
+
+    /**
+     * 服务端小票渲染：模板缓存与渲染次数
+     */
+    @GetMapping("/receipt-render")
+    public ResponseEntity<Map<String, Object>> getReceiptRenderStats() {
+        return ResponseEntity.ok(receiptRenderService.getStats());
+    }
+
+    /**
+     * 未完成任务内存索引：任务数、门店数、刷新情况
+     */
+    @GetMapping("/pending-index")
+    public ResponseEntity<Map<String, Object>> getPendingIndexStats() {
+        return ResponseEntity.ok(pendingTaskIndex.getStats());
+    }
+
+    /**
+     * 打印历史异步写入：队列深度、写入批次与耗时
+     */
+    @GetMapping("/print-history")
+    public ResponseEntity<Map<String, Object>> getPrintHistoryStats() {
+        return ResponseEntity.ok(printHistoryWriter.getStats());
+    }
+
+    /**
+     * 旧任务清理：最近一次执行的进度
+     */
+    @GetMapping("/task-purge")
+    public ResponseEntity<Map<String, Object>> getTaskPurgeStats() {
+        return ResponseEntity.ok(printTaskPurgeService.getStats());
+    }
+
+    /**
+     * 冷归档：分段文件与索引规模
+     */
+    @GetMapping("/archive")
+    public ResponseEntity<Map<String, Object>> getArchiveStats() {
+        return ResponseEntity.ok(taskArchiveService.getStats());
+    }
+
+    /**
+     * 任务重试与过期：重试、死信、过期次数和时间轮状态
+     */
+    @GetMapping("/retry")
+    public ResponseEntity<Map<String, Object>> getRetryStats() {
+        return ResponseEntity.ok(printTaskService.getRetryStats());
+    }
+
+    /**
+     * 打印任务分发：队列积压和各优先级的排队时间
+     */
+    @GetMapping("/dispatch")
+    public ResponseEntity<Map<String, Object>> getDispatchStats() {
+        return ResponseEntity.ok(notificationService.getDispatchStats());
+    }
+
+    /**
+     * 任务分配：分配、重新分配、退回广播次数和各客户端未确认任务数
+     */
+    @GetMapping("/assignment")
+    public ResponseEntity<Map<String, Object>> getAssignmentStats() {
+        return ResponseEntity.ok(taskAssignmentService.getStats());
+    }
+
+    /**
+     * 任务领取租约：领取、续租和租约过期次数
+     */
+    @GetMapping("/lease")
+    public ResponseEntity<Map<String, Object>> getLeaseStats() {
+        return ResponseEntity.ok(taskLeaseService.getStats());
+    }
+}
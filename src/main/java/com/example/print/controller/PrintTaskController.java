@@ -1,9 +1,13 @@
 package com.example.print.controller;
 
+import com.example.print.model.PrintHistory;
 import com.example.print.model.PrintTask;
 import com.example.print.model.PrintTaskStatus;
+import com.example.print.model.PrintTaskType;
+import com.example.print.model.TaskStatusUpdate;
 import com.example.print.service.PrintTaskService;
 import com.example.print.service.NotificationService;
+import com.example.print.service.TaskLeaseService;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Page;
@@ -24,6 +28,9 @@ public class PrintTaskController {
     @Autowired
     private NotificationService notificationService;
 
+    @Autowired
+    private TaskLeaseService leaseService;
+
     /**
      * 创建打印任务
      */
@@ -121,6 +128,36 @@ public class PrintTaskController {
                 .orElseGet(() -> ResponseEntity.notFound().build());
     }
 
+    /**
+     * 按订单号查询任务（含已归档的任务）
+     */
+    @GetMapping("/order/{orderNo}")
+    public ResponseEntity<List<PrintTask>> getTasksByOrderNo(@PathVariable String orderNo) {
+        log.info("按订单号查询任务: {}", orderNo);
+
+        try {
+            return ResponseEntity.ok(taskService.getTasksByOrderNo(orderNo));
+        } catch (Exception e) {
+            log.error("按订单号查询任务失败: {}", orderNo, e);
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
+    /**
+     * 按订单号查询打印历史（含已归档的历史）
+     */
+    @GetMapping("/order/{orderNo}/history")
+    public ResponseEntity<List<PrintHistory>> getHistoryByOrderNo(@PathVariable String orderNo) {
+        log.info("按订单号查询打印历史: {}", orderNo);
+
+        try {
+            return ResponseEntity.ok(taskService.getHistoryByOrderNo(orderNo));
+        } catch (Exception e) {
+            log.error("按订单号查询打印历史失败: {}", orderNo, e);
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
     /**
      * 更新任务状态
      */
@@ -154,6 +191,67 @@ public class PrintTaskController {
         }
     }
 
+    /**
+     * 领取客户端所在门店的待打印任务（拉取模式），任务变为打印中并持有租约
+     */
+    @PostMapping("/claim")
+    public ResponseEntity<List<PrintTask>> claimTasks(
+            @RequestParam String clientId,
+            @RequestParam(defaultValue = "10") int limit,
+            @RequestParam(required = false) Integer leaseSeconds) {
+
+        try {
+            List<PrintTask> tasks = leaseService.claim(clientId, limit, leaseSeconds);
+            if (tasks == null) {
+                return ResponseEntity.notFound().build();
+            }
+            return ResponseEntity.ok(tasks);
+        } catch (Exception e) {
+            log.error("领取任务失败，客户端: {}", clientId, e);
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
+    /**
+     * 续租：延长客户端仍在打印的任务的租约
+     */
+    @PostMapping("/lease/renew")
+    public ResponseEntity<Map<String, Object>> renewLease(
+            @RequestParam String clientId,
+            @RequestBody List<String> taskIds,
+            @RequestParam(required = false) Integer leaseSeconds) {
+
+        try {
+            return ResponseEntity.ok(leaseService.renew(clientId, taskIds, leaseSeconds));
+        } catch (Exception e) {
+            log.error("续租失败，客户端: {}", clientId, e);
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
+    /**
+     * 批量更新任务状态（一个事务），返回每个任务的处理结果
+     */
+    @PostMapping("/status/batch")
+    public ResponseEntity<Map<String, String>> updateTaskStatuses(
+            @RequestBody List<TaskStatusUpdate> updates,
+            @RequestParam(required = false) String clientId) {
+
+        log.info("批量更新任务状态: {} 个, 客户端: {}", updates.size(), clientId);
+
+        try {
+            // 如果没有提供客户端ID，使用默认值
+            String actualClientId = clientId != null ? clientId : "API_CLIENT";
+            return ResponseEntity.ok(taskService.updateTaskStatuses(updates, actualClientId));
+        } catch (IllegalArgumentException e) {
+            log.error("批量更新任务状态失败: {}", e.getMessage());
+            return ResponseEntity.badRequest().build();
+        } catch (Exception e) {
+            log.error("批量更新任务状态失败", e);
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
     /**
      * 标记任务已接收
      */
@@ -228,6 +326,7 @@ public class PrintTaskController {
             task.setMerchantId(String.valueOf(actualMerchantId));
             task.setStoreId(0);
             task.setContent(actualContent);
+            task.setTaskType(PrintTaskType.TEST);
             task.setStatus(PrintTaskStatus.PENDING);
             task.setCreateTime(LocalDateTime.now());
 
@@ -0,0 +1,104 @@
+package com.example.print.controller;
+
+import com.example.print.model.PrintTaskType;
+import com.example.print.model.ReceiptTemplate;
+import com.example.print.repository.ReceiptTemplateRepository;
+import com.example.print.service.ReceiptRenderService;
+import com.fasterxml.jackson.databind.JsonNode;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 门店小票模板管理，storeId 为 0 时表示默认模板
+ */
+@RestController
+@RequestMapping("/api/receipt-templates")
+@Slf4j
+public class ReceiptTemplateController {
+
+    @Autowired
+    private ReceiptTemplateRepository templateRepository;
+
+    @Autowired
+    private ReceiptRenderService renderService;
+
+    /**
+     * 获取门店模板
+     */
+    @GetMapping("/{storeId}/{type}")
+    public ResponseEntity<ReceiptTemplate> getTemplate(@PathVariable int storeId, @PathVariable String type) {
+        try {
+            PrintTaskType templateType = PrintTaskType.valueOf(type.toUpperCase());
+            return templateRepository.findByStoreIdAndTemplateType(storeId, templateType)
+                    .map(ResponseEntity::ok)
+                    .orElseGet(() -> ResponseEntity.notFound().build());
+        } catch (IllegalArgumentException e) {
+            log.error("无效的模板类型: {}", type);
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
+    /**
+     * 保存门店模板，保存前编译校验
+     */
+    @PutMapping("/{storeId}/{type}")
+    public ResponseEntity<Map<String, Object>> saveTemplate(
+            @PathVariable int storeId,
+            @PathVariable String type,
+            @RequestBody ReceiptTemplate template) {
+
+        log.info("保存门店 {} 的 {} 模板", storeId, type);
+
+        Map<String, Object> response = new HashMap<>();
+        try {
+            PrintTaskType templateType = PrintTaskType.valueOf(type.toUpperCase());
+            renderService.validate(template);
+
+            ReceiptTemplate existing = templateRepository.findByStoreIdAndTemplateType(storeId, templateType)
+                    .orElseGet(ReceiptTemplate::new);
+            existing.setStoreId(storeId);
+            existing.setTemplateType(templateType);
+            existing.setContent(template.getContent());
+            existing.setPaperWidth(template.getPaperWidth());
+            existing.setHeaderText(template.getHeaderText());
+            existing.setLogo(template.getLogo());
+            existing.setUpdateTime(LocalDateTime.now());
+            templateRepository.save(existing);
+
+            renderService.invalidateTemplates(storeId);
+
+            response.put("success", true);
+            response.put("message", "模板已保存");
+            return ResponseEntity.ok(response);
+        } catch (Exception e) {
+            log.error("保存模板失败", e);
+            response.put("success", false);
+            response.put("message", "保存模板失败: " + e.getMessage());
+            return ResponseEntity.badRequest().body(response);
+        }
+    }
+
+    /**
+     * 用门店当前模板渲染给定的打印数据，返回 ESC/POS 字节流
+     */
+    @PostMapping(value = "/{storeId}/{type}/preview", produces = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public ResponseEntity<byte[]> preview(
+            @PathVariable int storeId,
+            @PathVariable String type,
+            @RequestBody JsonNode data) {
+        try {
+            PrintTaskType templateType = PrintTaskType.valueOf(type.toUpperCase());
+            return ResponseEntity.ok(renderService.render(storeId, templateType, data));
+        } catch (Exception e) {
+            log.error("预览模板失败", e);
+            return ResponseEntity.badRequest().build();
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.example.print.controller;
+
+import com.example.print.service.ResyncJob;
+import com.example.print.service.ResyncJobService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.time.LocalDateTime;
+import java.util.*;
+
+/**
+ * 时间范围补同步任务
+ */
+@RestController
+@RequestMapping("/api/resync-jobs")
+@Slf4j
+public class ResyncJobController {
+
+    @Autowired
+    private ResyncJobService resyncJobService;
+
+    /**
+     * 提交补同步任务
+     *
+     * @param type      paid 已付款订单，refund 退款订单
+     * @param startTime 开始时间，如 2024-01-01T00:00:00
+     * @param endTime   结束时间
+     */
+    @PostMapping
+    public ResponseEntity<Map<String, Object>> submit(
+            @RequestParam(defaultValue = "paid") String type,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime startTime,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime endTime) {
+
+        log.info("收到补同步请求，类型: {}, 时间范围: {} 至 {}", type, startTime, endTime);
+
+        try {
+            ResyncJob.Type jobType = ResyncJob.Type.valueOf(type.toUpperCase());
+            ResyncJob job = resyncJobService.submit(jobType, startTime, endTime);
+            return ResponseEntity.ok(job.toMap());
+        } catch (IllegalArgumentException e) {
+            log.error("无效的补同步请求: {}", e.getMessage());
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", false);
+            response.put("message", e.getMessage());
+            return ResponseEntity.badRequest().body(response);
+        }
+    }
+
+    /**
+     * 任务列表
+     */
+    @GetMapping
+    public ResponseEntity<List<Map<String, Object>>> list() {
+        List<Map<String, Object>> result = new ArrayList<>();
+        for (ResyncJob job : resyncJobService.getJobs()) {
+            result.add(job.toMap());
+        }
+        return ResponseEntity.ok(result);
+    }
+
+    /**
+     * 任务进度
+     */
+    @GetMapping("/{jobId}")
+    public ResponseEntity<Map<String, Object>> get(@PathVariable String jobId) {
+        return resyncJobService.getJob(jobId)
+                .map(job -> ResponseEntity.ok(job.toMap()))
+                .orElseGet(() -> ResponseEntity.notFound().build());
+    }
+
+    /**
+     * 取消任务，当前页处理完后停止
+     */
+    @PostMapping("/{jobId}/cancel")
+    public ResponseEntity<Map<String, Object>> cancel(@PathVariable String jobId) {
+        if (!resyncJobService.cancel(jobId)) {
+            return ResponseEntity.notFound().build();
+        }
+        return resyncJobService.getJob(jobId)
+                .map(job -> ResponseEntity.ok(job.toMap()))
+                .orElseGet(() -> ResponseEntity.notFound().build());
+    }
+}
@@ -3,9 +3,11 @@ package com.example.print.controller;
 import com.example.print.model.PrintClient;
 import com.example.print.model.PrintTask;
 import com.example.print.model.PrintTaskStatus;
+import com.example.print.model.TaskStatusUpdate;
 import com.example.print.service.PrintClientService;
 import com.example.print.service.PrintTaskService;
 import com.example.print.service.NotificationService;
+import com.example.print.service.TaskLeaseService;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.messaging.handler.annotation.MessageMapping;
@@ -15,7 +17,10 @@ import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
 import org.springframework.stereotype.Controller;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 
@@ -32,6 +37,9 @@ public class WebSocketController {
     @Autowired
     private NotificationService notificationService;
 
+    @Autowired
+    private TaskLeaseService leaseService;
+
     /**
      * 处理客户端打印请求
      */
@@ -105,6 +113,36 @@ public class WebSocketController {
         }
     }
 
+    /**
+     * 批量处理客户端打印结果，只更新一次心跳，处理结果以 BATCH_STATUS_RESPONSE 发送到 /topic/client/{clientId}
+     */
+    @MessageMapping("/print-results")
+    @SuppressWarnings("unchecked")
+    public void handlePrintResults(@Payload Map<String, Object> request) {
+        String clientId = (String) request.get("clientId");
+        List<Map<String, Object>> results = (List<Map<String, Object>>) request.get("results");
+        if (clientId == null || results == null) {
+            return;
+        }
+
+        log.info("收到批量打印结果: {} 个, 客户端={}", results.size(), clientId);
+
+        try {
+            clientService.updateHeartbeat(clientId);
+
+            List<TaskStatusUpdate> updates = new ArrayList<>(results.size());
+            for (Map<String, Object> result : results) {
+                updates.add(new TaskStatusUpdate((String) result.get("taskId"), (String) result.get("status"),
+                        (String) result.get("errorMessage")));
+            }
+            notificationService.sendMessageToClient(clientId, "BATCH_STATUS_RESPONSE",
+                    taskService.updateTaskStatuses(updates, clientId));
+        } catch (Exception e) {
+            log.error("批量处理打印结果失败，客户端: {}", clientId, e);
+            notificationService.sendErrorNotification(clientId, "批量处理打印结果失败: " + e.getMessage());
+        }
+    }
+
     /**
      * 处理客户端注册
      */
@@ -182,4 +220,57 @@ public class WebSocketController {
             }
         }
     }
+
+    /**
+     * 领取任务（拉取模式），结果以 CLAIM_RESPONSE 发送到 /topic/client/{clientId}
+     */
+    @MessageMapping("/claim")
+    public void handleClaim(@Payload Map<String, Object> request) {
+        String clientId = (String) request.get("clientId");
+        if (clientId == null) {
+            return;
+        }
+
+        try {
+            clientService.updateHeartbeat(clientId);
+
+            Number limit = (Number) request.get("limit");
+            Number leaseSeconds = (Number) request.get("leaseSeconds");
+            List<PrintTask> tasks = leaseService.claim(clientId, limit != null ? limit.intValue() : 10,
+                    leaseSeconds != null ? leaseSeconds.intValue() : null);
+            if (tasks == null) {
+                notificationService.sendErrorNotification(clientId, "领取任务失败，客户端未注册");
+                return;
+            }
+            notificationService.sendMessageToClient(clientId, "CLAIM_RESPONSE", tasks);
+        } catch (Exception e) {
+            log.error("领取任务失败，客户端: {}", clientId, e);
+            notificationService.sendErrorNotification(clientId, "领取任务失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 续租，结果以 LEASE_RENEW_RESPONSE 发送到 /topic/client/{clientId}
+     */
+    @MessageMapping("/lease-renew")
+    @SuppressWarnings("unchecked")
+    public void handleLeaseRenew(@Payload Map<String, Object> request) {
+        String clientId = (String) request.get("clientId");
+        Collection<String> taskIds = (Collection<String>) request.get("taskIds");
+        if (clientId == null || taskIds == null) {
+            return;
+        }
+
+        try {
+            clientService.updateHeartbeat(clientId);
+
+            Number leaseSeconds = (Number) request.get("leaseSeconds");
+            Map<String, Object> result = leaseService.renew(clientId, taskIds,
+                    leaseSeconds != null ? leaseSeconds.intValue() : null);
+            notificationService.sendMessageToClient(clientId, "LEASE_RENEW_RESPONSE", result);
+        } catch (Exception e) {
+            log.error("续租失败，客户端: {}", clientId, e);
+            notificationService.sendErrorNotification(clientId, "续租失败: " + e.getMessage());
+        }
+    }
 }
@@ -0,0 +1,25 @@
+package com.example.print.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 归档的打印任务及其打印历史
+ * 任务已被清理、只剩打印历史时 task 为 null
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ArchivedTask {
+
+    private String taskId;
+    private String orderNo;
+    private PrintTask task;
+    private List<PrintHistory> history = new ArrayList<>();
+    private LocalDateTime archiveTime;
+}
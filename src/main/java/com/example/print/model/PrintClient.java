@@ -51,4 +51,8 @@ public class PrintClient {
     private Integer userId;             // 添加用户ID字段
     private String username;            // 添加用户名字段
 
+    private String capabilities;        // 客户端能力，逗号分隔，如 ESCPOS 表示可直接打印服务端渲染的数据，ASSIGN 表示接收单独分配的任务
+
+    private Integer weight;             // 任务分配权重（按打印机处理能力），为空时按 1
+
 }
\ No newline at end of file
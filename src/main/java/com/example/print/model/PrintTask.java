@@ -4,19 +4,36 @@ import lombok.*;
 
 import javax.persistence.*;
 import java.time.LocalDateTime;
+import java.util.Comparator;
 
 @Data
 @Entity
-@Builder
+@Builder(toBuilder = true)
 @NoArgsConstructor
 @AllArgsConstructor
-@Table(name = "print_tasks")
+@Table(name = "print_tasks", indexes = {
+        @Index(name = "idx_print_tasks_order_type", columnList = "orderId, taskType"),
+        @Index(name = "idx_print_tasks_status_create", columnList = "status, createTime"),
+        @Index(name = "idx_print_tasks_store_status", columnList = "storeId, status"),
+        @Index(name = "idx_print_tasks_status_lease", columnList = "status, leaseExpireTime")
+}, uniqueConstraints = {
+        @UniqueConstraint(name = PrintTask.SYNC_KEY_CONSTRAINT, columnNames = "syncKey")
+})
 public class PrintTask {
+
+    // 同步去重键的唯一索引名
+    public static final String SYNC_KEY_CONSTRAINT = "uk_print_tasks_sync_key";
+
+    // 分发顺序：优先级高的在前，同优先级按创建时间
+    public static final Comparator<PrintTask> DISPATCH_ORDER = Comparator
+            .comparing((PrintTask task) -> PrintTaskPriority.orDefault(task.getPriority()))
+            .thenComparing(PrintTask::getCreateTime, Comparator.nullsFirst(Comparator.naturalOrder()))
+            .thenComparing(PrintTask::getTaskId);
     @Id
     private String taskId;                 // 任务ID
 
-    @Column(columnDefinition = "TEXT")
-    private String content;                // 打印内容
+    @Transient
+    private String content;                // 打印内容，存放在 print_task_contents 表，由 PrintTaskContentStore 读写
 
     @Enumerated(EnumType.STRING)
     private PrintTaskStatus status;        // 任务状态
@@ -28,11 +45,25 @@ public class PrintTask {
     @Enumerated(EnumType.STRING)
     private PrintTaskPriority priority;    // 任务优先级
 
+    @Enumerated(EnumType.STRING)
+    @Column(length = 16)
+    private PrintTaskType taskType;        // 任务类型
+
+    @Column(length = 32)
+    private String syncKey;                // 同步去重键（任务类型:订单ID），仅订单同步创建的任务设置
+
+    @Transient
+    private String escposContent;          // 服务端渲染的 ESC/POS 数据（Base64），仅推送给支持的门店时附带
+
     private String merchantId;             // 商家ID
     private String assignedClientId;       // 分配的客户端ID
+    private LocalDateTime leaseExpireTime; // 领取租约到期时间，仅对客户端领取的打印中任务有效
     private LocalDateTime printTime;       // 打印时间
     private LocalDateTime lastUpdateTime;  // 最后更新时间
 
+    @Column(columnDefinition = "BIGINT NOT NULL DEFAULT 0")
+    private long version;                  // 版本号，每次状态流转加一
+
     @Column(columnDefinition = "TEXT")
     private String errorMessage;           // 错误信息
 
@@ -0,0 +1,39 @@
+package com.example.print.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.*;
+import java.time.LocalDateTime;
+
+/**
+ * 打印任务内容，与 print_tasks 分表存放
+ * 状态查询、卡住任务检查、清理等只读写任务主表，推送或查询任务详情时才读取内容
+ */
+@Data
+@Entity
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Table(name = "print_task_contents")
+public class PrintTaskContent {
+
+    public static final String ENCODING_PLAIN = "PLAIN";
+    public static final String ENCODING_GZIP = "GZIP";
+
+    @Id
+    private String taskId;
+
+    @Lob
+    @Column(columnDefinition = "MEDIUMBLOB", nullable = false)
+    private byte[] data;                   // 内容（UTF-8），按 encoding 压缩
+
+    @Column(nullable = false, length = 8)
+    private String encoding;               // PLAIN / GZIP
+
+    private int originalLength;            // 压缩前字节数
+
+    private LocalDateTime createTime;
+}
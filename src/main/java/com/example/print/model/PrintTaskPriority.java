@@ -14,4 +14,11 @@ public enum PrintTaskPriority {
     public String getDescription() {
         return description;
     }
+
+    /**
+     * 未设置优先级的旧任务按中优先级处理
+     */
+    public static PrintTaskPriority orDefault(PrintTaskPriority priority) {
+        return priority != null ? priority : MEDIUM;
+    }
 }
\ No newline at end of file
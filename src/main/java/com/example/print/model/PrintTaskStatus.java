@@ -1,10 +1,30 @@
 package com.example.print.model;
 
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+
 public enum PrintTaskStatus {
     PENDING("待打印"),
     PRINTING("打印中"),
     COMPLETED("已完成"),
-    FAILED("失败");
+    FAILED("失败"),
+    DEAD_LETTER("死信");
+
+    // 状态流转表：源状态 -> 允许的目标状态
+    private static final Map<PrintTaskStatus, Set<PrintTaskStatus>> TRANSITIONS = new EnumMap<>(PrintTaskStatus.class);
+
+    static {
+        // 卡住的任务重置为待打印（待打印任务重新分发时也刷新一次）；未完成的任务过期后进入死信
+        TRANSITIONS.put(PENDING, EnumSet.of(PENDING, PRINTING, COMPLETED, FAILED, DEAD_LETTER));
+        TRANSITIONS.put(PRINTING, EnumSet.of(PENDING, COMPLETED, FAILED, DEAD_LETTER));
+        TRANSITIONS.put(COMPLETED, EnumSet.noneOf(PrintTaskStatus.class));
+        // 失败的任务退避后重新待打印，超过最大重试次数或过期后进入死信
+        TRANSITIONS.put(FAILED, EnumSet.of(PENDING, DEAD_LETTER));
+        TRANSITIONS.put(DEAD_LETTER, EnumSet.noneOf(PrintTaskStatus.class));
+    }
 
     private final String description;
 
@@ -15,4 +35,24 @@ public enum PrintTaskStatus {
     public String getDescription() {
         return description;
     }
-}
\ No newline at end of file
+
+    /**
+     * 是否允许从当前状态流转到目标状态
+     */
+    public boolean canTransitionTo(PrintTaskStatus target) {
+        return TRANSITIONS.get(this).contains(target);
+    }
+
+    /**
+     * 允许流转到目标状态的源状态，用于条件更新的 status IN (...)
+     */
+    public static Set<PrintTaskStatus> sourcesOf(PrintTaskStatus target) {
+        Set<PrintTaskStatus> sources = EnumSet.noneOf(PrintTaskStatus.class);
+        for (Map.Entry<PrintTaskStatus, Set<PrintTaskStatus>> entry : TRANSITIONS.entrySet()) {
+            if (entry.getValue().contains(target)) {
+                sources.add(entry.getKey());
+            }
+        }
+        return Collections.unmodifiableSet(sources);
+    }
+}
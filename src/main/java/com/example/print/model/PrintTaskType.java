@@ -0,0 +1,26 @@
+package com.example.print.model;
+
+public enum PrintTaskType {
+    ORDER("订单小票", PrintTaskPriority.HIGH),
+    REFUND("退货单", PrintTaskPriority.HIGH),
+    TEST("测试", PrintTaskPriority.MEDIUM);
+
+    private final String description;
+    private final PrintTaskPriority defaultPriority;
+
+    PrintTaskType(String description, PrintTaskPriority defaultPriority) {
+        this.description = description;
+        this.defaultPriority = defaultPriority;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    /**
+     * 创建任务时未指定优先级使用的默认值
+     */
+    public PrintTaskPriority getDefaultPriority() {
+        return defaultPriority;
+    }
+}
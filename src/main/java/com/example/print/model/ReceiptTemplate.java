@@ -0,0 +1,49 @@
+package com.example.print.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.*;
+import java.time.LocalDateTime;
+
+/**
+ * 门店小票模板，服务端渲染 ESC/POS 时使用
+ * storeId 为 0 的记录是所有门店的默认模板
+ */
+@Data
+@Entity
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Table(name = "receipt_templates", uniqueConstraints = {
+        @UniqueConstraint(name = "uk_receipt_templates_store_type", columnNames = {"storeId", "templateType"})
+})
+public class ReceiptTemplate {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(nullable = false)
+    private Integer storeId;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 16)
+    private PrintTaskType templateType;
+
+    @Column(columnDefinition = "TEXT", nullable = false)
+    private String content;                // 模板内容，语法见 EscPosTemplate
+
+    private Integer paperWidth;            // 每行字符数，58mm 纸为 32，80mm 纸为 48
+
+    @Column(columnDefinition = "TEXT")
+    private String headerText;             // 店铺标题，每行一条
+
+    @Lob
+    @Column(columnDefinition = "MEDIUMBLOB")
+    private byte[] logo;                   // Logo 图片（PNG/JPG），接口中为 Base64
+
+    private LocalDateTime updateTime;
+}
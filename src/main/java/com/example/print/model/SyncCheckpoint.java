@@ -0,0 +1,27 @@
+package com.example.print.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.*;
+import java.time.LocalDateTime;
+
+@Data
+@Entity
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Table(name = "sync_checkpoints")
+public class SyncCheckpoint {
+
+    @Id
+    private String syncName;               // 同步类型，如 PAID_ORDER、REFUND_ORDER
+
+    @Column(nullable = false)
+    private Integer lastOrderId;           // 已同步到的订单ID
+
+    @Column(nullable = false)
+    private LocalDateTime updateTime;      // 最后更新时间
+}
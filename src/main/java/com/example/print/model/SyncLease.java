@@ -0,0 +1,29 @@
+package com.example.print.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.*;
+import java.time.LocalDateTime;
+
+@Data
+@Entity
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Table(name = "sync_leases")
+public class SyncLease {
+
+    @Id
+    private Integer shardId;               // 分片编号，merchant_id % 分片数
+
+    private String ownerId;                // 持有租约的实例ID
+
+    @Column(nullable = false)
+    private LocalDateTime leaseUntil;      // 租约到期时间
+
+    @Column(nullable = false)
+    private LocalDateTime updateTime;      // 最后更新时间
+}
@@ -0,0 +1,18 @@
+package com.example.print.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 批量状态上报中的一条任务状态
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class TaskStatusUpdate {
+
+    private String taskId;
+    private String status;          // PRINTING / COMPLETED / FAILED
+    private String errorMessage;    // 失败原因，仅 FAILED 时使用
+}
@@ -0,0 +1,19 @@
+package com.example.print.model.mall;
+
+import lombok.Data;
+
+/**
+ * 线上订单信息（tp_retail_bill_online，含配送单的 send_type）
+ */
+@Data
+public class MallOnlineOrder {
+
+    private int billId;
+    private int pickupType;                // 0配送 1自提
+    private Integer sendType;              // 1预约
+    private String userName;
+    private String userPhone;
+    private String userAddress;
+    private String remark;
+    private Long userSelectTime;           // 预约/自提时间（秒）
+}
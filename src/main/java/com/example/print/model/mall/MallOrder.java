@@ -0,0 +1,28 @@
+package com.example.print.model.mall;
+
+import lombok.Data;
+
+import java.math.BigDecimal;
+
+/**
+ * 商城订单（tp_retail_bill_order）中小票需要的字段
+ */
+@Data
+public class MallOrder {
+
+    private int id;
+    private String orderNo;
+    private int uid;
+    private int merchantId;
+    private int storeId;
+    private int type;                      // 1线上 2线下
+    private Long payTime;                  // 支付时间（秒）
+    private int payType;
+    private double goodsPrice;
+    private double payMoney;
+    private double deliveryFee;
+    private double packFee;
+    private BigDecimal payReal;
+    private BigDecimal allMoney;
+    private BigDecimal userDeliveryFee;
+}
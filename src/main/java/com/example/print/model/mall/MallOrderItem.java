@@ -0,0 +1,25 @@
+package com.example.print.model.mall;
+
+import lombok.Data;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 订单商品（tp_retail_bill_sell）
+ */
+@Data
+public class MallOrderItem {
+
+    private int billId;
+    private int goodsId;
+    private String goodsName;
+    private String goodsCode;
+    private double sellNum;
+    private double sellPrice;
+    private double refundMoney;
+
+    // 以下由批量加载补齐
+    private boolean food;                                  // 餐饮商品（is_takeout=1 且 is_package=0）
+    private List<String> specs = Collections.emptyList();  // 规格名称，按 group_id 排序
+}
@@ -0,0 +1,14 @@
+package com.example.print.model.mall;
+
+import lombok.Data;
+
+/**
+ * 商城店铺（tp_retail_store）
+ */
+@Data
+public class MallStore {
+
+    private int id;
+    private int merchantId;
+    private String name;
+}
@@ -0,0 +1,15 @@
+package com.example.print.model.mall;
+
+import lombok.Data;
+
+/**
+ * 商城用户（tp_user）
+ */
+@Data
+public class MallUser {
+
+    private int id;
+    private String nickname;
+    private String mobile;
+    private String address;
+}
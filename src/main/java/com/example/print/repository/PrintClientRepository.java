@@ -6,6 +6,7 @@ import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 
 public interface PrintClientRepository extends JpaRepository<PrintClient, String> {
@@ -16,6 +17,10 @@ public interface PrintClientRepository extends JpaRepository<PrintClient, String
     // 查询指定门店的在线客户端
     List<PrintClient> findByStoreIdAndOnlineTrue(int storeId);
 
+    // 查询一组门店中有在线客户端的门店ID
+    @Query("SELECT DISTINCT c.storeId FROM PrintClient c WHERE c.online = true AND c.storeId IN :storeIds")
+    List<Integer> findOnlineStoreIds(@Param("storeIds") Collection<Integer> storeIds);
+
     // 查询一段时间内未活跃的客户端
     List<PrintClient> findByOnlineTrueAndLastActiveTimeBefore(LocalDateTime threshold);
 
@@ -8,6 +8,7 @@ import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 
 public interface PrintHistoryRepository extends JpaRepository<PrintHistory, Integer> {
@@ -15,6 +16,9 @@ public interface PrintHistoryRepository extends JpaRepository<PrintHistory, Inte
     // 查询任务的打印历史
     List<PrintHistory> findByTaskId(String taskId);
 
+    // 查询一批任务的打印历史
+    List<PrintHistory> findByTaskIdIn(Collection<String> taskIds);
+
     // 查询客户端的打印历史
     List<PrintHistory> findByClientId(String clientId);
 
@@ -0,0 +1,17 @@
+package com.example.print.repository;
+
+import com.example.print.model.PrintTaskContent;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.util.Collection;
+
+public interface PrintTaskContentRepository extends JpaRepository<PrintTaskContent, String> {
+
+    // 删除一批任务的内容
+    @Modifying
+    @Query("DELETE FROM PrintTaskContent c WHERE c.taskId IN :taskIds")
+    int deleteByTaskIds(@Param("taskIds") Collection<String> taskIds);
+}
@@ -1,20 +1,36 @@
 package com.example.print.repository;
 
 import com.example.print.model.PrintTask;
+import com.example.print.model.PrintTaskPriority;
 import com.example.print.model.PrintTaskStatus;
+import com.example.print.model.PrintTaskType;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 
 public interface PrintTaskRepository extends JpaRepository<PrintTask, String> {
     // 按订单ID查询任务数量
     long countByOrderId(int orderId);
 
+    // 按订单ID和任务类型查询任务数量
+    long countByOrderIdAndTaskType(int orderId, PrintTaskType taskType);
+
+    // 查询一批订单中已存在指定类型任务的订单ID
+    @Query("SELECT DISTINCT t.orderId FROM PrintTask t WHERE t.orderId IN :orderIds AND t.taskType = :taskType")
+    List<Integer> findExistingOrderIds(@Param("orderIds") Collection<Integer> orderIds, @Param("taskType") PrintTaskType taskType);
+
+    // 查询某时间之后创建的指定类型任务的订单ID（含尚未回填类型的历史任务）
+    @Query("SELECT t.orderId FROM PrintTask t WHERE (t.taskType = :taskType OR t.taskType IS NULL) AND t.createTime >= :since")
+    List<Integer> findOrderIdsCreatedSince(@Param("taskType") PrintTaskType taskType, @Param("since") LocalDateTime since);
+
     // 按订单号查询任务
     List<PrintTask> findByOrderNo(String orderNo);
 
@@ -24,6 +40,9 @@ public interface PrintTaskRepository extends JpaRepository<PrintTask, String> {
     // 按状态查询任务
     List<PrintTask> findByStatus(PrintTaskStatus status);
 
+    // 按多个状态查询任务
+    List<PrintTask> findByStatusIn(Collection<PrintTaskStatus> statuses);
+
     // 按商户ID和状态查询任务
     List<PrintTask> findByMerchantIdAndStatus(int merchantId, PrintTaskStatus status);
 
@@ -40,6 +59,38 @@ public interface PrintTaskRepository extends JpaRepository<PrintTask, String> {
     @Query("SELECT t FROM PrintTask t WHERE t.status = :status AND t.createTime < :threshold")
     List<PrintTask> findStuckTasks(@Param("status") PrintTaskStatus status, @Param("threshold") LocalDateTime threshold);
 
+    // 按门店统计长时间未完成的任务数
+    @Query("SELECT t.storeId, COUNT(t) FROM PrintTask t WHERE t.status IN :statuses AND t.createTime < :threshold GROUP BY t.storeId")
+    List<Object[]> countStuckTasksByStore(@Param("statuses") Collection<PrintTaskStatus> statuses,
+                                          @Param("threshold") LocalDateTime threshold);
+
+    // 查询门店长时间未完成的任务
+    @Query("SELECT t FROM PrintTask t WHERE t.storeId = :storeId AND t.status = :status AND t.createTime < :threshold " +
+            "ORDER BY t.createTime")
+    List<PrintTask> findStuckTasksByStore(@Param("storeId") int storeId, @Param("status") PrintTaskStatus status,
+                                          @Param("threshold") LocalDateTime threshold);
+
+    // 批量把一组门店中长时间未完成的任务重置为待打印
+    @Transactional
+    @Modifying(clearAutomatically = true)
+    @Query("UPDATE PrintTask t SET t.status = com.example.print.model.PrintTaskStatus.PENDING, " +
+            "t.leaseExpireTime = NULL, t.lastUpdateTime = :now, t.version = t.version + 1 " +
+            "WHERE t.storeId IN :storeIds AND t.status IN :sources AND t.createTime < :threshold " +
+            "AND (t.leaseExpireTime IS NULL OR t.leaseExpireTime < :now)")
+    int resetStuckTasks(@Param("storeIds") Collection<Integer> storeIds,
+                        @Param("sources") Collection<PrintTaskStatus> sources,
+                        @Param("threshold") LocalDateTime threshold, @Param("now") LocalDateTime now);
+
+    // 批量把过期仍未完成的任务标记为死信，租约未到期（客户端仍在打印）的任务跳过
+    @Transactional
+    @Modifying(clearAutomatically = true)
+    @Query("UPDATE PrintTask t SET t.status = com.example.print.model.PrintTaskStatus.DEAD_LETTER, " +
+            "t.leaseExpireTime = NULL, t.lastUpdateTime = :now, t.version = t.version + 1 " +
+            "WHERE t.status IN :sources AND t.createTime < :threshold " +
+            "AND (t.leaseExpireTime IS NULL OR t.leaseExpireTime < :now)")
+    int expireTasks(@Param("sources") Collection<PrintTaskStatus> sources,
+                    @Param("threshold") LocalDateTime threshold, @Param("now") LocalDateTime now);
+
     // 查询特定商户当天的任务数
     @Query("SELECT COUNT(t) FROM PrintTask t WHERE t.merchantId = :merchantId AND DATE(t.createTime) = CURRENT_DATE")
     long countTodayTasksByMerchant(@Param("merchantId") int merchantId);
@@ -47,6 +98,72 @@ public interface PrintTaskRepository extends JpaRepository<PrintTask, String> {
     List<PrintTask> findByStatusAndMerchantId(PrintTaskStatus status, String merchantId);
     List<PrintTask> findByAssignedClientId(String clientId);
 
+    // 记录任务分配的客户端（仅待打印的任务），不属于状态流转，不修改版本号
+    @Transactional
+    @Modifying
+    @Query("UPDATE PrintTask t SET t.assignedClientId = :clientId WHERE t.taskId = :taskId AND t.status = :status")
+    int assignClient(@Param("taskId") String taskId, @Param("clientId") String clientId,
+                     @Param("status") PrintTaskStatus status);
+
+    // 状态流转：仅当版本号和源状态都匹配时更新，返回 0 表示任务已被其他请求更新
+    @Transactional
+    @Modifying(clearAutomatically = true)
+    @Query("UPDATE PrintTask t SET t.status = :status, t.lastUpdateTime = :now, t.version = t.version + 1 " +
+            "WHERE t.taskId = :taskId AND t.version = :version AND t.status IN :sources")
+    int transitionStatus(@Param("taskId") String taskId, @Param("version") long version,
+                         @Param("sources") Collection<PrintTaskStatus> sources,
+                         @Param("status") PrintTaskStatus status, @Param("now") LocalDateTime now);
+
+    // 标记死信，租约未到期（客户端仍在打印）时不更新
+    @Transactional
+    @Modifying(clearAutomatically = true)
+    @Query("UPDATE PrintTask t SET t.status = com.example.print.model.PrintTaskStatus.DEAD_LETTER, " +
+            "t.leaseExpireTime = NULL, t.lastUpdateTime = :now, t.version = t.version + 1 " +
+            "WHERE t.taskId = :taskId AND t.version = :version AND t.status IN :sources " +
+            "AND (t.leaseExpireTime IS NULL OR t.leaseExpireTime < :now)")
+    int deadLetterTask(@Param("taskId") String taskId, @Param("version") long version,
+                       @Param("sources") Collection<PrintTaskStatus> sources, @Param("now") LocalDateTime now);
+
+    // 标记完成，同时记录打印时间
+    @Transactional
+    @Modifying(clearAutomatically = true)
+    @Query("UPDATE PrintTask t SET t.status = com.example.print.model.PrintTaskStatus.COMPLETED, " +
+            "t.printTime = :now, t.leaseExpireTime = NULL, t.lastUpdateTime = :now, t.version = t.version + 1 " +
+            "WHERE t.taskId = :taskId AND t.version = :version AND t.status IN :sources")
+    int completeTask(@Param("taskId") String taskId, @Param("version") long version,
+                     @Param("sources") Collection<PrintTaskStatus> sources, @Param("now") LocalDateTime now);
+
+    // 标记失败，同时累加重试次数
+    @Transactional
+    @Modifying(clearAutomatically = true)
+    @Query("UPDATE PrintTask t SET t.status = com.example.print.model.PrintTaskStatus.FAILED, " +
+            "t.retryCount = t.retryCount + 1, t.leaseExpireTime = NULL, t.lastUpdateTime = :now, " +
+            "t.version = t.version + 1 " +
+            "WHERE t.taskId = :taskId AND t.version = :version AND t.status IN :sources")
+    int failTask(@Param("taskId") String taskId, @Param("version") long version,
+                 @Param("sources") Collection<PrintTaskStatus> sources, @Param("now") LocalDateTime now);
+
+    // 回填历史任务的任务类型（按旧 content 列中的打印内容匹配）
+    @Modifying
+    @Query(value = "UPDATE print_tasks SET task_type = :taskType WHERE task_type IS NULL AND content LIKE :pattern",
+            nativeQuery = true)
+    int backfillTaskTypeByContent(@Param("taskType") String taskType, @Param("pattern") String pattern);
+
+    // 回填历史任务的任务类型（按订单号匹配）
+    @Modifying
+    @Query("UPDATE PrintTask t SET t.taskType = :taskType WHERE t.taskType IS NULL AND t.orderNo LIKE :pattern")
+    int backfillTaskTypeByOrderNo(@Param("taskType") PrintTaskType taskType, @Param("pattern") String pattern);
+
+    // 回填其余未设置类型的任务
+    @Modifying
+    @Query("UPDATE PrintTask t SET t.taskType = :taskType WHERE t.taskType IS NULL")
+    int backfillTaskType(@Param("taskType") PrintTaskType taskType);
+
+    // 按任务类型回填未设置的优先级
+    @Modifying
+    @Query("UPDATE PrintTask t SET t.priority = :priority WHERE t.priority IS NULL AND t.taskType = :taskType")
+    int backfillPriority(@Param("taskType") PrintTaskType taskType, @Param("priority") PrintTaskPriority priority);
+
 
 
 }
\ No newline at end of file
@@ -0,0 +1,13 @@
+package com.example.print.repository;
+
+import com.example.print.model.PrintTaskType;
+import com.example.print.model.ReceiptTemplate;
+import org.springframework.data.jpa.repository.JpaRepository;
+
+import java.util.Optional;
+
+public interface ReceiptTemplateRepository extends JpaRepository<ReceiptTemplate, Long> {
+
+    // 查询门店指定类型的模板
+    Optional<ReceiptTemplate> findByStoreIdAndTemplateType(int storeId, PrintTaskType templateType);
+}
@@ -0,0 +1,7 @@
+package com.example.print.repository;
+
+import com.example.print.model.SyncCheckpoint;
+import org.springframework.data.jpa.repository.JpaRepository;
+
+public interface SyncCheckpointRepository extends JpaRepository<SyncCheckpoint, String> {
+}
@@ -0,0 +1,30 @@
+package com.example.print.repository;
+
+import com.example.print.model.SyncLease;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+
+public interface SyncLeaseRepository extends JpaRepository<SyncLease, Integer> {
+
+    // 获取或续期租约：租约属于自己或已过期时才能更新成功
+    @Transactional
+    @Modifying
+    @Query("UPDATE SyncLease l SET l.ownerId = :ownerId, l.leaseUntil = :leaseUntil, l.updateTime = :now " +
+            "WHERE l.shardId = :shardId AND (l.ownerId = :ownerId OR l.ownerId IS NULL OR l.leaseUntil < :now)")
+    int tryAcquire(@Param("shardId") int shardId, @Param("ownerId") String ownerId,
+                   @Param("leaseUntil") LocalDateTime leaseUntil, @Param("now") LocalDateTime now);
+
+    // 释放自己持有的租约，其他实例可立即接管
+    @Transactional
+    @Modifying
+    @Query("UPDATE SyncLease l SET l.ownerId = NULL, l.leaseUntil = :now, l.updateTime = :now " +
+            "WHERE l.shardId IN :shardIds AND l.ownerId = :ownerId")
+    int release(@Param("shardIds") Collection<Integer> shardIds, @Param("ownerId") String ownerId,
+                @Param("now") LocalDateTime now);
+}
@@ -0,0 +1,131 @@
+package com.example.print.repository.mall;
+
+import com.example.print.model.mall.*;
+import org.springframework.jdbc.core.RowMapper;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+
+/**
+ * 商城旧表的行映射，只读取小票需要的列
+ * MySQL 的 tinyint(1) 可能被驱动映射为布尔值，这里统一用 getInt/getLong 读取原始数值
+ */
+public final class MallRowMappers {
+
+    /**
+     * 订单列，alias 为表别名（可为空）
+     */
+    public static String orderColumns(String alias) {
+        String p = alias == null || alias.isEmpty() ? "" : alias + ".";
+        return p + "id, " + p + "order_no, " + p + "uid, " + p + "merchant_id, " + p + "store_id, " +
+                p + "type, " + p + "pay_time, " + p + "pay_type, " + p + "goods_price, " + p + "pay_money, " +
+                p + "delivery_fee, " + p + "pack_fee, " + p + "pay_real, " + p + "all_money, " +
+                p + "user_delivery_fee";
+    }
+
+    public static final String ORDER_ITEM_COLUMNS =
+            "bs.bill_id, bs.goods_id, bs.goods_name, bs.goods_code, bs.sell_num, bs.sell_price, bs.refund_money";
+
+    public static final String ONLINE_ORDER_COLUMNS =
+            "bo.bill_id, bo.pickup_type, bo.user_name, bo.user_phone, bo.user_address, bo.remark, " +
+                    "bo.user_select_time, do.send_type";
+
+    public static final String STORE_COLUMNS = "id, merchant_id, name";
+
+    public static final RowMapper<MallOrder> ORDER = (rs, rowNum) -> {
+        MallOrder order = new MallOrder();
+        order.setId(rs.getInt("id"));
+        order.setOrderNo(rs.getString("order_no"));
+        order.setUid(rs.getInt("uid"));
+        order.setMerchantId(rs.getInt("merchant_id"));
+        order.setStoreId(rs.getInt("store_id"));
+        // 类型缺失时按线上订单处理
+        Integer type = getInteger(rs, "type");
+        order.setType(type != null ? type : 1);
+        order.setPayTime(getLong(rs, "pay_time"));
+        order.setPayType(rs.getInt("pay_type"));
+        order.setGoodsPrice(rs.getDouble("goods_price"));
+        order.setPayMoney(rs.getDouble("pay_money"));
+        order.setDeliveryFee(rs.getDouble("delivery_fee"));
+        order.setPackFee(rs.getDouble("pack_fee"));
+        order.setPayReal(rs.getBigDecimal("pay_real"));
+        order.setAllMoney(rs.getBigDecimal("all_money"));
+        order.setUserDeliveryFee(rs.getBigDecimal("user_delivery_fee"));
+        return order;
+    };
+
+    public static final RowMapper<MallOrderItem> ORDER_ITEM = (rs, rowNum) -> {
+        MallOrderItem item = new MallOrderItem();
+        item.setBillId(rs.getInt("bill_id"));
+        item.setGoodsId(rs.getInt("goods_id"));
+        item.setGoodsName(rs.getString("goods_name"));
+        item.setGoodsCode(rs.getString("goods_code"));
+        item.setSellNum(rs.getDouble("sell_num"));
+        item.setSellPrice(rs.getDouble("sell_price"));
+        item.setRefundMoney(rs.getDouble("refund_money"));
+        return item;
+    };
+
+    public static final RowMapper<MallOnlineOrder> ONLINE_ORDER = (rs, rowNum) -> {
+        MallOnlineOrder online = new MallOnlineOrder();
+        online.setBillId(rs.getInt("bill_id"));
+        online.setPickupType(rs.getInt("pickup_type"));
+        online.setSendType(getInteger(rs, "send_type"));
+        online.setUserName(rs.getString("user_name"));
+        online.setUserPhone(rs.getString("user_phone"));
+        online.setUserAddress(rs.getString("user_address"));
+        online.setRemark(rs.getString("remark"));
+        online.setUserSelectTime(getLong(rs, "user_select_time"));
+        return online;
+    };
+
+    /**
+     * 用户表结构不固定（address 列不一定存在），按 SELECT * 的结果读取需要的列
+     */
+    public static final RowMapper<MallUser> USER = (rs, rowNum) -> {
+        MallUser user = new MallUser();
+        user.setId(rs.getInt("id"));
+        user.setNickname(hasColumn(rs, "nickname") ? rs.getString("nickname") : "");
+        user.setMobile(hasColumn(rs, "mobile") ? rs.getString("mobile") : "");
+        user.setAddress(hasColumn(rs, "address") ? rs.getString("address") : "");
+        return user;
+    };
+
+    public static final RowMapper<MallStore> STORE = (rs, rowNum) -> {
+        MallStore store = new MallStore();
+        store.setId(rs.getInt("id"));
+        store.setMerchantId(rs.getInt("merchant_id"));
+        store.setName(rs.getString("name"));
+        return store;
+    };
+
+    private MallRowMappers() {
+    }
+
+    /**
+     * 读取可空整数列
+     */
+    public static Integer getInteger(ResultSet rs, String column) throws SQLException {
+        int value = rs.getInt(column);
+        return rs.wasNull() ? null : value;
+    }
+
+    /**
+     * 读取可空长整数列
+     */
+    public static Long getLong(ResultSet rs, String column) throws SQLException {
+        long value = rs.getLong(column);
+        return rs.wasNull() ? null : value;
+    }
+
+    private static boolean hasColumn(ResultSet rs, String column) throws SQLException {
+        ResultSetMetaData metaData = rs.getMetaData();
+        for (int i = 1; i <= metaData.getColumnCount(); i++) {
+            if (column.equalsIgnoreCase(metaData.getColumnLabel(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
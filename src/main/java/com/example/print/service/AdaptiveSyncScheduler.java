@@ -0,0 +1,188 @@
+package com.example.print.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntFunction;
+
+/**
+ * 订单同步自适应调度
+ * 上一批已满时立即继续并逐步加大批次；批次为空时按倍数退避，直到最大间隔；
+ * 部分批次时恢复基础间隔和基础批次
+ */
+@Component
+@Slf4j
+public class AdaptiveSyncScheduler {
+
+    @Autowired
+    private OrderSyncService orderSyncService;
+
+    @Value("${print.order.sync.interval:10000}")
+    private long paidInterval;
+
+    @Value("${print.order.sync.batch-size:50}")
+    private int paidBatchSize;
+
+    @Value("${print.refund.sync-interval:30000}")
+    private long refundInterval;
+
+    @Value("${print.refund.batch-size:20}")
+    private int refundBatchSize;
+
+    @Value("${print.refund.enabled:true}")
+    private boolean refundEnabled;
+
+    @Value("${print.order.sync.adaptive.min-interval:200}")
+    private long minInterval;
+
+    @Value("${print.order.sync.adaptive.max-interval:60000}")
+    private long maxInterval;
+
+    @Value("${print.order.sync.adaptive.backoff-multiplier:2.0}")
+    private double backoffMultiplier;
+
+    @Value("${print.order.sync.adaptive.max-batch-size:500}")
+    private int maxBatchSize;
+
+    private SyncLoop paidLoop;
+    private SyncLoop refundLoop;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        paidLoop = new SyncLoop("paid-order-sync", paidInterval, paidBatchSize, orderSyncService::syncPaidOrders);
+        paidLoop.schedule(0);
+
+        if (refundEnabled) {
+            refundLoop = new SyncLoop("refund-order-sync", refundInterval, refundBatchSize, orderSyncService::syncRefundOrders);
+            refundLoop.schedule(0);
+        } else {
+            log.info("退货单打印未启用，不同步退款订单");
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (paidLoop != null) {
+            paidLoop.stop();
+        }
+        if (refundLoop != null) {
+            refundLoop.stop();
+        }
+    }
+
+    /**
+     * 当前同步节奏指标
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        if (paidLoop != null) {
+            stats.put("paidOrders", paidLoop.getStats());
+        }
+        if (refundLoop != null) {
+            stats.put("refundOrders", refundLoop.getStats());
+        }
+        return stats;
+    }
+
+    /**
+     * 单个同步循环，每个循环使用独立线程，不占用公共调度线程
+     */
+    private class SyncLoop {
+
+        private final String name;
+        private final long baseInterval;
+        private final int baseBatchSize;
+        private final IntFunction<OrderSyncService.SyncRunResult> runner;
+        private final ScheduledExecutorService executor;
+
+        private volatile long currentInterval;
+        private volatile int currentBatchSize;
+        private volatile int backlogEstimate;
+        private volatile int lastFetched;
+        private volatile LocalDateTime lastRunTime;
+        private volatile long runs;
+
+        SyncLoop(String name, long baseInterval, int baseBatchSize, IntFunction<OrderSyncService.SyncRunResult> runner) {
+            this.name = name;
+            this.baseInterval = baseInterval;
+            this.baseBatchSize = baseBatchSize;
+            this.runner = runner;
+            this.currentInterval = baseInterval;
+            this.currentBatchSize = baseBatchSize;
+            this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, name);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
+        void schedule(long delay) {
+            if (!executor.isShutdown()) {
+                executor.schedule(this::run, delay, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        void stop() {
+            executor.shutdownNow();
+        }
+
+        private void run() {
+            try {
+                OrderSyncService.SyncRunResult result = runner.apply(currentBatchSize);
+                adjust(result);
+            } catch (Exception e) {
+                log.error("{} 执行失败", name, e);
+                currentInterval = baseInterval;
+                currentBatchSize = baseBatchSize;
+            } finally {
+                runs++;
+                lastRunTime = LocalDateTime.now();
+                schedule(currentInterval);
+            }
+        }
+
+        private void adjust(OrderSyncService.SyncRunResult result) {
+            lastFetched = result.getFetched();
+            backlogEstimate = result.getBacklog();
+
+            if (result.isFull()) {
+                // 有积压：立即继续，批次翻倍
+                currentInterval = minInterval;
+                currentBatchSize = Math.min(currentBatchSize * 2, Math.max(maxBatchSize, baseBatchSize));
+            } else if (result.getFetched() == 0) {
+                // 空闲：从基础间隔开始按倍数退避
+                long next = currentInterval < baseInterval ? baseInterval : (long) (currentInterval * backoffMultiplier);
+                currentInterval = Math.min(next, Math.max(maxInterval, baseInterval));
+                currentBatchSize = baseBatchSize;
+            } else {
+                currentInterval = baseInterval;
+                currentBatchSize = baseBatchSize;
+            }
+
+            log.debug("{} 调整节奏: 拉取={}, 积压={}, 间隔={}ms, 批次={}",
+                    name, lastFetched, backlogEstimate, currentInterval, currentBatchSize);
+        }
+
+        Map<String, Object> getStats() {
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("intervalMs", currentInterval);
+            stats.put("batchSize", currentBatchSize);
+            stats.put("backlogEstimate", backlogEstimate);
+            stats.put("lastFetched", lastFetched);
+            stats.put("lastRunTime", lastRunTime);
+            stats.put("runs", runs);
+            return stats;
+        }
+    }
+}
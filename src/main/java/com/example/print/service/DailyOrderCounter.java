@@ -0,0 +1,176 @@
+package com.example.print.service;
+
+import com.example.print.model.mall.MallOrder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 商户每日订单序号计数器
+ * 每个商户当天的计数只在首次使用时从数据库初始化一次，之后随订单同步递增，
+ * 跨天自动切换，重启后重新从数据库初始化即可恢复；
+ * 分片租约变化时清理该分片商户的计数，其他实例持有期间同步的订单不会被漏计
+ */
+@Component
+@Slf4j
+public class DailyOrderCounter {
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private NamedParameterJdbcTemplate namedJdbcTemplate;
+
+    // key: 商户ID:日期
+    private final Map<String, DayCounter> counters = new ConcurrentHashMap<>();
+
+    /**
+     * 获取订单在商户当天的序号
+     * 同步时需按订单ID升序对每个已付款订单调用（包括已存在打印任务的订单），计数才能连续
+     *
+     * @param merchantId 商户ID
+     * @param orderId    订单ID
+     * @param payTime    支付时间（秒级时间戳），为空时按当天计算
+     */
+    public int nextIndex(int merchantId, int orderId, Long payTime) {
+        LocalDate day = dayOf(payTime);
+
+        // 非当天的订单（手动补单）直接查询，不缓存
+        if (!day.equals(LocalDate.now())) {
+            return countFromDb(merchantId, day, orderId);
+        }
+
+        DayCounter counter = counters.computeIfAbsent(merchantId + ":" + day, k -> new DayCounter());
+        synchronized (counter) {
+            if (!counter.seeded) {
+                counter.count = countFromDb(merchantId, day, orderId);
+                counter.lastOrderId = orderId;
+                counter.seeded = true;
+                log.debug("初始化商户 {} 当日订单计数: {}", merchantId, counter.count);
+            } else if (orderId > counter.lastOrderId) {
+                counter.count++;
+                counter.lastOrderId = orderId;
+            } else if (orderId < counter.lastOrderId) {
+                // 重新处理较早的订单，按数据库计算
+                return countFromDb(merchantId, day, orderId);
+            }
+            return counter.count;
+        }
+    }
+
+    /**
+     * 批量计算订单在商户当天的序号，用于手动补单
+     * 直接按数据库计算，不读取也不修改当天的计数；整批只查询一次涉及的商户在日期范围内的已付款订单ID，
+     * 序号为同一商户同一天中订单ID不大于该订单的数量
+     *
+     * @return 订单ID -> 序号
+     */
+    public Map<Integer, Integer> indexesFromDb(List<MallOrder> orders) {
+        Map<Integer, Integer> indexes = new HashMap<>();
+        if (orders.isEmpty()) {
+            return indexes;
+        }
+
+        Set<Integer> merchantIds = new HashSet<>();
+        LocalDate minDay = null;
+        LocalDate maxDay = null;
+        int maxOrderId = 0;
+        for (MallOrder order : orders) {
+            LocalDate day = dayOf(order.getPayTime());
+            merchantIds.add(order.getMerchantId());
+            minDay = minDay == null || day.isBefore(minDay) ? day : minDay;
+            maxDay = maxDay == null || day.isAfter(maxDay) ? day : maxDay;
+            maxOrderId = Math.max(maxOrderId, order.getId());
+        }
+
+        String sql = "SELECT id, merchant_id, pay_time FROM tp_retail_bill_order " +
+                "WHERE merchant_id IN (:merchantIds) AND pay_state = 1 " +
+                "AND pay_time >= :rangeStart AND pay_time < :rangeEnd AND id <= :maxOrderId ORDER BY id";
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("merchantIds", merchantIds)
+                .addValue("rangeStart", minDay.atStartOfDay(ZoneId.systemDefault()).toEpochSecond())
+                .addValue("rangeEnd", maxDay.plusDays(1).atStartOfDay(ZoneId.systemDefault()).toEpochSecond())
+                .addValue("maxOrderId", maxOrderId);
+
+        // key: 商户ID:日期，value: 当天已付款订单ID（升序）
+        Map<String, List<Integer>> dayOrderIds = new HashMap<>();
+        namedJdbcTemplate.query(sql, params, rs -> {
+            String key = rs.getInt("merchant_id") + ":" + dayOf(rs.getLong("pay_time"));
+            dayOrderIds.computeIfAbsent(key, k -> new ArrayList<>()).add(rs.getInt("id"));
+        });
+
+        for (MallOrder order : orders) {
+            List<Integer> ids = dayOrderIds.getOrDefault(
+                    order.getMerchantId() + ":" + dayOf(order.getPayTime()), Collections.emptyList());
+            int pos = Collections.binarySearch(ids, order.getId());
+            indexes.put(order.getId(), pos >= 0 ? pos + 1 : -pos - 1);
+        }
+        return indexes;
+    }
+
+    /**
+     * 支付时间（秒级时间戳）所在的日期，为空时按当天计算
+     */
+    private LocalDate dayOf(Long payTime) {
+        return payTime != null && payTime > 0
+                ? Instant.ofEpochSecond(payTime).atZone(ZoneId.systemDefault()).toLocalDate()
+                : LocalDate.now();
+    }
+
+    /**
+     * 统计商户当天截至该订单（含）的已付款订单数
+     * 使用 pay_time 范围条件，可以走索引
+     */
+    private int countFromDb(int merchantId, LocalDate day, int orderId) {
+        long dayStart = day.atStartOfDay(ZoneId.systemDefault()).toEpochSecond();
+        long dayEnd = day.plusDays(1).atStartOfDay(ZoneId.systemDefault()).toEpochSecond();
+
+        String sql = "SELECT COUNT(*) FROM tp_retail_bill_order " +
+                "WHERE merchant_id = ? AND pay_state = 1 AND pay_time >= ? AND pay_time < ? AND id <= ?";
+
+        Integer count = jdbcTemplate.queryForObject(sql, Integer.class, merchantId, dayStart, dayEnd, orderId);
+        return count != null ? count : 0;
+    }
+
+    /**
+     * 清理分片内商户的计数，下次同步时重新从数据库初始化
+     * 分片租约获取或丢失时调用：其他实例持有分片期间处理的订单不在本地计数中
+     */
+    public void invalidateShard(int shardId, int shardCount) {
+        int before = counters.size();
+        counters.keySet().removeIf(key -> {
+            int merchantId = Integer.parseInt(key.substring(0, key.indexOf(':')));
+            return shardCount <= 1 || merchantId % shardCount == shardId;
+        });
+        if (counters.size() != before) {
+            log.info("分片 {} 租约变化，清理商户当日订单计数: {} -> {}", shardId, before, counters.size());
+        }
+    }
+
+    /**
+     * 每天零点清理前一天的计数
+     */
+    @Scheduled(cron = "0 0 0 * * ?")
+    public void resetDailyCounters() {
+        String todaySuffix = ":" + LocalDate.now();
+        int before = counters.size();
+        counters.keySet().removeIf(key -> !key.endsWith(todaySuffix));
+        log.info("清理每日订单计数: {} -> {}", before, counters.size());
+    }
+
+    private static class DayCounter {
+        private boolean seeded;
+        private int count;
+        private int lastOrderId;
+    }
+}
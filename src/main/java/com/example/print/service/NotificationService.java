@@ -1,23 +1,90 @@
 package com.example.print.service;
 
 import com.example.print.model.PrintTask;
+import com.example.print.model.PrintTaskPriority;
 import com.example.print.model.PrintTaskStatus;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 @Service
 @Slf4j
 public class NotificationService {
 
+    // 分发队列顺序：优先级、创建时间，相同时按入队顺序
+    private static final Comparator<Dispatch> DISPATCH_ORDER = Comparator
+            .comparing((Dispatch dispatch) -> dispatch.task, PrintTask.DISPATCH_ORDER)
+            .thenComparingLong(dispatch -> dispatch.sequence);
+
     @Autowired
     private SimpMessagingTemplate messagingTemplate;
 
+    @Autowired
+    private ReceiptRenderService receiptRenderService;
+
+    @Autowired
+    private PrintTaskContentStore contentStore;
+
+    @Autowired
+    private TaskAssignmentService assignmentService;
+
+    @Value("${print.dispatch.workers:2}")
+    private int dispatchWorkers;
+
+    @Value("${print.dispatch.queue-capacity:10000}")
+    private int dispatchQueueCapacity;
+
+    private final PriorityBlockingQueue<Dispatch> dispatchQueue = new PriorityBlockingQueue<>(64, DISPATCH_ORDER);
+    private final AtomicLong dispatchSequence = new AtomicLong();
+    private final Map<PrintTaskPriority, DispatchStats> dispatchStats = new EnumMap<>(PrintTaskPriority.class);
+    private final List<Thread> dispatchThreads = new ArrayList<>();
+    private final AtomicLong directDispatches = new AtomicLong();
+    private volatile boolean running;
+
+    @PostConstruct
+    public void startDispatch() {
+        for (PrintTaskPriority priority : PrintTaskPriority.values()) {
+            dispatchStats.put(priority, new DispatchStats());
+        }
+        running = true;
+        for (int i = 1; i <= Math.max(1, dispatchWorkers); i++) {
+            Thread thread = new Thread(this::runDispatch, "task-dispatch-" + i);
+            thread.setDaemon(true);
+            thread.start();
+            dispatchThreads.add(thread);
+        }
+        log.info("初始化打印任务分发，线程数: {}, 队列容量: {}", dispatchThreads.size(), dispatchQueueCapacity);
+    }
+
+    @PreDestroy
+    public void stopDispatch() {
+        running = false;
+        for (Thread thread : dispatchThreads) {
+            thread.interrupt();
+        }
+        // 停止前发出队列中剩余的任务
+        Dispatch dispatch;
+        while ((dispatch = dispatchQueue.poll()) != null) {
+            send(dispatch);
+        }
+    }
+
     /**
      * 向特定商户的所有客户端广播打印任务
      */
@@ -37,16 +104,59 @@ public class NotificationService {
 
 
     /**
-     * 向特定门店的所有客户端广播打印任务
+     * 向特定门店推送打印任务
+     * 任务进入按优先级排序的分发队列，积压时高优先级任务先发出；队列满时在调用线程直接发送。
+     * 门店支持单独分配时只发给选中的客户端，否则向门店的所有客户端广播
      */
     public void broadcastToPrintersByStore(int storeId, PrintTask task) {
+        // 分发线程会附加内容和渲染数据，使用副本避免影响调用方返回的任务
+        Dispatch dispatch = new Dispatch(storeId, task.toBuilder().build(), dispatchSequence.incrementAndGet());
+        if (running && dispatchQueue.size() < dispatchQueueCapacity) {
+            dispatchQueue.add(dispatch);
+            return;
+        }
+        directDispatches.incrementAndGet();
+        send(dispatch);
+    }
+
+    private void runDispatch() {
+        while (running) {
+            try {
+                send(dispatchQueue.take());
+            } catch (InterruptedException e) {
+                // 停止时剩余任务由 stopDispatch 发出
+            } catch (Exception e) {
+                log.error("打印任务分发线程异常", e);
+            }
+        }
+    }
+
+    private void send(Dispatch dispatch) {
+        long waitNanos = System.nanoTime() - dispatch.enqueueTime;
+        dispatchStats.get(PrintTaskPriority.orDefault(dispatch.task.getPriority())).record(waitNanos);
+        sendToStore(dispatch.storeId, dispatch.task);
+    }
+
+    private void sendToStore(int storeId, PrintTask task) {
         try {
 
+            // 重新分发的任务从库中读出时不带内容
+            contentStore.attach(task);
             log.info("准备广播打印任务到主题: {}", task);
-            // 1. 向门店特定主题发送消息
+            // 门店有支持 ESC/POS 的客户端时附带服务端渲染的数据
+            receiptRenderService.attachRendered(task);
+
+            // 1. 分配给单个客户端，确认超时后重新进入分发队列换下一个客户端
+            String clientId = assignmentService.assign(storeId, task, this::broadcastToPrintersByStore);
+            if (clientId != null) {
+                sendMessageToClient(clientId, "PRINT_TASK", task);
+                return;
+            }
+
+            // 2. 向门店特定主题发送消息
             messagingTemplate.convertAndSend("/topic/store/" + storeId + "/print-tasks", task);
 
-            // 2. 记录日志
+            // 3. 记录日志
             log.info("向门店 {} 广播打印任务: {}", storeId, task.getTaskId());
         } catch (Exception e) {
             log.error("广播打印任务失败: {}", task.getTaskId(), e);
@@ -54,17 +164,35 @@ public class NotificationService {
     }
 
 
+    /**
+     * 分发队列积压和各优先级的排队时间
+     */
+    public Map<String, Object> getDispatchStats() {
+        Map<PrintTaskPriority, Integer> queued = new EnumMap<>(PrintTaskPriority.class);
+        for (Dispatch dispatch : dispatchQueue) {
+            queued.merge(PrintTaskPriority.orDefault(dispatch.task.getPriority()), 1, Integer::sum);
+        }
+
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("queueDepth", dispatchQueue.size());
+        stats.put("queueCapacity", dispatchQueueCapacity);
+        stats.put("workers", dispatchThreads.size());
+        stats.put("directDispatches", directDispatches.get());
+        for (Map.Entry<PrintTaskPriority, DispatchStats> entry : dispatchStats.entrySet()) {
+            Map<String, Object> priorityStats = entry.getValue().toMap();
+            priorityStats.put("queued", queued.getOrDefault(entry.getKey(), 0));
+            stats.put(entry.getKey().name(), priorityStats);
+        }
+        return stats;
+    }
+
     /**
      * 任务状态更新通知
      */
     public void notifyTaskStatusUpdate(PrintTask task) {
         try {
             // 创建状态更新消息
-            Map<String, Object> statusUpdate = new HashMap<>();
-            statusUpdate.put("taskId", task.getTaskId());
-            statusUpdate.put("status", task.getStatus().name());
-            statusUpdate.put("orderNo", task.getOrderNo());
-            statusUpdate.put("updateTime", task.getLastUpdateTime().toString());
+            Map<String, Object> statusUpdate = statusUpdateMessage(task);
 
             // 1. 向店铺特定主题发送更新
             messagingTemplate.convertAndSend(
@@ -80,6 +208,54 @@ public class NotificationService {
         }
     }
 
+    /**
+     * 批量任务状态更新通知
+     * 在事务提交后每个门店发送一条汇总消息（type 为 BATCH_STATUS_UPDATE，updates 为各任务的状态更新），
+     * 通用主题发送一条包含全部任务的汇总消息
+     */
+    public void notifyTaskStatusUpdates(List<PrintTask> tasks) {
+        if (tasks.isEmpty()) {
+            return;
+        }
+        List<Map<String, Object>> all = new ArrayList<>(tasks.size());
+        Map<Integer, List<Map<String, Object>>> byStore = new LinkedHashMap<>();
+        for (PrintTask task : tasks) {
+            Map<String, Object> statusUpdate = statusUpdateMessage(task);
+            all.add(statusUpdate);
+            byStore.computeIfAbsent(task.getStoreId(), k -> new ArrayList<>()).add(statusUpdate);
+        }
+
+        TransactionCallbacks.afterCommit(() -> {
+            try {
+                for (Map.Entry<Integer, List<Map<String, Object>>> entry : byStore.entrySet()) {
+                    messagingTemplate.convertAndSend("/topic/store/" + entry.getKey() + "/print-status",
+                            batchStatusMessage(entry.getValue()));
+                }
+                messagingTemplate.convertAndSend("/topic/print-status", batchStatusMessage(all));
+                log.info("发送批量任务状态更新: {} 个任务, {} 个门店", all.size(), byStore.size());
+            } catch (Exception e) {
+                log.error("发送批量任务状态更新失败", e);
+            }
+        });
+    }
+
+    private Map<String, Object> statusUpdateMessage(PrintTask task) {
+        Map<String, Object> statusUpdate = new HashMap<>();
+        statusUpdate.put("taskId", task.getTaskId());
+        statusUpdate.put("status", task.getStatus().name());
+        statusUpdate.put("orderNo", task.getOrderNo());
+        statusUpdate.put("updateTime", task.getLastUpdateTime().toString());
+        return statusUpdate;
+    }
+
+    private Map<String, Object> batchStatusMessage(List<Map<String, Object>> updates) {
+        Map<String, Object> message = new HashMap<>();
+        message.put("type", "BATCH_STATUS_UPDATE");
+        message.put("updates", updates);
+        message.put("timestamp", System.currentTimeMillis());
+        return message;
+    }
+
     /**
      * 发送系统通知
      */
@@ -137,4 +313,51 @@ public class NotificationService {
             log.error("发送错误通知失败", e);
         }
     }
+
+    /**
+     * 分发队列中的任务
+     */
+    private static class Dispatch {
+
+        private final int storeId;
+        private final PrintTask task;
+        private final long sequence;
+        private final long enqueueTime = System.nanoTime();
+
+        Dispatch(int storeId, PrintTask task, long sequence) {
+            this.storeId = storeId;
+            this.task = task;
+            this.sequence = sequence;
+        }
+    }
+
+    /**
+     * 单个优先级的分发次数和排队时间
+     */
+    private static class DispatchStats {
+
+        private final AtomicLong dispatched = new AtomicLong();
+        private final AtomicLong totalWaitNanos = new AtomicLong();
+        private volatile long lastWaitNanos;
+        private volatile long maxWaitNanos;
+
+        void record(long waitNanos) {
+            dispatched.incrementAndGet();
+            totalWaitNanos.addAndGet(waitNanos);
+            lastWaitNanos = waitNanos;
+            if (waitNanos > maxWaitNanos) {
+                maxWaitNanos = waitNanos;
+            }
+        }
+
+        Map<String, Object> toMap() {
+            long count = dispatched.get();
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("dispatched", count);
+            stats.put("lastWaitMs", TimeUnit.NANOSECONDS.toMillis(lastWaitNanos));
+            stats.put("avgWaitMs", count == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalWaitNanos.get() / count));
+            stats.put("maxWaitMs", TimeUnit.NANOSECONDS.toMillis(maxWaitNanos));
+            return stats;
+        }
+    }
 }
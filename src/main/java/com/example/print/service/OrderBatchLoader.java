@@ -0,0 +1,258 @@
+package com.example.print.service;
+
+import com.example.print.model.mall.*;
+import com.example.print.repository.mall.MallRowMappers;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+
+/**
+ * 订单批量数据加载器
+ * 一批订单的商品、规格、用户、店铺、线上订单信息各用一次 IN 查询取回，在内存中组装，
+ * 渲染整批小票的查询次数与订单数量无关
+ */
+@Component
+@Slf4j
+public class OrderBatchLoader {
+
+    @Autowired
+    private NamedParameterJdbcTemplate namedJdbcTemplate;
+
+    @Autowired
+    private ReferenceDataCache referenceDataCache;
+
+    /**
+     * 加载已付款订单渲染所需的全部数据
+     */
+    public OrderBatch loadPaidOrders(List<MallOrder> orders) {
+        OrderBatch batch = new OrderBatch();
+        if (orders.isEmpty()) {
+            return batch;
+        }
+
+        Set<Integer> orderIds = new LinkedHashSet<>();
+        Set<Integer> onlineOrderIds = new LinkedHashSet<>();
+        Set<Integer> uids = new LinkedHashSet<>();
+        Set<Integer> storeIds = new LinkedHashSet<>();
+        for (MallOrder order : orders) {
+            orderIds.add(order.getId());
+            uids.add(order.getUid());
+            storeIds.add(order.getStoreId());
+            if (order.getType() == 1) {
+                onlineOrderIds.add(order.getId());
+            }
+        }
+
+        String itemSql = "SELECT " + MallRowMappers.ORDER_ITEM_COLUMNS + " FROM tp_retail_bill_sell bs " +
+                "WHERE bs.bill_id IN (:ids)";
+        loadItems(batch.orderItems, itemSql, orderIds);
+
+        loadUsers(batch, uids);
+        loadStores(batch, storeIds);
+        loadOnlineInfo(batch, onlineOrderIds);
+
+        log.debug("批量加载订单数据完成: 订单={}, 用户={}, 店铺={}, 线上订单={}",
+                orderIds.size(), batch.users.size(), batch.stores.size(), batch.onlineInfo.size());
+        return batch;
+    }
+
+    /**
+     * 加载退款订单渲染所需的全部数据（仅退款成功的商品）
+     */
+    public OrderBatch loadRefundOrders(List<MallOrder> orders) {
+        OrderBatch batch = new OrderBatch();
+        if (orders.isEmpty()) {
+            return batch;
+        }
+
+        Set<Integer> orderIds = new LinkedHashSet<>();
+        Set<Integer> storeIds = new LinkedHashSet<>();
+        for (MallOrder order : orders) {
+            orderIds.add(order.getId());
+            storeIds.add(order.getStoreId());
+        }
+
+        String itemSql = "SELECT " + MallRowMappers.ORDER_ITEM_COLUMNS + " FROM tp_retail_bill_sell bs " +
+                "WHERE bs.bill_id IN (:ids) AND bs.refund_status = 2 AND bs.scene_type = 2";
+        loadItems(batch.orderItems, itemSql, orderIds);
+
+        loadStores(batch, storeIds);
+        return batch;
+    }
+
+    /**
+     * 查询订单商品并按订单分组，餐饮商品的规格一次性批量补齐
+     */
+    private void loadItems(Map<Integer, List<MallOrderItem>> target, String sql, Set<Integer> orderIds) {
+        List<MallOrderItem> items = namedJdbcTemplate.query(
+                sql, new MapSqlParameterSource("ids", orderIds), MallRowMappers.ORDER_ITEM);
+
+        Set<Integer> goodsIds = new LinkedHashSet<>();
+        for (MallOrderItem item : items) {
+            goodsIds.add(item.getGoodsId());
+        }
+        Map<Integer, ReferenceDataCache.GoodsFlags> flags = loadGoodsFlags(goodsIds);
+
+        // 需要查询规格的订单（含餐饮商品：is_takeout=1 且 is_package=0）
+        Set<Integer> foodOrderIds = new LinkedHashSet<>();
+        for (MallOrderItem item : items) {
+            target.computeIfAbsent(item.getBillId(), k -> new ArrayList<>()).add(item);
+
+            ReferenceDataCache.GoodsFlags goodsFlags = flags.get(item.getGoodsId());
+            boolean isFood = goodsFlags != null && goodsFlags.getIsTakeout() == 1 && goodsFlags.getIsPackage() == 0;
+            item.setFood(isFood);
+            if (isFood) {
+                foodOrderIds.add(item.getBillId());
+            }
+        }
+
+        if (foodOrderIds.isEmpty()) {
+            return;
+        }
+
+        String specSql = "SELECT order_id, goods_id, item_name " +
+                "FROM tp_retail_bill_order_item_spec " +
+                "WHERE order_id IN (:ids) " +
+                "ORDER BY group_id";
+        Map<Long, List<String>> specsByGoods = new HashMap<>();
+        namedJdbcTemplate.query(specSql, new MapSqlParameterSource("ids", foodOrderIds), rs -> {
+            String itemName = rs.getString("item_name");
+            if (itemName != null && !itemName.trim().isEmpty()) {
+                long key = specKey(rs.getInt("order_id"), rs.getInt("goods_id"));
+                specsByGoods.computeIfAbsent(key, k -> new ArrayList<>()).add(itemName.trim());
+            }
+        });
+
+        for (MallOrderItem item : items) {
+            if (item.isFood()) {
+                List<String> specs = specsByGoods.get(specKey(item.getBillId(), item.getGoodsId()));
+                if (specs != null) {
+                    item.setSpecs(specs);
+                }
+            }
+        }
+    }
+
+    /**
+     * 商品类型标记，优先读缓存，未命中的一次查询补齐
+     */
+    private Map<Integer, ReferenceDataCache.GoodsFlags> loadGoodsFlags(Set<Integer> goodsIds) {
+        List<Integer> missing = new ArrayList<>();
+        Map<Integer, ReferenceDataCache.GoodsFlags> flags = referenceDataCache.goodsFlags().getAll(goodsIds, missing);
+        if (missing.isEmpty()) {
+            return flags;
+        }
+
+        String sql = "SELECT id, is_takeout, is_package FROM tp_retail_goods WHERE id IN (:ids)";
+        namedJdbcTemplate.query(sql, new MapSqlParameterSource("ids", missing), rs -> {
+            ReferenceDataCache.GoodsFlags goodsFlags = new ReferenceDataCache.GoodsFlags(
+                    rs.getInt("is_takeout"), rs.getInt("is_package"));
+            int goodsId = rs.getInt("id");
+            flags.put(goodsId, goodsFlags);
+            referenceDataCache.goodsFlags().put(goodsId, goodsFlags);
+        });
+        return flags;
+    }
+
+    private void loadUsers(OrderBatch batch, Set<Integer> uids) {
+        if (uids.isEmpty()) {
+            return;
+        }
+        List<Integer> missing = new ArrayList<>();
+        batch.users.putAll(referenceDataCache.users().getAll(uids, missing));
+        if (missing.isEmpty()) {
+            return;
+        }
+
+        String sql = "SELECT * FROM tp_user WHERE id IN (:ids)";
+        for (MallUser user : namedJdbcTemplate.query(sql, new MapSqlParameterSource("ids", missing), MallRowMappers.USER)) {
+            batch.users.put(user.getId(), user);
+            referenceDataCache.users().put(user.getId(), user);
+        }
+    }
+
+    private void loadStores(OrderBatch batch, Set<Integer> storeIds) {
+        if (storeIds.isEmpty()) {
+            return;
+        }
+        List<Integer> missing = new ArrayList<>();
+        batch.stores.putAll(referenceDataCache.stores().getAll(storeIds, missing));
+        if (missing.isEmpty()) {
+            return;
+        }
+
+        String sql = "SELECT " + MallRowMappers.STORE_COLUMNS + " FROM tp_retail_store WHERE id IN (:ids)";
+        for (MallStore store : namedJdbcTemplate.query(sql, new MapSqlParameterSource("ids", missing), MallRowMappers.STORE)) {
+            batch.stores.put(store.getId(), store);
+            referenceDataCache.stores().put(store.getId(), store);
+        }
+    }
+
+    private void loadOnlineInfo(OrderBatch batch, Set<Integer> orderIds) {
+        if (orderIds.isEmpty()) {
+            return;
+        }
+        String sql = "SELECT " + MallRowMappers.ONLINE_ORDER_COLUMNS + " " +
+                "FROM tp_retail_bill_online bo " +
+                "LEFT JOIN tp_retail_delivery_order do ON bo.delivery_order_id = do.id " +
+                "WHERE bo.bill_id IN (:ids)";
+        for (MallOnlineOrder online : namedJdbcTemplate.query(sql, new MapSqlParameterSource("ids", orderIds), MallRowMappers.ONLINE_ORDER)) {
+            // 与单条查询保持一致：同一订单取第一条
+            batch.onlineInfo.putIfAbsent(online.getBillId(), online);
+        }
+    }
+
+    private static long specKey(int orderId, int goodsId) {
+        return ((long) orderId << 32) | (goodsId & 0xFFFFFFFFL);
+    }
+
+    /**
+     * 一批订单的渲染数据
+     */
+    public static class OrderBatch {
+
+        private final Map<Integer, List<MallOrderItem>> orderItems = new HashMap<>();
+        private final Map<Integer, MallUser> users = new HashMap<>();
+        private final Map<Integer, MallStore> stores = new HashMap<>();
+        private final Map<Integer, MallOnlineOrder> onlineInfo = new HashMap<>();
+        private final Map<Integer, String> dayIndexes = new HashMap<>();
+
+        public List<MallOrderItem> getOrderItems(int orderId) {
+            return orderItems.getOrDefault(orderId, Collections.emptyList());
+        }
+
+        public MallUser getUser(int uid) {
+            return users.get(uid);
+        }
+
+        /**
+         * 店铺需同时匹配商户ID，与原单条查询 WHERE id = ? AND merchant_id = ? 等价
+         */
+        public MallStore getStore(int storeId, int merchantId) {
+            MallStore store = stores.get(storeId);
+            if (store == null || store.getMerchantId() != merchantId) {
+                return null;
+            }
+            return store;
+        }
+
+        public MallOnlineOrder getOnlineInfo(int orderId) {
+            return onlineInfo.get(orderId);
+        }
+
+        /**
+         * 商户当日订单序号，由同步流程按订单顺序计算后写入；整批写完后才提交渲染，渲染期间只读
+         */
+        public String getDayIndex(int orderId) {
+            return dayIndexes.get(orderId);
+        }
+
+        public void putDayIndex(int orderId, String dayIndex) {
+            dayIndexes.put(orderId, dayIndex);
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package com.example.print.service;
+
+import com.example.print.model.PrintTask;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * 订单同步流水线：渲染 → 保存 → 广播
+ * 各阶段使用独立的有界线程池，队列满时由提交方线程执行，形成背压；
+ * 结果按提交顺序（订单ID顺序）返回，由调用方按顺序推进水位
+ */
+@Component
+@Slf4j
+public class OrderSyncPipeline {
+
+    @Value("${print.order.sync.render-workers:0}")
+    private int renderWorkers;
+
+    @Value("${print.order.sync.persist-workers:2}")
+    private int persistWorkers;
+
+    @Value("${print.order.sync.queue-capacity:200}")
+    private int queueCapacity;
+
+    private ThreadPoolExecutor renderExecutor;
+    private ThreadPoolExecutor persistExecutor;
+    private ThreadPoolExecutor broadcastExecutor;
+
+    @PostConstruct
+    public void init() {
+        int renderThreads = renderWorkers > 0 ? renderWorkers : Runtime.getRuntime().availableProcessors();
+        renderExecutor = newExecutor("order-render", renderThreads);
+        persistExecutor = newExecutor("order-persist", Math.max(1, persistWorkers));
+        broadcastExecutor = newExecutor("order-broadcast", 1);
+        log.info("初始化订单同步流水线，渲染线程: {}, 保存线程: {}, 队列容量: {}",
+                renderThreads, persistExecutor.getCorePoolSize(), queueCapacity);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        renderExecutor.shutdown();
+        persistExecutor.shutdown();
+        broadcastExecutor.shutdown();
+        try {
+            // 等待已保存的任务完成广播
+            broadcastExecutor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private ThreadPoolExecutor newExecutor(String name, int threads) {
+        AtomicInteger counter = new AtomicInteger();
+        return new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                r -> {
+                    Thread thread = new Thread(r, name + "-" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    /**
+     * 提交一个订单进入流水线
+     *
+     * @param orderId   订单ID
+     * @param render    渲染打印任务，返回 null 表示跳过该订单
+     * @param persist   保存打印任务
+     * @param broadcast 保存成功后广播
+     */
+    public Stage submit(int orderId, Callable<PrintTask> render,
+                        Function<PrintTask, PrintTask> persist, Consumer<PrintTask> broadcast) {
+        CompletableFuture<PrintTask> persisted = CompletableFuture
+                .supplyAsync(() -> {
+                    try {
+                        return render.call();
+                    } catch (Exception e) {
+                        throw new CompletionException(e);
+                    }
+                }, renderExecutor)
+                .thenApplyAsync(task -> task == null ? null : persist.apply(task), persistExecutor);
+
+        persisted.thenAcceptAsync(task -> {
+            if (task != null) {
+                broadcast.accept(task);
+            }
+        }, broadcastExecutor);
+
+        return new Stage(orderId, persisted);
+    }
+
+    /**
+     * 等待一组订单保存完成，按提交顺序返回结果
+     */
+    public List<Result> awaitAll(List<Stage> stages) {
+        List<Result> results = new ArrayList<>(stages.size());
+        for (Stage stage : stages) {
+            try {
+                PrintTask task = stage.future.join();
+                results.add(new Result(stage.orderId, task == null ? Outcome.SKIPPED : Outcome.CREATED, task, null));
+            } catch (CompletionException | CancellationException e) {
+                Throwable cause = e.getCause() != null ? e.getCause() : e;
+                results.add(new Result(stage.orderId, Outcome.FAILED, null, cause));
+            }
+        }
+        return results;
+    }
+
+    public enum Outcome {
+        CREATED,
+        SKIPPED,
+        FAILED
+    }
+
+    /**
+     * 已提交到流水线的订单
+     */
+    public static class Stage {
+        private final int orderId;
+        private final CompletableFuture<PrintTask> future;
+
+        Stage(int orderId, CompletableFuture<PrintTask> future) {
+            this.orderId = orderId;
+            this.future = future;
+        }
+    }
+
+    /**
+     * 单个订单的处理结果
+     */
+    public static class Result {
+        private final int orderId;
+        private final Outcome outcome;
+        private final PrintTask task;
+        private final Throwable error;
+
+        Result(int orderId, Outcome outcome, PrintTask task, Throwable error) {
+            this.orderId = orderId;
+            this.outcome = outcome;
+            this.task = task;
+            this.error = error;
+        }
+
+        public int getOrderId() {
+            return orderId;
+        }
+
+        public Outcome getOutcome() {
+            return outcome;
+        }
+
+        public PrintTask getTask() {
+            return task;
+        }
+
+        public Throwable getError() {
+            return error;
+        }
+    }
+}
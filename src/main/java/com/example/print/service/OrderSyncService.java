@@ -1,21 +1,20 @@
 package com.example.print.service;
 
 import com.example.print.model.PrintTask;
+import com.example.print.model.PrintTaskPriority;
 import com.example.print.model.PrintTaskStatus;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.example.print.model.PrintTaskType;
+import com.example.print.model.mall.*;
+import com.example.print.repository.mall.MallRowMappers;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.jdbc.core.JdbcTemplate;
-import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
 
-import javax.annotation.PostConstruct;
-import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
-import java.time.format.DateTimeFormatter;
 import java.util.*;
 
 @Service
@@ -32,34 +31,68 @@ public class OrderSyncService {
     private NotificationService notificationService;
 
     @Autowired
-    private ObjectMapper objectMapper;
+    private ReceiptContentWriter receiptContentWriter;
+
+    @Autowired
+    private OrderBatchLoader batchLoader;
+
+    @Autowired
+    private SyncCheckpointService checkpointService;
+
+    @Autowired
+    private DailyOrderCounter dailyOrderCounter;
+
+    @Autowired
+    private OrderSyncPipeline orderSyncPipeline;
+
+    @Autowired
+    private SyncLeaseService syncLeaseService;
+
+    @Autowired
+    private RecentOrderFilter recentOrderFilter;
 
     @Value("${print.order.sync.batch-size:50}")
     private int batchSize;
 
+    @Value("${print.order.sync.max-batches-per-run:10}")
+    private int maxBatchesPerRun;
+
+    @Value("${print.order.sync.max-attempts:3}")
+    private int maxAttempts;
+
+    // 处理失败的订单及其失败次数，超过上限后水位跳过该订单
+    private final Map<Integer, Integer> failedAttempts = new HashMap<>();
+
     @Value("${print.order.last-sync-id:0}")
     private int initialLastSyncId;
 
-    private int lastSyncOrderId;
-
-    @PostConstruct
-    public void init() {
-        // 加载最后同步的订单ID，实际应用中可能从配置文件或数据库加载
-        lastSyncOrderId = initialLastSyncId;
-        log.info("初始化订单同步服务，上次同步的订单ID: {}", lastSyncOrderId);
-    }
+    private static final int BACKLOG_ESTIMATE_LIMIT = 10000;
 
     @Value("${print.order.sync.time-limit-hours:24}")
     private int timeLimitHours; // 可配置的时间限制（小时）
 
     /**
-     * 定时同步已付款订单
-     * 每分钟执行一次
+     * 同步已付款订单，由 AdaptiveSyncScheduler 按积压情况调度
+     * 只同步本实例持有租约的分片
+     *
+     * @param batchSize 本轮批次大小
+     */
+    public SyncRunResult syncPaidOrders(int batchSize) {
+        SyncRunResult result = new SyncRunResult();
+        for (int shard : syncLeaseService.getOwnedShards()) {
+            syncPaidOrders(shard, batchSize, result);
+        }
+        return result;
+    }
+
+    /**
+     * 同步一个分片的已付款订单
+     * 批次已满时在本轮内继续拉取，各批次进入流水线并行渲染
      */
-    @Scheduled(fixedRate = 10000)
-    @Transactional
-    public void syncPaidOrders() {
-        log.info("开始同步已付款订单，从ID: {} 开始", lastSyncOrderId);
+    private void syncPaidOrders(int shard, int batchSize, SyncRunResult result) {
+        // 每轮从持久化水位读取，分片被其他实例接管过也能从正确位置继续
+        int lastSyncOrderId = loadPaidWatermark(shard);
+        log.info("开始同步已付款订单，分片: {}, 从ID: {} 开始", shard, lastSyncOrderId);
 
         try {
 
@@ -68,46 +101,62 @@ public class OrderSyncService {
 
 
             // 查询新的已付款订单（增加时间限制条件）
-            String sql = "SELECT * FROM tp_retail_bill_order WHERE id > ? AND pay_state = 1 " +
+            String sql = "SELECT " + MallRowMappers.orderColumns(null) + " " +
+                    "FROM tp_retail_bill_order WHERE id > ? AND pay_state = 1 " +
                     "AND pay_time > ? " +  // 添加时间限制
+                    shardCondition("merchant_id", shard) +
                     "ORDER BY id ASC LIMIT ?";
 
-            List<Map<String, Object>> newOrders = jdbcTemplate.queryForList(
-                    sql, lastSyncOrderId, timeLimitTimestamp, batchSize);
+            List<OrderSyncPipeline.Stage> stages = new ArrayList<>();
+            int fetchedOrderId = lastSyncOrderId;
+            int batches = 0;
+            List<MallOrder> newOrders;
 
+            do {
+                newOrders = jdbcTemplate.query(
+                        sql, MallRowMappers.ORDER, fetchedOrderId, timeLimitTimestamp, batchSize);
+                result.fetched += newOrders.size();
 
-            if (newOrders.isEmpty()) {
-                log.info("没有新的已付款订单（{}小时内）", timeLimitHours);
-                return;
-            }
+                if (newOrders.isEmpty()) {
+                    break;
+                }
 
-            log.info("发现 {} 个新的已付款订单", newOrders.size());
+                log.info("发现 {} 个新的已付款订单", newOrders.size());
 
-            for (Map<String, Object> order : newOrders) {
-                int orderId = ((Number) order.get("id")).intValue();
+                // 整批加载渲染所需数据
+                OrderBatchLoader.OrderBatch batch = batchLoader.loadPaidOrders(newOrders);
 
-                // 检查该订单是否已经创建过打印任务
-                if (!printTaskService.isOrderExists(orderId)) {
-                    try {
-                        // 创建打印任务
-                        PrintTask task = createPrintTask(order);
-                        log.info("创建打印任务: {}, 订单号: {}", task.getTaskId(), task.getOrderNo());
+                // 整批确认已创建过打印任务的订单
+                Set<Integer> existingOrderIds = findExistingPaidOrders(newOrders);
 
-                        // 向该商户的所有客户端广播打印任务
-                        int storeId = ((Number) order.get("store_id")).intValue();
-                        notificationService.broadcastToPrintersByStore(storeId, task);
-                    } catch (Exception e) {
-                        log.error("处理订单 {} 失败", orderId, e);
-                    }
-                } else {
-                    log.info("订单 {} 已存在打印任务，跳过", orderId);
+                // 按订单顺序推进商户当日序号（已存在任务的订单也要计数），
+                // 整批写完后再提交渲染，渲染线程读取批次数据时不会再有写入
+                for (MallOrder order : newOrders) {
+                    assignDayIndex(order, batch);
                 }
+                for (MallOrder order : newOrders) {
+                    int orderId = order.getId();
+                    stages.add(submitPaidOrder(order, batch, existingOrderIds.contains(orderId)));
+                }
+
+                fetchedOrderId = newOrders.get(newOrders.size() - 1).getId();
+                batches++;
+            } while (newOrders.size() == batchSize && batches < maxBatchesPerRun);
 
-                // 更新最后同步的订单ID
-                lastSyncOrderId = orderId;
+            if (newOrders.size() == batchSize) {
+                // 最后一批仍是满的，还有积压
+                result.full = true;
+                result.backlog += estimateBacklog(shard, fetchedOrderId, timeLimitTimestamp);
             }
 
-            log.info("订单同步完成，最后同步的订单ID更新为: {}", lastSyncOrderId);
+            if (stages.isEmpty()) {
+                log.info("没有新的已付款订单（{}小时内）", timeLimitHours);
+                return;
+            }
+
+            lastSyncOrderId = commitPaidOrders(shard, lastSyncOrderId, orderSyncPipeline.awaitAll(stages));
+
+            log.info("订单同步完成，分片: {}, 最后同步的订单ID更新为: {}", shard, lastSyncOrderId);
 
         } catch (Exception e) {
             log.error("同步已付款订单失败", e);
@@ -115,430 +164,188 @@ public class OrderSyncService {
     }
 
     /**
-     * 创建打印任务
+     * 估算分片剩余待同步的订单数，最多统计 BACKLOG_ESTIMATE_LIMIT 条以限制查询代价
      */
-    private PrintTask createPrintTask(Map<String, Object> order) throws Exception {
-        // 根据订单信息生成打印内容
-        String content = generatePrintContent(order);
-
-        // 创建打印任务
-        PrintTask task = new PrintTask();
-        task.setTaskId(UUID.randomUUID().toString());
-        task.setOrderId(((Number) order.get("id")).intValue());
-        task.setOrderNo((String) order.get("order_no"));
-        task.setMerchantId(String.valueOf(((Number) order.get("merchant_id")).intValue()));
-        task.setStoreId(((Number) order.get("store_id")).intValue());
-        task.setContent(content);
-        task.setStatus(PrintTaskStatus.PENDING);
-        task.setCreateTime(LocalDateTime.now());
-        task.setLastUpdateTime(LocalDateTime.now());
-
-        // 保存打印任务
-        return printTaskService.createTask(task);
+    private int estimateBacklog(int shard, int afterOrderId, long timeLimitTimestamp) {
+        String sql = "SELECT COUNT(*) FROM (SELECT 1 FROM tp_retail_bill_order WHERE id > ? AND pay_state = 1 " +
+                "AND pay_time > ? " +
+                shardCondition("merchant_id", shard) +
+                "LIMIT " + BACKLOG_ESTIMATE_LIMIT + ") t";
+        try {
+            Integer count = jdbcTemplate.queryForObject(sql, Integer.class, afterOrderId, timeLimitTimestamp);
+            return count != null ? count : 0;
+        } catch (Exception e) {
+            log.warn("估算订单积压失败: {}", e.getMessage());
+            return 0;
+        }
     }
 
     /**
-     * 根据订单信息生成打印内容
+     * 查询一批已付款订单中已创建过打印任务的订单
+     * 布隆过滤器判断一定不存在的订单不再查询，整批都不存在时不发起查询
      */
-    private String generatePrintContent(Map<String, Object> order) throws Exception {
-        // 查询订单商品信息
-        List<Map<String, Object>> orderItems = getOrderItems(((Number) order.get("id")).intValue());
-
-        // 查询用户信息
-        Map<String, Object> userInfo = getUserInfo(((Number) order.get("uid")).intValue());
-
-
-        //查询店铺信息
-        Map<String, Object> storeInfo = getStoreInfo(((Number) order.get("store_id")).intValue(), ((Number) order.get("merchant_id")).intValue());
-
-
-        // 查询线上订单信息（如果是线上订单）
-        Map<String, Object> onlineInfo = null;
-        // 安全地获取订单类型
-        int orderType = 1; // 默认为线上
-        if (order.get("type") instanceof Number) {
-            orderType = ((Number) order.get("type")).intValue();
-        } else if (order.get("type") instanceof Boolean) {
-            // 如果type是布尔类型，true转为1，false转为2
-            orderType = ((Boolean) order.get("type")) ? 1 : 2;
-        }
-
-        if (orderType == 1) {
-            onlineInfo = getOnlineOrderInfo(((Number) order.get("id")).intValue());
-        }
-
-        // 构建打印数据
-        Map<String, Object> printData = new HashMap<>();
-
-        //订单号
-        printData.put("orderNo", order.get("order_no"));
-        //商家信息，目前只给名字
-        if (storeInfo != null) {
-            printData.put("merchant", storeInfo.getOrDefault("name", "指尖赤壁"));
-        } else {
-            printData.put("merchant", "指尖赤壁");
-        }
-
-        //今日第几单
-        printData.put("day_index", getDayOrderIndex(((Number) order.get("merchant_id")).intValue()));
-
-        // 处理时间戳
-        Long payTime = (Long) order.get("pay_time");
-        printData.put("payTime", payTime);
-        printData.put("orderTime", formatTimestamp(payTime));
-
-        // 订单类型信息 - 安全处理类型
-        printData.put("type", orderType); // 1线上 2线下
-
-        // 安全获取支付类型
-        int payType = 0;
-        if (order.get("pay_type") instanceof Number) {
-            payType = ((Number) order.get("pay_type")).intValue();
-        }
-        printData.put("pay_type", payType);
-
-        // 商品和金额信息 - 安全获取数值
-        double goodsPrice = getDoubleValue(order, "goods_price", 0.0);
-        double payMoney = getDoubleValue(order, "pay_money", 0.0);
-        double deliveryFee = getDoubleValue(order, "delivery_fee", 0.0);
-
-        printData.put("goods_price", goodsPrice);
-        printData.put("pay_money", payMoney);
-        printData.put("delivery_fee", deliveryFee);
-        printData.put("pay_real", order.get("pay_real"));
-        printData.put("all_money", order.get("all_money"));
-        printData.put("user_delivery_fee", order.get("user_delivery_fee"));
-
-        // 将订单商品信息转换为数组形式，包含详细信息
-        List<Map<String, Object>> goodsArray = new ArrayList<>();
-        for (Map<String, Object> item : orderItems) {
-            Map<String, Object> goodsItem = new HashMap<>();
-            goodsItem.put("goods_name", item.get("goods_name"));
-            goodsItem.put("goods_code", item.get("goods_code"));
-            // 安全获取数量和价格
-            double sellNum = getDoubleValue(item, "sell_num", 0.0);
-            double sellPrice = getDoubleValue(item, "sell_price", 0.0);
-
-            goodsItem.put("sell_num", (int) sellNum); // 销售数量转为整数
-            goodsItem.put("sell_price", sellPrice); // 销售单价
-            goodsItem.put("sell_subtotal", sellNum * sellPrice); // 计算小计
-
-
-            // 新增：处理餐饮商品的规格信息
-            boolean isFood = Boolean.TRUE.equals(item.get("is_food"));
-            goodsItem.put("is_food", isFood);
-
-            if (isFood) {
-                // 格式化规格信息
-                String specText = formatSpecsText((List<Map<String, Object>>) item.get("specs"));
-                goodsItem.put("spec_text", specText);
+    private Set<Integer> findExistingPaidOrders(List<MallOrder> orders) {
+        List<Integer> candidates = new ArrayList<>();
+        for (MallOrder order : orders) {
+            int orderId = order.getId();
+            if (recentOrderFilter.mightContain(orderId)) {
+                candidates.add(orderId);
             }
-
-            goodsArray.add(goodsItem);
         }
-        printData.put("goodsItems", goodsArray); // 商品数组，包含详细信息
-
-        // 线上订单特有信息
-        if (onlineInfo != null) {
-            // 安全获取pickup_type
-            int pickupType = 0;
-            if (onlineInfo.get("pickup_type") instanceof Number) {
-                pickupType = ((Number) onlineInfo.get("pickup_type")).intValue();
-            } else if (onlineInfo.get("pickup_type") instanceof Boolean) {
-                // 布尔值 true 转为 1，false 转为 0
-                pickupType = ((Boolean) onlineInfo.get("pickup_type")) ? 1 : 0;
-            }
-            printData.put("pickup_type", pickupType);
-
-            // 新增：单据类型判断逻辑
-            String billType;
-            boolean showScheduleTime = false;
-
-            if (pickupType == 0) {
-                // 配送单逻辑
-                Integer sendType = null;
-                if (onlineInfo.get("send_type") instanceof Number) {
-                    sendType = ((Number) onlineInfo.get("send_type")).intValue();
-                }
-
-                if (sendType != null && sendType == 1) {
-                    billType = "预约单";
-                    showScheduleTime = true;
-                } else {
-                    billType = "配送单";
-                }
-            } else if (pickupType == 1) {
-                // 自提单逻辑
-                billType = "自提单";
-                showScheduleTime = true; // 自提单也显示自提时间
-            } else {
-                // 其他情况默认为配送单
-                billType = "配送单";
-            }
-
-            // 新增字段，不修改现有字段
-            printData.put("bill_type", billType);        // 新增：单据类型
-            printData.put("show_schedule_time", showScheduleTime);  // 新增：是否显示时间
-
-
-            printData.put("user_name", onlineInfo.getOrDefault("user_name", ""));
-            printData.put("user_phone", onlineInfo.getOrDefault("user_phone", ""));
-            printData.put("user_address", onlineInfo.getOrDefault("user_address", ""));
-            printData.put("remark", onlineInfo.getOrDefault("remark", ""));
-
-        }
-
-        //配送时间
-        Long selectTime = null;
-        if (onlineInfo != null) {
-            selectTime = onlineInfo.get("user_select_time") instanceof Integer ?
-                    ((Integer) onlineInfo.get("user_select_time")).longValue() :
-                    (Long) onlineInfo.get("user_select_time");
-        }
-        printData.put("delivery_time", formatTimestamp(selectTime));
-
-
-        //打包费
-        Double packFee = getDoubleValue(order, "pack_fee", 0.0);
-        printData.put("pack_fee", packFee);
-
-        // 用户信息
-        if (userInfo != null) {
-            printData.put("customer", userInfo.getOrDefault("nickname", ""));
-            printData.put("customerPhone", userInfo.getOrDefault("mobile", ""));
-            // 如果没有线上订单地址信息，则使用用户基本地址
-            if (!printData.containsKey("user_address") || printData.get("user_address") == null) {
-                printData.put("user_address", userInfo.getOrDefault("address", ""));
-            }
-        } else {
-            printData.put("customer", "未知用户");
-            printData.put("customerPhone", "");
+        if (candidates.isEmpty()) {
+            return Collections.emptySet();
         }
-
-        return objectMapper.writeValueAsString(printData);
+        return printTaskService.findExistingOrderIds(candidates, PrintTaskType.ORDER);
     }
 
     /**
-     * 格式化规格信息为打印文本
-     * 将 [{group_name=调料, item_name=醋}, {group_name=份量, item_name=大份}]
-     * 转换为 "{醋，大份}"
+     * 将已付款订单提交到流水线
      */
-    private String formatSpecsText(List<Map<String, Object>> specs) {
-        if (specs == null || specs.isEmpty()) {
-            return "";
-        }
-
-        List<String> specItems = new ArrayList<>();
-        for (Map<String, Object> spec : specs) {
-            String itemName = (String) spec.get("item_name");
-            if (itemName != null && !itemName.trim().isEmpty()) {
-                specItems.add(itemName.trim());
-            }
-        }
-
-        if (specItems.isEmpty()) {
-            return "";
-        }
-
-        // 格式化为 {醋，大份} 的形式
-        return "{" + String.join("，", specItems) + "}";
+    private OrderSyncPipeline.Stage submitPaidOrder(MallOrder order, OrderBatchLoader.OrderBatch batch,
+                                                    boolean exists) {
+        int orderId = order.getId();
+        int storeId = order.getStoreId();
+
+        return orderSyncPipeline.submit(orderId,
+                // 已经创建过打印任务的订单跳过
+                () -> exists ? null : buildPrintTask(order, batch),
+                this::createSyncedTask,
+                // 向该门店的所有客户端广播打印任务
+                task -> notificationService.broadcastToPrintersByStore(storeId, task));
     }
 
     /**
-     * 从Map中安全获取double值
+     * 保存同步生成的打印任务
+     * 同步去重键冲突说明该订单已由其他实例或上一轮同步创建过任务，按已存在处理；
+     * 其他约束冲突照常抛出，水位停在该订单之前，下次重试
      */
-    private double getDoubleValue(Map<String, Object> map, String key, double defaultValue) {
-        if (!map.containsKey(key) || map.get(key) == null) {
-            return defaultValue;
-        }
-
-        Object value = map.get(key);
-        if (value instanceof Number) {
-            return ((Number) value).doubleValue();
-        } else if (value instanceof String) {
-            try {
-                return Double.parseDouble((String) value);
-            } catch (NumberFormatException e) {
-                return defaultValue;
+    private PrintTask createSyncedTask(PrintTask task) {
+        try {
+            return printTaskService.createTask(task);
+        } catch (DataIntegrityViolationException e) {
+            if (!isSyncKeyConflict(e)) {
+                throw e;
             }
-        } else if (value instanceof Boolean) {
-            return ((Boolean) value) ? 1.0 : 0.0;
+            log.info("订单 {} 的{}已存在（去重键 {}），跳过", task.getOrderId(),
+                    task.getTaskType().getDescription(), task.getSyncKey());
+            return null;
         }
-
-        return defaultValue;
     }
 
-
-    ///**
-    // * 获取线上订单信息
-    // */
-    //private Map<String, Object> getOnlineOrderInfo(int orderId) {
-    //    String sql = "SELECT * FROM tp_retail_bill_online WHERE bill_id = ?";
-    //    List<Map<String, Object>> results = jdbcTemplate.queryForList(sql, orderId);
-    //    return results.isEmpty() ? null : results.get(0);
-    //}
-
-
     /**
-     * 获取线上订单信息（增强版：支持配送类型判断）
+     * 冲突是否发生在同步去重键的唯一索引上（数据库错误信息中包含索引名）
      */
-    private Map<String, Object> getOnlineOrderInfo(int orderId) {
-        // 修改SQL：对配送单进行LEFT JOIN查询
-        String sql = "SELECT bo.*, do.send_type " +
-                "FROM tp_retail_bill_online bo " +
-                "LEFT JOIN tp_retail_delivery_order do ON bo.delivery_order_id = do.id " +
-                "WHERE bo.bill_id = ?";
-
-        List<Map<String, Object>> results = jdbcTemplate.queryForList(sql, orderId);
-        log.info("2222222222: {}", results);
-        return results.isEmpty() ? null : results.get(0);
+    private boolean isSyncKeyConflict(DataIntegrityViolationException e) {
+        String message = e.getMostSpecificCause().getMessage();
+        return message != null && message.toLowerCase().contains(PrintTask.SYNC_KEY_CONSTRAINT);
     }
 
-    ///**
-    // * 获取订单商品信息
-    // */
-    //private List<Map<String, Object>> getOrderItems(int orderId) {
-    //    String sql = "SELECT * FROM tp_retail_bill_sell WHERE bill_id = ?";
-    //    return jdbcTemplate.queryForList(sql, orderId);
-    //}
-
     /**
-     * 获取订单商品信息（增强版：支持餐饮商品规格）
+     * 按订单ID顺序确认处理结果并推进水位
+     * 遇到失败的订单时水位停在其之前，下次重新处理；同一订单失败超过上限后跳过
      */
-    private List<Map<String, Object>> getOrderItems(int orderId) {
-        // 1. 查询订单商品基础信息，连表获取商品类型
-        String sql = "SELECT bs.*, rg.is_takeout, rg.is_package " +
-                "FROM tp_retail_bill_sell bs " +
-                "LEFT JOIN tp_retail_goods rg ON bs.goods_id = rg.id " +
-                "WHERE bs.bill_id = ?";
-
-        List<Map<String, Object>> orderItems = jdbcTemplate.queryForList(sql, orderId);
-
-        // 2. 为每个商品检查是否为餐饮商品，如果是则查询规格信息
-        for (Map<String, Object> item : orderItems) {
-            int isTakeout = getIntValue(item, "is_takeout", 0);
-            int isPackage = getIntValue(item, "is_package", 0);
-
-            // 判断是否为餐饮商品：is_takeout=1 且 is_package=0
-            if (isTakeout == 1 && isPackage == 0) {
-                // 安全获取goods_id
-                int goodsId = getIntValue(item, "goods_id", 0);
-                // 查询该商品的规格信息
-                List<Map<String, Object>> specInfo = getOrderItemSpecs(orderId, goodsId);
-                item.put("specs", specInfo); // 将规格信息添加到商品数据中
-                item.put("is_food", true);   // 标记为餐饮商品
-                log.info("11111111111餐饮商品: {}", item);
+    private int commitPaidOrders(int shard, int lastSyncOrderId, List<OrderSyncPipeline.Result> results) {
+        int committed = lastSyncOrderId;
+
+        for (OrderSyncPipeline.Result result : results) {
+            int orderId = result.getOrderId();
+
+            if (result.getOutcome() == OrderSyncPipeline.Outcome.FAILED) {
+                int attempts = failedAttempts.merge(orderId, 1, Integer::sum);
+                if (attempts < maxAttempts) {
+                    log.error("处理订单 {} 失败（第{}次），水位停在 {}", orderId, attempts, committed, result.getError());
+                    break;
+                }
+                log.error("处理订单 {} 失败已达 {} 次，跳过该订单", orderId, attempts, result.getError());
+            } else if (result.getOutcome() == OrderSyncPipeline.Outcome.CREATED) {
+                log.info("创建打印任务: {}, 订单号: {}", result.getTask().getTaskId(), result.getTask().getOrderNo());
+                recentOrderFilter.put(orderId);
             } else {
-                item.put("is_food", false);  // 标记为普通商品
+                log.info("订单 {} 已存在打印任务，跳过", orderId);
+                recentOrderFilter.put(orderId);
             }
+
+            failedAttempts.remove(orderId);
+            // 更新最后同步的订单ID
+            committed = orderId;
         }
 
-        return orderItems;
+        if (committed != lastSyncOrderId) {
+            // 持久化水位
+            checkpointService.save(checkpointName(SyncCheckpointService.PAID_ORDER, shard), committed);
+        }
+        return committed;
     }
 
     /**
-     * 查询订单商品的规格信息
+     * 分片的水位名称，只有一个分片时沿用原名称
      */
-    private List<Map<String, Object>> getOrderItemSpecs(int orderId, int goodsId) {
-        String sql = "SELECT group_name, item_name " +
-                "FROM tp_retail_bill_order_item_spec " +
-                "WHERE order_id = ? AND goods_id = ? " +
-                "ORDER BY group_id";
-
-        return jdbcTemplate.queryForList(sql, orderId, goodsId);
+    private String checkpointName(String syncName, int shard) {
+        int shardCount = syncLeaseService.getShardCount();
+        return shardCount == 1 ? syncName : syncName + "#" + shard + "/" + shardCount;
     }
 
     /**
-     * 安全获取整数值的辅助方法
+     * 读取分片的已付款订单水位
+     * 分片数调整后新分片没有记录，从调整前的整体水位开始（已存在的任务会被跳过）；配置值作为下限
      */
-    private int getIntValue(Map<String, Object> map, String key, int defaultValue) {
-        if (!map.containsKey(key) || map.get(key) == null) {
-            return defaultValue;
+    private int loadPaidWatermark(int shard) {
+        int watermark = checkpointService.load(checkpointName(SyncCheckpointService.PAID_ORDER, shard), -1);
+        if (watermark < 0) {
+            watermark = checkpointService.load(SyncCheckpointService.PAID_ORDER, 0);
         }
-
-        Object value = map.get(key);
-        if (value instanceof Number) {
-            return ((Number) value).intValue();
-        } else if (value instanceof String) {
-            try {
-                return Integer.parseInt((String) value);
-            } catch (NumberFormatException e) {
-                return defaultValue;
-            }
-        } else if (value instanceof Boolean) {
-            return ((Boolean) value) ? 1 : 0;
-        }
-
-        return defaultValue;
+        return Math.max(watermark, initialLastSyncId);
     }
 
     /**
-     * 获取用户信息
+     * 分片过滤条件：merchant_id % 分片数 = 分片编号
      */
-    private Map<String, Object> getUserInfo(int uid) {
-        String sql = "SELECT * FROM tp_user WHERE id = ?";
-        List<Map<String, Object>> results = jdbcTemplate.queryForList(sql, uid);
-        return results.isEmpty() ? null : results.get(0);
-    }
-
-    /**
-     * 获取店铺
-     */
-    private Map<String, Object> getStoreInfo(int storeID, int merchantId) {
-        String sql = "SELECT * FROM tp_retail_store WHERE id = ? AND merchant_id = ?";
-        List<Map<String, Object>> results = jdbcTemplate.queryForList(sql, storeID, merchantId);
-        return results.isEmpty() ? null : results.get(0);
+    private String shardCondition(String merchantColumn, int shard) {
+        int shardCount = syncLeaseService.getShardCount();
+        if (shardCount == 1) {
+            return "";
+        }
+        return "AND MOD(" + merchantColumn + ", " + shardCount + ") = " + shard + " ";
     }
 
     /**
-     * 格式化订单商品
+     * 构建打印任务（不保存）
      */
-    private String formatOrderItems(List<Map<String, Object>> items) {
-        if (items.isEmpty()) {
-            return "未知商品";
-        }
-
-        StringBuilder sb = new StringBuilder();
-        for (int i = 0; i < items.size(); i++) {
-            Map<String, Object> item = items.get(i);
-            sb.append(item.get("goods_name"));
-            sb.append(" x").append(item.get("nums"));
+    private PrintTask buildPrintTask(MallOrder order, OrderBatchLoader.OrderBatch batch) throws Exception {
+        // 根据订单信息生成打印内容
+        String content = generatePrintContent(order, batch);
 
-            if (i < items.size() - 1) {
-                sb.append(", ");
-            }
-        }
-        return sb.toString();
+        // 创建打印任务
+        PrintTask task = new PrintTask();
+        task.setTaskId(UUID.randomUUID().toString());
+        task.setOrderId(order.getId());
+        task.setOrderNo(order.getOrderNo());
+        task.setMerchantId(String.valueOf(order.getMerchantId()));
+        task.setStoreId(order.getStoreId());
+        task.setContent(content);
+        task.setTaskType(PrintTaskType.ORDER);
+        task.setSyncKey(PrintTaskType.ORDER.name() + ":" + task.getOrderId());
+        task.setStatus(PrintTaskStatus.PENDING);
+        task.setCreateTime(LocalDateTime.now());
+        task.setLastUpdateTime(LocalDateTime.now());
+        return task;
     }
 
     /**
-     * 获取当天商户订单序号
+     * 根据订单信息生成打印内容
      */
-    private String getDayOrderIndex(int merchantId) {
-        // 获取当天日期
-        String today = java.time.LocalDate.now().toString();
-
-        // 查询当天该商户的订单数
-        String sql = "SELECT COUNT(*) FROM tp_retail_bill_order " +
-                "WHERE merchant_id = ? AND pay_state = 1 AND DATE(FROM_UNIXTIME(pay_time)) = ?";
-
-        int count = jdbcTemplate.queryForObject(sql, Integer.class, merchantId, today);
-        return String.valueOf(count + 1);
+    private String generatePrintContent(MallOrder order, OrderBatchLoader.OrderBatch batch) throws Exception {
+        return receiptContentWriter.writeOrder(order, batch);
     }
 
     /**
-     * 格式化Unix时间戳
+     * 计算订单在商户当天的序号并记录到批次数据中
      */
-    private String formatTimestamp(Long timestamp) {
-        if (timestamp == null || timestamp == 0) {
-            return "";
-        }
-
-        LocalDateTime dateTime = LocalDateTime.ofInstant(
-                Instant.ofEpochSecond(timestamp),
-                ZoneId.systemDefault());
+    private void assignDayIndex(MallOrder order, OrderBatchLoader.OrderBatch batch) {
+        int orderId = order.getId();
 
-        return dateTime.format(java.time.format.DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss"));
+        int index = dailyOrderCounter.nextIndex(order.getMerchantId(), orderId, order.getPayTime());
+        batch.putDayIndex(orderId, String.valueOf(index));
     }
 
     /**
@@ -576,13 +383,25 @@ public class OrderSyncService {
     }
 
     /**
-     * 定时同步退款成功的订单（生成退货单）
-     * 每30秒执行一次
+     * 同步退款成功的订单（生成退货单），由 AdaptiveSyncScheduler 按积压情况调度
+     *
+     * @param batchSize 本轮批次大小
      */
-    @Scheduled(fixedRate = 30000)
-    @Transactional
-    public void syncRefundOrders() {
-        log.info("开始同步退款成功的订单");
+    public SyncRunResult syncRefundOrders(int batchSize) {
+        SyncRunResult result = new SyncRunResult();
+        for (int shard : syncLeaseService.getOwnedShards()) {
+            syncRefundOrders(shard, batchSize, result);
+        }
+        return result;
+    }
+
+    /**
+     * 同步一个分片的退款订单
+     */
+    private void syncRefundOrders(int shard, int batchSize, SyncRunResult result) {
+        String cursorName = checkpointName(SyncCheckpointService.REFUND_ORDER, shard);
+        int lastRefundOrderId = checkpointService.load(cursorName, 0);
+        log.info("开始同步退款成功的订单，分片: {}, 游标: {}", shard, lastRefundOrderId);
 
         try {
             // 计算24小时前的时间戳
@@ -591,254 +410,303 @@ public class OrderSyncService {
             // 查询退款成功但未生成退货单的商品
             // refund_status = 2（退款成功）且 scene_type = 2（退款订单）
             // 且支付时间在24小时内
-            String sql = "SELECT DISTINCT bs.bill_id, bo.* " +
-                    "FROM tp_retail_bill_sell bs " +
-                    "INNER JOIN tp_retail_bill_order bo ON bs.bill_id = bo.id " +
-                    "WHERE bs.refund_status = 2 AND bs.scene_type = 2 " +
-                    "AND bo.pay_time > ? " +
+            String sql = "SELECT " + MallRowMappers.orderColumns("bo") + " " +
+                    "FROM tp_retail_bill_order bo " +
+                    "WHERE bo.pay_time > ? " +
+                    "AND bo.id > ? " +
+                    shardCondition("bo.merchant_id", shard) +
+                    "AND EXISTS (" +
+                    "  SELECT 1 FROM tp_retail_bill_sell bs " +
+                    "  WHERE bs.bill_id = bo.id " +
+                    "  AND bs.refund_status = 2 AND bs.scene_type = 2" +
+                    ") " +
                     "AND NOT EXISTS (" +
                     "  SELECT 1 FROM print_tasks pt " +
-                    "  WHERE pt.order_id = bs.bill_id " +
-                    "  AND pt.content LIKE '%\"type\":\"refund\"%'" +  // 匹配JSON中的type:refund
+                    "  WHERE pt.order_id = bo.id " +
+                    "  AND pt.task_type = 'REFUND'" +
                     ") " +
-                    "GROUP BY bs.bill_id " +
                     "ORDER BY bo.id ASC " +
                     "LIMIT ?";
 
-            List<Map<String, Object>> refundOrders = jdbcTemplate.queryForList(
-                    sql, twentyFourHoursAgo, batchSize);
+            List<MallOrder> refundOrders = jdbcTemplate.query(
+                    sql, MallRowMappers.ORDER, twentyFourHoursAgo, lastRefundOrderId, batchSize);
+            result.fetched += refundOrders.size();
 
             if (refundOrders.isEmpty()) {
                 log.info("没有新的退款成功订单需要打印");
+                resetRefundCursor(cursorName, lastRefundOrderId);
                 return;
             }
 
             log.info("发现 {} 个退款订单需要生成退货单", refundOrders.size());
 
-            for (Map<String, Object> order : refundOrders) {
-                int orderId = ((Number) order.get("id")).intValue();
+            // 整批加载退款商品及店铺信息
+            OrderBatchLoader.OrderBatch batch = batchLoader.loadRefundOrders(refundOrders);
 
-                try {
-                    // 创建退货单打印任务
-                    PrintTask task = createRefundPrintTask(order);
-                    log.info("创建退货单打印任务: {}, 订单号: {}", task.getTaskId(), task.getOrderNo());
+            List<OrderSyncPipeline.Stage> stages = new ArrayList<>();
+            for (MallOrder order : refundOrders) {
+                int orderId = order.getId();
+                int storeId = order.getStoreId();
 
-                    // 向该门店的所有客户端广播打印任务
-                    int storeId = ((Number) order.get("store_id")).intValue();
-                    notificationService.broadcastToPrintersByStore(storeId, task);
+                // 创建退货单打印任务，保存后向该门店的所有客户端广播
+                stages.add(orderSyncPipeline.submit(orderId,
+                        () -> buildRefundPrintTask(order, batch),
+                        this::createSyncedTask,
+                        task -> notificationService.broadcastToPrintersByStore(storeId, task)));
+            }
 
-                } catch (Exception e) {
-                    log.error("处理退款订单 {} 失败", orderId, e);
+            // 失败的退款订单没有退货单，下一轮扫描会重新处理
+            for (OrderSyncPipeline.Result refundResult : orderSyncPipeline.awaitAll(stages)) {
+                if (refundResult.getOutcome() == OrderSyncPipeline.Outcome.FAILED) {
+                    log.error("处理退款订单 {} 失败", refundResult.getOrderId(), refundResult.getError());
+                } else if (refundResult.getTask() != null) {
+                    log.info("创建退货单打印任务: {}, 订单号: {}", refundResult.getTask().getTaskId(), refundResult.getTask().getOrderNo());
                 }
             }
 
+            if (refundOrders.size() < batchSize) {
+                // 本轮扫描结束，下次从头开始
+                resetRefundCursor(cursorName, lastRefundOrderId);
+            } else {
+                // 批次已满，下次从当前位置继续
+                int cursor = refundOrders.get(refundOrders.size() - 1).getId();
+                checkpointService.save(cursorName, cursor);
+                result.full = true;
+                result.backlog += refundOrders.size();
+            }
+
         } catch (Exception e) {
             log.error("同步退款订单失败", e);
         }
     }
 
+    /**
+     * 重置退款同步游标
+     */
+    private void resetRefundCursor(String cursorName, int lastRefundOrderId) {
+        if (lastRefundOrderId != 0) {
+            checkpointService.save(cursorName, 0);
+        }
+    }
+
 
     /**
-     * 创建退货单打印任务
+     * 构建退货单打印任务（不保存）
      */
-    private PrintTask createRefundPrintTask(Map<String, Object> order) throws Exception {
+    private PrintTask buildRefundPrintTask(MallOrder order, OrderBatchLoader.OrderBatch batch) throws Exception {
         // 生成退货单打印内容
-        String content = generateRefundPrintContent(order);
+        String content = generateRefundPrintContent(order, batch);
 
         // 创建打印任务
         PrintTask task = new PrintTask();
         task.setTaskId(UUID.randomUUID().toString());
-        task.setOrderId(((Number) order.get("id")).intValue());
-        task.setOrderNo((String) order.get("order_no"));
-        task.setMerchantId(String.valueOf(((Number) order.get("merchant_id")).intValue()));
-        task.setStoreId(((Number) order.get("store_id")).intValue());
+        task.setOrderId(order.getId());
+        task.setOrderNo(order.getOrderNo());
+        task.setMerchantId(String.valueOf(order.getMerchantId()));
+        task.setStoreId(order.getStoreId());
         task.setContent(content);
+        task.setTaskType(PrintTaskType.REFUND);
+        task.setSyncKey(PrintTaskType.REFUND.name() + ":" + task.getOrderId());
         task.setStatus(PrintTaskStatus.PENDING);
         task.setCreateTime(LocalDateTime.now());
         task.setLastUpdateTime(LocalDateTime.now());
-
-        // 保存打印任务
-        return printTaskService.createTask(task);
+        return task;
     }
 
 
     /**
      * 生成退货单打印内容
      */
-    private String generateRefundPrintContent(Map<String, Object> order) throws Exception {
-        int orderId = ((Number) order.get("id")).intValue();
-
-        //查询改订单下所有的退款成功的商品
-        String sql = "SELECT bs.*, rg.is_takeout, rg.is_package " +
-                "FROM tp_retail_bill_sell bs " +
-                "LEFT JOIN tp_retail_goods rg ON bs.goods_id = rg.id " +
-                "WHERE bs.bill_id = ? AND bs.refund_status = 2 AND bs.scene_type = 2";
-
-        List<Map<String, Object>> refundItems = jdbcTemplate.queryForList(sql, orderId);
-        if (refundItems.isEmpty()) {
-            throw new Exception("没有找到退款商品");
-        }
-
-        //查询店铺信息
-        Map<String, Object> storeInfo = getStoreInfo(((Number) order.get("store_id")).intValue(), ((Number) order.get("merchant_id")).intValue());
-
-        //构建退货单打印数据
-        HashMap<String, Object> printData = new HashMap<>();
-
-        //基本信息
-        printData.put("type", "refund");
-        printData.put("orderNo", order.get("order_no"));
-        printData.put("merchant", storeInfo != null ? storeInfo.getOrDefault("name", "指尖赤壁") : "指尖赤壁");
-
-        // 退款时间（使用当前时间）
-        printData.put("refundTime", LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH-mm-ss")));
-
-        //原支付时间
-        Long payTime = (Long) order.get("pay_time");
-        printData.put("originalPayTime", formatTimestamp(payTime));
-
+    private String generateRefundPrintContent(MallOrder order, OrderBatchLoader.OrderBatch batch) throws Exception {
+        return receiptContentWriter.writeRefund(order, batch);
+    }
 
-        //处理退款商品信息
-        ArrayList<Map<String, Object>> refundGoodsArray = new ArrayList<>();
-        double totalRefundAmount = 0.0;
-        for (Map<String, Object> item : refundItems) {
-            HashMap<String, Object> goodsItem = new HashMap<>();
 
-            goodsItem.put("goods_name", item.get("goods_name"));
-            goodsItem.put("goods_code", item.get("goods_code"));
+    /**
+     * 手动同步指定时间范围内的已付款订单（在调用线程中执行）
+     */
+    public int syncPaidOrdersByTimeRange(LocalDateTime startTime, LocalDateTime endTime) {
+        ResyncJob job = new ResyncJob(UUID.randomUUID().toString(), ResyncJob.Type.PAID, startTime, endTime);
+        resyncPaidOrders(job, batchSize);
+        return job.getCreated();
+    }
 
+    /**
+     * 手动同步指定时间范围内的退款订单（在调用线程中执行）
+     */
+    public int syncRefundOrdersByTimeRange(LocalDateTime startTime, LocalDateTime endTime) {
+        ResyncJob job = new ResyncJob(UUID.randomUUID().toString(), ResyncJob.Type.REFUND, startTime, endTime);
+        resyncRefundOrders(job, batchSize);
+        return job.getCreated();
+    }
 
-            //退货数量和金额
-            double sellNum = getDoubleValue(item, "sell_num", 0.0);
-            double refundMoney = getDoubleValue(item, "refund_money", 0.0);
-            goodsItem.put("sell_num", -sellNum);
-            goodsItem.put("refund_money", -refundMoney);
+    /**
+     * 按订单ID分页补同步时间范围内的已付款订单
+     * 每页单独加载、处理，处理完一页后检查取消标记
+     */
+    public void resyncPaidOrders(ResyncJob job, int pageSize) {
+        log.info("手动同步已付款订单，时间范围: {} 至 {}", job.getStartTime(), job.getEndTime());
 
+        // 转换为时间戳
+        long startTimestamp = job.getStartTime().atZone(ZoneId.systemDefault()).toEpochSecond();
+        long endTimestamp = job.getEndTime().atZone(ZoneId.systemDefault()).toEpochSecond();
 
-            // 处理餐饮商品规格
-            int isTakeout = getIntValue(item, "is_takeout", 0);
-            int isPackage = getIntValue(item, "is_package", 0);
-            if (isTakeout == 1 && isPackage == 0) {
-                int goodsId = getIntValue(item, "goods_id", 0);
-                List<Map<String, Object>> specInfo = getOrderItemSpecs(orderId, goodsId);
-                String specText = formatSpecsText(specInfo);
-                goodsItem.put("spec_text", specText);
-                goodsItem.put("is_food", true);
-            } else {
-                goodsItem.put("is_food", false);
+        // 查询指定时间范围内的已付款订单
+        String sql = "SELECT " + MallRowMappers.orderColumns(null) + " FROM tp_retail_bill_order " +
+                "WHERE pay_state = 1 AND pay_time >= ? AND pay_time <= ? " +
+                "AND id > ? " +
+                "ORDER BY id ASC LIMIT ?";
+
+        int lastOrderId = 0;
+        while (!job.isCancelRequested()) {
+            List<MallOrder> orders = jdbcTemplate.query(
+                    sql, MallRowMappers.ORDER, startTimestamp, endTimestamp, lastOrderId, pageSize);
+            if (orders.isEmpty()) {
+                break;
             }
 
-            refundGoodsArray.add(goodsItem);
-            totalRefundAmount += refundMoney;
-
+            resyncPaidPage(orders, job);
 
+            lastOrderId = orders.get(orders.size() - 1).getId();
+            job.onPage(orders.size(), lastOrderId);
+            if (orders.size() < pageSize) {
+                break;
+            }
         }
-        printData.put("goodsItems", refundGoodsArray);
-        printData.put("totalRefundAmount", -totalRefundAmount); // 总退款金额
 
-        // 支付方式
-        int payType = getIntValue(order, "pay_type", 0);
-        printData.put("pay_type", payType);
-
-        return objectMapper.writeValueAsString(printData);
+        log.info("手动同步已付款订单结束，共同步 {} 个订单", job.getCreated());
     }
 
-
-
     /**
-     * 手动同步指定时间范围内的已付款订单
+     * 处理一页已付款订单
      */
-    public int syncPaidOrdersByTimeRange(LocalDateTime startTime, LocalDateTime endTime) {
-        log.info("手动同步已付款订单，时间范围: {} 至 {}", startTime, endTime);
+    private void resyncPaidPage(List<MallOrder> orders, ResyncJob job) {
+        OrderBatchLoader.OrderBatch batch = batchLoader.loadPaidOrders(orders);
 
-        // 转换为时间戳
-        long startTimestamp = startTime.atZone(ZoneId.systemDefault()).toEpochSecond();
-        long endTimestamp = endTime.atZone(ZoneId.systemDefault()).toEpochSecond();
-
-        // 查询指定时间范围内的已付款订单
-        String sql = "SELECT * FROM tp_retail_bill_order " +
-                "WHERE pay_state = 1 AND pay_time >= ? AND pay_time <= ? " +
-                "ORDER BY id ASC";
+        // 整批检查已经创建过打印任务的订单（时间范围可能超出布隆过滤器覆盖的窗口，直接查询）
+        List<Integer> orderIds = new ArrayList<>();
+        for (MallOrder order : orders) {
+            orderIds.add(order.getId());
+        }
+        Set<Integer> existingOrderIds = printTaskService.findExistingOrderIds(orderIds, PrintTaskType.ORDER);
 
-        List<Map<String, Object>> orders = jdbcTemplate.queryForList(
-                sql, startTimestamp, endTimestamp);
+        // 只为需要创建任务的订单整批计算当日序号，不影响实时同步使用的当天计数
+        List<MallOrder> newOrders = new ArrayList<>();
+        for (MallOrder order : orders) {
+            if (!existingOrderIds.contains(order.getId())) {
+                newOrders.add(order);
+            }
+        }
+        for (Map.Entry<Integer, Integer> entry : dailyOrderCounter.indexesFromDb(newOrders).entrySet()) {
+            batch.putDayIndex(entry.getKey(), String.valueOf(entry.getValue()));
+        }
 
-        int syncCount = 0;
+        for (MallOrder order : orders) {
+            int orderId = order.getId();
 
-        for (Map<String, Object> order : orders) {
-            int orderId = ((Number) order.get("id")).intValue();
+            if (existingOrderIds.contains(orderId)) {
+                job.onSkipped();
+                continue;
+            }
 
-            // 检查该订单是否已经创建过打印任务
-            if (!printTaskService.isOrderExists(orderId)) {
-                try {
-                    // 创建打印任务
-                    PrintTask task = createPrintTask(order);
-                    log.info("手动同步：创建打印任务 {}", task.getTaskId());
+            try {
+                // 创建打印任务，补同步属于批量重打，使用低优先级
+                PrintTask task = createSyncedTask(resyncTask(buildPrintTask(order, batch)));
+                if (task == null) {
+                    job.onSkipped();
+                    continue;
+                }
+                recentOrderFilter.put(orderId);
+                log.info("手动同步：创建打印任务 {}", task.getTaskId());
 
-                    // 向该商户的所有客户端广播打印任务
-                    int storeId = ((Number) order.get("store_id")).intValue();
-                    notificationService.broadcastToPrintersByStore(storeId, task);
+                // 向该商户的所有客户端广播打印任务
+                int storeId = order.getStoreId();
+                notificationService.broadcastToPrintersByStore(storeId, task);
 
-                    syncCount++;
-                } catch (Exception e) {
-                    log.error("手动同步：处理订单 {} 失败", orderId, e);
-                }
+                job.onCreated();
+            } catch (Exception e) {
+                log.error("手动同步：处理订单 {} 失败", orderId, e);
+                job.onFailed();
             }
         }
+    }
 
-        log.info("手动同步已付款订单完成，共同步 {} 个订单", syncCount);
-        return syncCount;
+    /**
+     * 补同步的任务排在实时订单之后分发
+     */
+    private PrintTask resyncTask(PrintTask task) {
+        task.setPriority(PrintTaskPriority.LOW);
+        return task;
     }
 
     /**
-     * 手动同步指定时间范围内的退款订单
+     * 按订单ID分页补同步时间范围内的退款订单
      */
-    public int syncRefundOrdersByTimeRange(LocalDateTime startTime, LocalDateTime endTime) {
-        log.info("手动同步退款订单，时间范围: {} 至 {}", startTime, endTime);
+    public void resyncRefundOrders(ResyncJob job, int pageSize) {
+        log.info("手动同步退款订单，时间范围: {} 至 {}", job.getStartTime(), job.getEndTime());
 
         // 转换为时间戳
-        long startTimestamp = startTime.atZone(ZoneId.systemDefault()).toEpochSecond();
-        long endTimestamp = endTime.atZone(ZoneId.systemDefault()).toEpochSecond();
+        long startTimestamp = job.getStartTime().atZone(ZoneId.systemDefault()).toEpochSecond();
+        long endTimestamp = job.getEndTime().atZone(ZoneId.systemDefault()).toEpochSecond();
 
         // 查询指定时间范围内的退款成功订单
-        String sql = "SELECT DISTINCT bs.bill_id, bo.* " +
-                "FROM tp_retail_bill_sell bs " +
-                "INNER JOIN tp_retail_bill_order bo ON bs.bill_id = bo.id " +
-                "WHERE bs.refund_status = 2 AND bs.scene_type = 2 " +
-                "AND bo.pay_time >= ? AND bo.pay_time <= ? " +
+        String sql = "SELECT " + MallRowMappers.orderColumns("bo") + " " +
+                "FROM tp_retail_bill_order bo " +
+                "WHERE bo.pay_time >= ? AND bo.pay_time <= ? " +
+                "AND bo.id > ? " +
+                "AND EXISTS (" +
+                "  SELECT 1 FROM tp_retail_bill_sell bs " +
+                "  WHERE bs.bill_id = bo.id " +
+                "  AND bs.refund_status = 2 AND bs.scene_type = 2" +
+                ") " +
                 "AND NOT EXISTS (" +
                 "  SELECT 1 FROM print_tasks pt " +
-                "  WHERE pt.order_id = bs.bill_id " +
-                "  AND pt.content LIKE '%\"type\":\"refund\"%'" +  // 匹配JSON中的type:refund
+                "  WHERE pt.order_id = bo.id " +
+                "  AND pt.task_type = 'REFUND'" +
                 ") " +
-                "GROUP BY bs.bill_id " +
-                "ORDER BY bo.id ASC";
+                "ORDER BY bo.id ASC LIMIT ?";
 
-        List<Map<String, Object>> refundOrders = jdbcTemplate.queryForList(
-                sql, startTimestamp, endTimestamp);
+        int lastOrderId = 0;
+        while (!job.isCancelRequested()) {
+            List<MallOrder> refundOrders = jdbcTemplate.query(
+                    sql, MallRowMappers.ORDER, startTimestamp, endTimestamp, lastOrderId, pageSize);
+            if (refundOrders.isEmpty()) {
+                break;
+            }
 
-        int syncCount = 0;
+            OrderBatchLoader.OrderBatch batch = batchLoader.loadRefundOrders(refundOrders);
 
-        for (Map<String, Object> order : refundOrders) {
-            int orderId = ((Number) order.get("id")).intValue();
+            for (MallOrder order : refundOrders) {
+                int orderId = order.getId();
 
-            try {
-                // 创建退货单打印任务
-                PrintTask task = createRefundPrintTask(order);
-                log.info("手动同步：创建退货单 {}", task.getTaskId());
+                try {
+                    // 创建退货单打印任务，补同步属于批量重打，使用低优先级
+                    PrintTask task = createSyncedTask(resyncTask(buildRefundPrintTask(order, batch)));
+                    if (task == null) {
+                        job.onSkipped();
+                        continue;
+                    }
+                    log.info("手动同步：创建退货单 {}", task.getTaskId());
 
-                // 向该门店的所有客户端广播打印任务
-                int storeId = ((Number) order.get("store_id")).intValue();
-                notificationService.broadcastToPrintersByStore(storeId, task);
+                    // 向该门店的所有客户端广播打印任务
+                    int storeId = order.getStoreId();
+                    notificationService.broadcastToPrintersByStore(storeId, task);
 
-                syncCount++;
-            } catch (Exception e) {
-                log.error("手动同步：处理退款订单 {} 失败", orderId, e);
+                    job.onCreated();
+                } catch (Exception e) {
+                    log.error("手动同步：处理退款订单 {} 失败", orderId, e);
+                    job.onFailed();
+                }
+            }
+
+            lastOrderId = refundOrders.get(refundOrders.size() - 1).getId();
+            job.onPage(refundOrders.size(), lastOrderId);
+            if (refundOrders.size() < pageSize) {
+                break;
             }
         }
 
-        log.info("手动同步退款订单完成，共同步 {} 个订单", syncCount);
-        return syncCount;
+        log.info("手动同步退款订单结束，共同步 {} 个订单", job.getCreated());
     }
 
     /**
@@ -847,11 +715,37 @@ public class OrderSyncService {
      * @return true表示已存在退货单
      */
     public boolean hasRefundPrintTask(int orderId) {
-        String sql = "SELECT COUNT(*) FROM print_tasks " +
-                "WHERE order_id = ? AND content LIKE '%\"type\":\"refund\"%'";
-
-        Integer count = jdbcTemplate.queryForObject(sql, Integer.class, orderId);
-        return count != null && count > 0;
+        return printTaskService.isRefundExists(orderId);
     }
 
+
+    /**
+     * 一轮同步的结果，用于调整同步节奏
+     */
+    public static class SyncRunResult {
+        private int fetched;
+        private boolean full;
+        private int backlog;
+
+        /**
+         * 本轮拉取的订单数
+         */
+        public int getFetched() {
+            return fetched;
+        }
+
+        /**
+         * 最后一批是否已满（仍有积压）
+         */
+        public boolean isFull() {
+            return full;
+        }
+
+        /**
+         * 剩余积压估算
+         */
+        public int getBacklog() {
+            return backlog;
+        }
+    }
 }
@@ -0,0 +1,324 @@
+package com.example.print.service;
+
+import com.example.print.model.PrintTask;
+import com.example.print.model.PrintTaskStatus;
+import com.example.print.repository.PrintTaskRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 未完成任务（PENDING / PRINTING）的内存索引，按门店分组
+ * 待处理任务查询和卡住任务统计直接读内存；本实例的任务变更在事务提交后写入，
+ * 其他实例的变更由定时从数据库全量刷新合并（以变更序号判断内存中的数据是否更新）。
+ * 启动载入完成前查询仍走数据库
+ */
+@Component
+@Slf4j
+public class PendingTaskIndex {
+
+    private static final List<PrintTaskStatus> INDEXED_STATUSES =
+            Arrays.asList(PrintTaskStatus.PENDING, PrintTaskStatus.PRINTING);
+
+    @Autowired
+    private PrintTaskRepository taskRepository;
+
+    @Autowired
+    private PrintTaskContentStore contentStore;
+
+    // 门店ID -> (任务ID -> 任务)
+    private final Map<Integer, Map<String, Entry>> stores = new ConcurrentHashMap<>();
+
+    // 本实例移除的任务，刷新时避免用移除前读到的数据库数据把任务加回来
+    private final Map<String, Long> removed = new ConcurrentHashMap<>();
+
+    // 变更序号，每次写入递增
+    private final AtomicLong sequence = new AtomicLong();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong refreshes = new AtomicLong();
+
+    private volatile boolean ready;
+    private volatile LocalDateTime lastRefreshTime;
+
+    /**
+     * 启动时从数据库载入未完成任务
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void load() {
+        refresh();
+    }
+
+    /**
+     * 定时与数据库对账，合并其他实例的变更
+     */
+    @Scheduled(fixedDelayString = "${print.task.pending-index.refresh-interval:60000}",
+            initialDelayString = "${print.task.pending-index.refresh-interval:60000}")
+    public void refresh() {
+        try {
+            long snapshot = sequence.get();
+            List<PrintTask> tasks = taskRepository.findByStatusIn(INDEXED_STATUSES);
+            merge(tasks, snapshot);
+            refreshes.incrementAndGet();
+            lastRefreshTime = LocalDateTime.now();
+            if (!ready) {
+                ready = true;
+                log.info("未完成任务索引已载入 {} 个任务", tasks.size());
+            }
+        } catch (Exception e) {
+            log.error("刷新未完成任务索引失败", e);
+        }
+    }
+
+    /**
+     * 以数据库快照为准合并索引，快照之后本实例的变更保留内存中的数据
+     */
+    private void merge(List<PrintTask> tasks, long snapshot) {
+        Set<String> loaded = new HashSet<>();
+        for (PrintTask task : tasks) {
+            loaded.add(task.getTaskId());
+            stores.computeIfAbsent(task.getStoreId(), k -> new ConcurrentHashMap<>())
+                    .compute(task.getTaskId(), (taskId, current) -> {
+                        Long removedAt = removed.get(taskId);
+                        if (removedAt != null && removedAt > snapshot) {
+                            return current;
+                        }
+                        if (current != null && current.sequence > snapshot) {
+                            return current;
+                        }
+                        if (current != null && task.getContent() == null) {
+                            task.setContent(current.task.getContent());
+                        }
+                        return new Entry(task, snapshot);
+                    });
+        }
+
+        // 数据库中已不是未完成状态的任务（其他实例已处理）
+        for (Map<String, Entry> entries : stores.values()) {
+            entries.values().removeIf(entry -> entry.sequence <= snapshot && !loaded.contains(entry.task.getTaskId()));
+        }
+        removed.values().removeIf(removedAt -> removedAt <= snapshot);
+    }
+
+    /**
+     * 索引是否已载入，未载入时调用方应查询数据库
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * 任务创建或状态变更后更新索引，在当前事务提交后生效
+     */
+    public void update(PrintTask task) {
+        PrintTask copy = task.toBuilder().build();
+        TransactionCallbacks.afterCommit(() -> apply(copy));
+    }
+
+    private void apply(PrintTask task) {
+        long seq = sequence.incrementAndGet();
+        Map<String, Entry> entries = stores.computeIfAbsent(task.getStoreId(), k -> new ConcurrentHashMap<>());
+        if (!INDEXED_STATUSES.contains(task.getStatus())) {
+            removed.put(task.getTaskId(), seq);
+            entries.remove(task.getTaskId());
+            return;
+        }
+        entries.compute(task.getTaskId(), (taskId, current) -> {
+            if (current != null && task.getContent() == null) {
+                task.setContent(current.task.getContent());
+            }
+            return new Entry(task, seq);
+        });
+    }
+
+    /**
+     * 移除在某时间之前创建的任务（批量标记死信后调用），租约未到期的任务未被标记，保留
+     */
+    public void removeCreatedBefore(LocalDateTime threshold, LocalDateTime now) {
+        for (Map<String, Entry> entries : stores.values()) {
+            entries.values().removeIf(entry -> {
+                LocalDateTime createTime = entry.task.getCreateTime();
+                if (createTime == null || !createTime.isBefore(threshold)) {
+                    return false;
+                }
+                LocalDateTime leaseExpireTime = entry.task.getLeaseExpireTime();
+                if (leaseExpireTime != null && !leaseExpireTime.isBefore(now)) {
+                    return false;
+                }
+                removed.put(entry.task.getTaskId(), sequence.incrementAndGet());
+                return true;
+            });
+        }
+    }
+
+    /**
+     * 索引中的任务副本（不含内容），不在索引中时返回 null
+     */
+    public PrintTask get(String taskId) {
+        for (Map<String, Entry> entries : stores.values()) {
+            Entry entry = entries.get(taskId);
+            if (entry != null) {
+                return entry.task.toBuilder().content(null).build();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 门店的待打印任务，按优先级和创建时间排序
+     */
+    public List<PrintTask> getPendingByStore(int storeId) {
+        hits.incrementAndGet();
+        Map<String, Entry> entries = stores.get(storeId);
+        if (entries == null) {
+            return new ArrayList<>();
+        }
+        return collect(entries.values(), PrintTaskStatus.PENDING);
+    }
+
+    /**
+     * 商户的待打印任务，按优先级和创建时间排序
+     */
+    public List<PrintTask> getPendingByMerchant(int merchantId) {
+        hits.incrementAndGet();
+        String merchant = String.valueOf(merchantId);
+        List<Entry> matched = new ArrayList<>();
+        for (Map<String, Entry> entries : stores.values()) {
+            for (Entry entry : entries.values()) {
+                if (merchant.equals(entry.task.getMerchantId())) {
+                    matched.add(entry);
+                }
+            }
+        }
+        return collect(matched, PrintTaskStatus.PENDING);
+    }
+
+    /**
+     * 全部待打印任务，按优先级和创建时间排序
+     */
+    public List<PrintTask> getAllPending() {
+        hits.incrementAndGet();
+        List<Entry> all = new ArrayList<>();
+        for (Map<String, Entry> entries : stores.values()) {
+            all.addAll(entries.values());
+        }
+        return collect(all, PrintTaskStatus.PENDING);
+    }
+
+    /**
+     * 按门店统计在某时间之前创建、仍未完成的任务数
+     */
+    public Map<Integer, Integer> countCreatedBeforeByStore(LocalDateTime threshold) {
+        Map<Integer, Integer> counts = new HashMap<>();
+        for (Map.Entry<Integer, Map<String, Entry>> store : stores.entrySet()) {
+            int count = 0;
+            for (Entry entry : store.getValue().values()) {
+                LocalDateTime createTime = entry.task.getCreateTime();
+                if (createTime != null && createTime.isBefore(threshold)) {
+                    count++;
+                }
+            }
+            if (count > 0) {
+                counts.put(store.getKey(), count);
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * 复制匹配的任务返回，调用方修改不影响索引；缺少内容的任务一次补齐并回填到索引
+     */
+    private List<PrintTask> collect(Collection<Entry> entries, PrintTaskStatus status) {
+        List<PrintTask> result = new ArrayList<>();
+        List<Entry> missingContent = new ArrayList<>();
+        for (Entry entry : entries) {
+            PrintTask task = entry.task;
+            if (task.getStatus() != status) {
+                continue;
+            }
+            if (task.getContent() == null) {
+                missingContent.add(entry);
+            }
+            result.add(task.toBuilder().build());
+        }
+
+        if (!missingContent.isEmpty()) {
+            List<PrintTask> copies = new ArrayList<>(result);
+            contentStore.attachAll(copies);
+            Map<String, String> contents = new HashMap<>();
+            for (PrintTask copy : copies) {
+                contents.put(copy.getTaskId(), copy.getContent());
+            }
+            for (Entry entry : missingContent) {
+                backfillContent(entry, contents.get(entry.task.getTaskId()));
+            }
+        }
+
+        result.sort(PrintTask.DISPATCH_ORDER);
+        return result;
+    }
+
+    /**
+     * 在索引的锁内用带内容的新副本替换条目，不修改共享的任务对象；
+     * 条目已被更新或移除时放弃回填
+     */
+    private void backfillContent(Entry entry, String content) {
+        Map<String, Entry> entries = stores.get(entry.task.getStoreId());
+        if (content == null || entries == null) {
+            return;
+        }
+        entries.computeIfPresent(entry.task.getTaskId(), (taskId, current) -> current != entry
+                ? current
+                : new Entry(current.task.toBuilder().content(content).build(), current.sequence));
+    }
+
+    public Map<String, Object> getStats() {
+        int size = 0;
+        int pending = 0;
+        int activeStores = 0;
+        for (Map<String, Entry> entries : stores.values()) {
+            if (!entries.isEmpty()) {
+                activeStores++;
+            }
+            for (Entry entry : entries.values()) {
+                size++;
+                if (entry.task.getStatus() == PrintTaskStatus.PENDING) {
+                    pending++;
+                }
+            }
+        }
+
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("ready", ready);
+        stats.put("size", size);
+        stats.put("pending", pending);
+        stats.put("printing", size - pending);
+        stats.put("stores", activeStores);
+        stats.put("queries", hits.get());
+        stats.put("refreshes", refreshes.get());
+        stats.put("lastRefreshTime", lastRefreshTime);
+        return stats;
+    }
+
+    /**
+     * 索引中的任务副本及写入时的变更序号
+     */
+    private static class Entry {
+
+        private final PrintTask task;
+        private final long sequence;
+
+        Entry(PrintTask task, long sequence) {
+            this.task = task;
+            this.sequence = sequence;
+        }
+    }
+}
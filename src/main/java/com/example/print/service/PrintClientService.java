@@ -10,8 +10,7 @@ import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDateTime;
-import java.util.List;
-import java.util.Optional;
+import java.util.*;
 
 @Service
 @Slf4j
@@ -23,6 +22,12 @@ public class PrintClientService {
     @Autowired
     private NotificationService notificationService;
 
+    @Autowired
+    private ReceiptRenderService receiptRenderService;
+
+    @Autowired
+    private TaskAssignmentService assignmentService;
+
     @Value("${print.client.heartbeat-timeout:2}")
     private int heartbeatTimeoutMinutes;
 
@@ -49,12 +54,18 @@ public class PrintClientService {
                 existing.setIpAddress(client.getIpAddress());
             }
 
+            existing.setCapabilities(client.getCapabilities());
+            existing.setWeight(client.getWeight());
+
             existing.setOnline(true);
             existing.setLastActiveTime(LocalDateTime.now());
             existing.setUpdateTime(LocalDateTime.now());
 
             log.info("更新现有客户端: {}", client.getClientId());
-            return clientRepository.save(existing);
+            PrintClient saved = clientRepository.save(existing);
+            receiptRenderService.invalidateCapabilities(saved.getStoreId());
+            assignmentService.invalidateClients(saved.getStoreId());
+            return saved;
         } else {
             // 创建新客户端
             client.setOnline(true);
@@ -63,7 +74,10 @@ public class PrintClientService {
             client.setUpdateTime(LocalDateTime.now());
 
             log.info("注册新客户端: {}", client.getClientId());
-            return clientRepository.save(client);
+            PrintClient saved = clientRepository.save(client);
+            receiptRenderService.invalidateCapabilities(saved.getStoreId());
+            assignmentService.invalidateClients(saved.getStoreId());
+            return saved;
         }
     }
 
@@ -106,6 +120,16 @@ public class PrintClientService {
         return clientRepository.findByStoreIdAndOnlineTrue(storeId);
     }
 
+    /**
+     * 查询一组门店中有在线客户端的门店
+     */
+    public Set<Integer> findStoresWithOnlineClients(Collection<Integer> storeIds) {
+        if (storeIds.isEmpty()) {
+            return Collections.emptySet();
+        }
+        return new HashSet<>(clientRepository.findOnlineStoreIds(storeIds));
+    }
+
     /**
      * 检查客户端在线状态
      * 每分钟执行一次
@@ -130,6 +154,10 @@ public class PrintClientService {
 
                 log.info("客户端标记为离线: {}, 商户: {}", client.getClientId(), client.getMerchantId());
 
+                // 分配给该客户端且未确认的任务改发其他客户端
+                assignmentService.invalidateClients(client.getStoreId());
+                assignmentService.releaseClient(client.getClientId());
+
                 // 通知系统
                 notificationService.sendSystemNotification(
                         "CLIENT_OFFLINE",
@@ -0,0 +1,346 @@
+package com.example.print.service;
+
+import com.example.print.model.PrintHistory;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 打印历史异步批量写入
+ * 历史记录在事务提交后进入有界队列，由后台线程按批次大小或时间间隔用 JDBC 批量插入；
+ * 队列满或写入失败时写入溢出文件（未配置时队列满则在调用线程直接写入），
+ * 溢出文件在下次启动时补写；停止时默认写完队列中的记录
+ */
+@Component
+@Slf4j
+public class PrintHistoryWriter {
+
+    private static final String INSERT_SQL = "INSERT INTO print_history " +
+            "(task_id, client_id, order_id, order_no, merchant_id, store_id, print_time, status, " +
+            "error_message, printer_name, ip_address) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private static final int MAX_WRITE_ATTEMPTS = 3;
+
+    @Value("${print.history.writer.queue-capacity:10000}")
+    private int queueCapacity;
+
+    @Value("${print.history.writer.batch-size:200}")
+    private int batchSize;
+
+    @Value("${print.history.writer.flush-interval:1000}")
+    private long flushInterval;
+
+    @Value("${print.history.writer.flush-on-shutdown:true}")
+    private boolean flushOnShutdown;
+
+    @Value("${print.history.writer.spill-file:}")
+    private String spillFile;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private BlockingQueue<PrintHistory> queue;
+    private Thread writerThread;
+    private volatile boolean running;
+
+    // 写入线程停止时手上尚未写入的一批记录
+    private volatile List<PrintHistory> unflushed = Collections.emptyList();
+
+    private final AtomicLong enqueued = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong spilled = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong directWrites = new AtomicLong();
+    private final AtomicLong totalFlushNanos = new AtomicLong();
+    private volatile long lastFlushNanos;
+    private volatile long maxFlushNanos;
+
+    @PostConstruct
+    public void init() {
+        queue = new ArrayBlockingQueue<>(queueCapacity);
+        replaySpillFile();
+
+        running = true;
+        writerThread = new Thread(this::runWriter, "print-history-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+        log.info("初始化打印历史写入，队列容量: {}, 批次大小: {}, 刷新间隔: {}ms, 溢出文件: {}",
+                queueCapacity, batchSize, flushInterval, isSpillEnabled() ? spillFile : "未启用");
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        writerThread.interrupt();
+        try {
+            writerThread.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        List<PrintHistory> remaining = new ArrayList<>(unflushed);
+        queue.drainTo(remaining);
+        if (remaining.isEmpty()) {
+            return;
+        }
+        if (flushOnShutdown) {
+            log.info("停止前写入剩余 {} 条打印历史", remaining.size());
+            for (int from = 0; from < remaining.size(); from += batchSize) {
+                flush(remaining.subList(from, Math.min(remaining.size(), from + batchSize)));
+            }
+        } else if (isSpillEnabled()) {
+            spill(remaining);
+        } else {
+            dropped.addAndGet(remaining.size());
+            log.warn("停止时丢弃 {} 条未写入的打印历史", remaining.size());
+        }
+    }
+
+    /**
+     * 记录一条打印历史，在当前事务提交后进入写入队列
+     */
+    public void record(PrintHistory history) {
+        TransactionCallbacks.afterCommit(() -> enqueue(history));
+    }
+
+    private void enqueue(PrintHistory history) {
+        if (queue.offer(history)) {
+            enqueued.incrementAndGet();
+            return;
+        }
+
+        // 队列已满
+        if (isSpillEnabled()) {
+            spill(Collections.singletonList(history));
+        } else {
+            directWrites.incrementAndGet();
+            flush(Collections.singletonList(history));
+        }
+    }
+
+    private void runWriter() {
+        List<PrintHistory> batch = new ArrayList<>(batchSize);
+        while (running) {
+            try {
+                PrintHistory first = queue.poll(flushInterval, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+
+                // 攒满一批或到达刷新间隔后写入
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushInterval);
+                while (batch.size() < batchSize) {
+                    queue.drainTo(batch, batchSize - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (batch.size() >= batchSize || remaining <= 0) {
+                        break;
+                    }
+                    PrintHistory next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+
+                flush(batch);
+                batch.clear();
+            } catch (InterruptedException e) {
+                // 停止时剩余记录由 shutdown 处理
+                unflushed = new ArrayList<>(batch);
+                batch.clear();
+            } catch (Exception e) {
+                log.error("打印历史写入线程异常", e);
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * 批量写入，失败时重试，仍失败则写入溢出文件
+     */
+    private void flush(List<PrintHistory> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        for (int attempt = 1; attempt <= MAX_WRITE_ATTEMPTS; attempt++) {
+            long start = System.nanoTime();
+            try {
+                insertBatch(batch);
+                long elapsed = System.nanoTime() - start;
+                written.addAndGet(batch.size());
+                batches.incrementAndGet();
+                totalFlushNanos.addAndGet(elapsed);
+                lastFlushNanos = elapsed;
+                if (elapsed > maxFlushNanos) {
+                    maxFlushNanos = elapsed;
+                }
+                return;
+            } catch (Exception e) {
+                log.warn("批量写入打印历史失败（第 {} 次），条数: {}", attempt, batch.size(), e);
+            }
+        }
+
+        if (isSpillEnabled()) {
+            spill(batch);
+        } else {
+            dropped.addAndGet(batch.size());
+            log.error("打印历史写入失败，丢弃 {} 条记录", batch.size());
+        }
+    }
+
+    private void insertBatch(List<PrintHistory> batch) {
+        jdbcTemplate.batchUpdate(INSERT_SQL, new BatchPreparedStatementSetter() {
+            @Override
+            public void setValues(PreparedStatement ps, int i) throws SQLException {
+                PrintHistory history = batch.get(i);
+                ps.setString(1, history.getTaskId());
+                ps.setString(2, history.getClientId());
+                ps.setObject(3, history.getOrderId(), Types.INTEGER);
+                ps.setString(4, history.getOrderNo());
+                ps.setObject(5, history.getMerchantId(), Types.INTEGER);
+                ps.setObject(6, history.getStoreId(), Types.INTEGER);
+                ps.setTimestamp(7, history.getPrintTime() != null ? Timestamp.valueOf(history.getPrintTime()) : null);
+                ps.setString(8, history.getStatus());
+                ps.setString(9, history.getErrorMessage());
+                ps.setString(10, history.getPrinterName());
+                ps.setString(11, history.getIpAddress());
+            }
+
+            @Override
+            public int getBatchSize() {
+                return batch.size();
+            }
+        });
+    }
+
+    private boolean isSpillEnabled() {
+        return spillFile != null && !spillFile.trim().isEmpty();
+    }
+
+    /**
+     * 追加写入溢出文件，每行一条 JSON
+     */
+    private synchronized void spill(List<PrintHistory> histories) {
+        File file = new File(spillFile);
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.exists()) {
+            parent.mkdirs();
+        }
+        try (BufferedWriter writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            for (PrintHistory history : histories) {
+                writer.write(objectMapper.writeValueAsString(history));
+                writer.newLine();
+            }
+            spilled.addAndGet(histories.size());
+        } catch (IOException e) {
+            dropped.addAndGet(histories.size());
+            log.error("写入打印历史溢出文件失败，丢弃 {} 条记录", histories.size(), e);
+        }
+    }
+
+    /**
+     * 启动时补写上次留在溢出文件中的记录
+     */
+    private synchronized void replaySpillFile() {
+        if (!isSpillEnabled()) {
+            return;
+        }
+        File file = new File(spillFile);
+        if (!file.exists()) {
+            return;
+        }
+
+        List<PrintHistory> histories = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.trim().isEmpty()) {
+                    histories.add(objectMapper.readValue(line, PrintHistory.class));
+                }
+            }
+        } catch (IOException e) {
+            log.error("读取打印历史溢出文件失败: {}", spillFile, e);
+            return;
+        }
+
+        int done = 0;
+        try {
+            while (done < histories.size()) {
+                int end = Math.min(histories.size(), done + batchSize);
+                insertBatch(histories.subList(done, end));
+                written.addAndGet(end - done);
+                done = end;
+            }
+            Files.delete(file.toPath());
+            log.info("已补写溢出文件中的 {} 条打印历史", histories.size());
+        } catch (Exception e) {
+            // 只保留未写入的记录，下次启动再补写
+            log.error("补写打印历史溢出文件失败，已补写 {} 条: {}", done, spillFile, e);
+            if (done > 0) {
+                rewriteSpillFile(file, histories.subList(done, histories.size()));
+            }
+        }
+    }
+
+    private void rewriteSpillFile(File file, List<PrintHistory> histories) {
+        try (BufferedWriter writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (PrintHistory history : histories) {
+                writer.write(objectMapper.writeValueAsString(history));
+                writer.newLine();
+            }
+        } catch (IOException e) {
+            log.error("重写打印历史溢出文件失败: {}", spillFile, e);
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        long batchCount = batches.get();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("queueDepth", queue.size());
+        stats.put("queueCapacity", queueCapacity);
+        stats.put("enqueued", enqueued.get());
+        stats.put("written", written.get());
+        stats.put("batches", batchCount);
+        stats.put("directWrites", directWrites.get());
+        stats.put("spilled", spilled.get());
+        stats.put("dropped", dropped.get());
+        stats.put("lastFlushMs", TimeUnit.NANOSECONDS.toMillis(lastFlushNanos));
+        stats.put("avgFlushMs", batchCount == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalFlushNanos.get() / batchCount));
+        stats.put("maxFlushMs", TimeUnit.NANOSECONDS.toMillis(maxFlushNanos));
+        return stats;
+    }
+}
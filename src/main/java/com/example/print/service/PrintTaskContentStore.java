@@ -0,0 +1,235 @@
+package com.example.print.service;
+
+import com.example.print.model.PrintTask;
+import com.example.print.model.PrintTaskContent;
+import com.example.print.repository.PrintTaskContentRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.annotation.PostConstruct;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 打印任务内容存取
+ * 内容存放在 print_task_contents 表，超过阈值的内容 gzip 压缩后保存；
+ * 旧版本写在 print_tasks.content 列中的内容启动后分批迁移，迁移完成前读取时回退到旧列
+ */
+@Component
+@Slf4j
+public class PrintTaskContentStore {
+
+    @Autowired
+    private PrintTaskContentRepository contentRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private NamedParameterJdbcTemplate namedJdbcTemplate;
+
+    @Value("${print.task.content.compress-threshold:256}")
+    private int compressThreshold;
+
+    @Value("${print.task.content.migrate-batch-size:500}")
+    private int migrateBatchSize;
+
+    // print_tasks 表是否还有旧的 content 列
+    private volatile boolean legacyColumn;
+
+    @PostConstruct
+    public void init() {
+        try {
+            jdbcTemplate.queryForList("SELECT content FROM print_tasks WHERE 1 = 0");
+            legacyColumn = true;
+        } catch (Exception e) {
+            legacyColumn = false;
+        }
+    }
+
+    /**
+     * print_tasks 表是否还有旧的 content 列
+     */
+    public boolean hasLegacyColumn() {
+        return legacyColumn;
+    }
+
+    /**
+     * 保存任务内容
+     */
+    @Transactional
+    public void save(String taskId, String content) {
+        if (content == null) {
+            return;
+        }
+        contentRepository.save(encode(taskId, content));
+    }
+
+    /**
+     * 为任务补齐内容（已有内容时不查询）
+     */
+    public PrintTask attach(PrintTask task) {
+        if (task != null && task.getContent() == null) {
+            attachAll(Collections.singletonList(task));
+        }
+        return task;
+    }
+
+    /**
+     * 为一批任务补齐内容，一次查询
+     */
+    public <T extends Collection<PrintTask>> T attachAll(T tasks) {
+        Map<String, PrintTask> missing = new HashMap<>();
+        for (PrintTask task : tasks) {
+            if (task.getContent() == null) {
+                missing.put(task.getTaskId(), task);
+            }
+        }
+        if (missing.isEmpty()) {
+            return tasks;
+        }
+
+        for (PrintTaskContent content : contentRepository.findAllById(missing.keySet())) {
+            PrintTask task = missing.remove(content.getTaskId());
+            if (task != null) {
+                task.setContent(decode(content));
+            }
+        }
+
+        if (!missing.isEmpty() && legacyColumn) {
+            // 尚未迁移的旧任务
+            String sql = "SELECT task_id, content FROM print_tasks WHERE task_id IN (:ids)";
+            namedJdbcTemplate.query(sql, new MapSqlParameterSource("ids", missing.keySet()), rs -> {
+                PrintTask task = missing.get(rs.getString("task_id"));
+                if (task != null) {
+                    task.setContent(rs.getString("content"));
+                }
+            });
+        }
+        return tasks;
+    }
+
+    /**
+     * 删除一批任务的内容
+     */
+    @Transactional
+    public int delete(Collection<String> taskIds) {
+        if (taskIds.isEmpty()) {
+            return 0;
+        }
+        return contentRepository.deleteByTaskIds(taskIds);
+    }
+
+    /**
+     * 启动后在后台把 print_tasks.content 中的旧内容迁移到内容表
+     * 排在任务类型回填（依赖旧内容识别退货单）之后
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Order(Ordered.LOWEST_PRECEDENCE)
+    public void migrateLegacyContent() {
+        if (!legacyColumn) {
+            return;
+        }
+        Thread thread = new Thread(this::migrate, "task-content-migrate");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void migrate() {
+        String selectSql = "SELECT task_id, content FROM print_tasks WHERE content IS NOT NULL LIMIT ?";
+        String clearSql = "UPDATE print_tasks SET content = NULL WHERE task_id IN (:ids)";
+        int migrated = 0;
+
+        try {
+            while (true) {
+                List<PrintTaskContent> batch = new ArrayList<>();
+                jdbcTemplate.query(selectSql, rs -> {
+                    batch.add(encode(rs.getString("task_id"), rs.getString("content")));
+                }, migrateBatchSize);
+                if (batch.isEmpty()) {
+                    break;
+                }
+
+                // 先写内容表再清空旧列，中途失败重新迁移时覆盖写入
+                contentRepository.saveAll(batch);
+                List<String> taskIds = new ArrayList<>(batch.size());
+                for (PrintTaskContent content : batch) {
+                    taskIds.add(content.getTaskId());
+                }
+                namedJdbcTemplate.update(clearSql, new MapSqlParameterSource("ids", taskIds));
+
+                migrated += batch.size();
+                log.info("已迁移 {} 个任务的打印内容", migrated);
+            }
+            if (migrated > 0) {
+                log.info("打印内容迁移完成，共 {} 个任务", migrated);
+            }
+        } catch (Exception e) {
+            log.error("迁移打印内容失败，已迁移 {} 个任务，下次启动继续", migrated, e);
+        }
+    }
+
+    private PrintTaskContent encode(String taskId, String content) {
+        byte[] raw = content.getBytes(StandardCharsets.UTF_8);
+        PrintTaskContent entity = new PrintTaskContent();
+        entity.setTaskId(taskId);
+        entity.setOriginalLength(raw.length);
+        entity.setCreateTime(LocalDateTime.now());
+        if (raw.length >= compressThreshold) {
+            entity.setData(gzip(raw));
+            entity.setEncoding(PrintTaskContent.ENCODING_GZIP);
+        } else {
+            entity.setData(raw);
+            entity.setEncoding(PrintTaskContent.ENCODING_PLAIN);
+        }
+        return entity;
+    }
+
+    private static String decode(PrintTaskContent content) {
+        byte[] raw = PrintTaskContent.ENCODING_GZIP.equals(content.getEncoding())
+                ? gunzip(content.getData(), content.getOriginalLength())
+                : content.getData();
+        return new String(raw, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] gzip(byte[] raw) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length / 3 + 32);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(raw);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] gunzip(byte[] data, int originalLength) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, originalLength));
+        try (GZIPInputStream gzip = new GZIPInputStream(new ByteArrayInputStream(data))) {
+            byte[] buffer = new byte[4096];
+            int n;
+            while ((n = gzip.read(buffer)) > 0) {
+                out.write(buffer, 0, n);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+}
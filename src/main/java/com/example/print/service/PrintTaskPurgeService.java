@@ -0,0 +1,291 @@
+package com.example.print.service;
+
+import com.example.print.model.PrintHistory;
+import com.example.print.model.PrintTaskStatus;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.BeanPropertyRowMapper;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PreDestroy;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 旧打印任务清理
+ * 按 (create_time, task_id) 顺序分批删除保留期之前的已完成任务及其内容，每批单独提交并暂停一段时间，
+ * 超过时间预算后停止，剩余的留到下次执行。
+ * 启用冷归档时每批先归档任务和打印历史再删除，任务删除后遗留的旧打印历史也一并归档。
+ * 清理在独立线程执行，定时任务只负责触发，不占用公共调度线程。
+ * 多实例部署时只由持有分片 0 租约的实例清理和归档，其他实例跳过
+ */
+@Service
+@Slf4j
+public class PrintTaskPurgeService {
+
+    @Value("${print.task.purge.retention-days:30}")
+    private int retentionDays;
+
+    @Value("${print.task.purge.chunk-size:500}")
+    private int chunkSize;
+
+    @Value("${print.task.purge.pause-millis:100}")
+    private long pauseMillis;
+
+    @Value("${print.task.purge.time-budget-minutes:30}")
+    private long timeBudgetMinutes;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private NamedParameterJdbcTemplate namedJdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private PrintTaskContentStore contentStore;
+
+    @Autowired
+    private TaskArchiveService archiveService;
+
+    @Autowired
+    private SyncLeaseService syncLeaseService;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    private final ExecutorService purgeExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "print-task-purge");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private volatile LocalDateTime lastStartTime;
+    private volatile LocalDateTime lastEndTime;
+    private volatile LocalDateTime lastCutoff;
+    private volatile long lastDeleted;
+    private volatile long lastHistoryArchived;
+    private volatile int lastChunks;
+    private volatile boolean lastBudgetExceeded;
+    private volatile String lastError;
+
+    /**
+     * 删除旧的打印任务记录
+     * 每天凌晨1点触发，在清理线程中执行
+     */
+    @Scheduled(cron = "${print.task.purge.cron:0 0 1 * * ?}")
+    public void cleanupOldTasks() {
+        if (!isPurgeOwner()) {
+            log.info("未持有分片 0 的租约，由其他实例清理旧的打印任务");
+            return;
+        }
+        if (!running.compareAndSet(false, true)) {
+            log.warn("上一次清理仍在进行，跳过本次");
+            return;
+        }
+        LocalDateTime cutoff = LocalDateTime.now().minusDays(retentionDays);
+        purgeExecutor.execute(() -> {
+            try {
+                purge(cutoff);
+            } finally {
+                running.set(false);
+            }
+        });
+    }
+
+    @PreDestroy
+    public void stop() {
+        purgeExecutor.shutdownNow();
+    }
+
+    private void purge(LocalDateTime cutoff) {
+        log.info("开始清理旧的打印任务，截止时间: {}, 归档: {}", cutoff, archiveService.isEnabled());
+        long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(timeBudgetMinutes);
+        lastStartTime = LocalDateTime.now();
+        lastEndTime = null;
+        lastCutoff = cutoff;
+        lastDeleted = 0;
+        lastHistoryArchived = 0;
+        lastChunks = 0;
+        lastBudgetExceeded = false;
+        lastError = null;
+
+        try {
+            boolean finished = purgeTasks(cutoff, deadline);
+            if (finished && archiveService.isEnabled()) {
+                purgeOrphanHistory(cutoff, deadline);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            lastError = e.getMessage();
+            log.error("清理旧的打印任务失败", e);
+        } finally {
+            lastEndTime = LocalDateTime.now();
+        }
+
+        log.info("清理了 {} 个旧的打印任务，归档了 {} 条无任务的打印历史，共 {} 批",
+                lastDeleted, lastHistoryArchived, lastChunks);
+    }
+
+    /**
+     * 分批清理已完成任务（启用归档时先归档任务和打印历史）
+     *
+     * @return 是否已处理完所有符合条件的任务
+     */
+    private boolean purgeTasks(LocalDateTime cutoff, long deadline) throws Exception {
+        String selectSql = "SELECT task_id, create_time FROM print_tasks " +
+                "WHERE status = ? AND create_time < ? " +
+                "AND (create_time > ? OR (create_time = ? AND task_id > ?)) " +
+                "ORDER BY create_time, task_id LIMIT ?";
+        String deleteSql = "DELETE FROM print_tasks WHERE task_id IN (:ids) AND status = :status";
+        String deleteHistorySql = "DELETE FROM print_history WHERE task_id IN (:ids)";
+
+        // 游标：上一批最后一条的 (create_time, task_id)
+        Timestamp lastCreateTime = new Timestamp(0);
+        String lastTaskId = "";
+
+        while (true) {
+            if (shouldStop(deadline)) {
+                return false;
+            }
+
+            List<String> taskIds = new ArrayList<>(chunkSize);
+            Timestamp[] cursorTime = {lastCreateTime};
+            String[] cursorId = {lastTaskId};
+            jdbcTemplate.query(selectSql, rs -> {
+                taskIds.add(rs.getString("task_id"));
+                cursorTime[0] = rs.getTimestamp("create_time");
+                cursorId[0] = rs.getString("task_id");
+            }, PrintTaskStatus.COMPLETED.name(), Timestamp.valueOf(cutoff),
+                    lastCreateTime, lastCreateTime, lastTaskId, chunkSize);
+            if (taskIds.isEmpty()) {
+                return true;
+            }
+            lastCreateTime = cursorTime[0];
+            lastTaskId = cursorId[0];
+
+            // 归档失败时抛出异常，本批不删除
+            boolean archive = archiveService.isEnabled();
+            List<String> deletable = archive ? archiveService.archiveTasks(taskIds) : taskIds;
+
+            // 每批单独提交
+            if (!deletable.isEmpty()) {
+                Integer deleted = transactionTemplate.execute(status -> {
+                    MapSqlParameterSource params = new MapSqlParameterSource()
+                            .addValue("ids", deletable)
+                            .addValue("status", PrintTaskStatus.COMPLETED.name());
+                    int count = namedJdbcTemplate.update(deleteSql, params);
+                    contentStore.delete(deletable);
+                    if (archive) {
+                        namedJdbcTemplate.update(deleteHistorySql, params);
+                    }
+                    return count;
+                });
+                lastDeleted += deleted != null ? deleted : 0;
+            }
+            lastChunks++;
+
+            if (taskIds.size() < chunkSize) {
+                return true;
+            }
+            pause();
+        }
+    }
+
+    /**
+     * 分批归档并删除任务已不在热表中的旧打印历史
+     */
+    private void purgeOrphanHistory(LocalDateTime cutoff, long deadline) throws Exception {
+        String selectSql = "SELECT h.* FROM print_history h " +
+                "WHERE h.print_time < ? AND h.id > ? " +
+                "AND NOT EXISTS (SELECT 1 FROM print_tasks t WHERE t.task_id = h.task_id) " +
+                "ORDER BY h.id LIMIT ?";
+        String deleteSql = "DELETE FROM print_history WHERE id IN (:ids)";
+        BeanPropertyRowMapper<PrintHistory> rowMapper = new BeanPropertyRowMapper<>(PrintHistory.class);
+
+        int lastId = 0;
+        while (!shouldStop(deadline)) {
+            List<PrintHistory> histories = jdbcTemplate.query(selectSql, rowMapper,
+                    Timestamp.valueOf(cutoff), lastId, chunkSize);
+            if (histories.isEmpty()) {
+                return;
+            }
+
+            archiveService.archiveHistory(histories);
+            List<Integer> ids = new ArrayList<>(histories.size());
+            for (PrintHistory history : histories) {
+                ids.add(history.getId());
+                lastId = Math.max(lastId, history.getId());
+            }
+            namedJdbcTemplate.update(deleteSql, new MapSqlParameterSource("ids", ids));
+            lastHistoryArchived += ids.size();
+            lastChunks++;
+
+            if (histories.size() < chunkSize) {
+                return;
+            }
+            pause();
+        }
+    }
+
+    /**
+     * 超过时间预算或分片 0 的租约已转给其他实例时停止，剩余的由下次清理继续
+     */
+    private boolean shouldStop(long deadline) {
+        if (System.nanoTime() > deadline) {
+            lastBudgetExceeded = true;
+            log.info("清理超过时间预算 {} 分钟，剩余任务下次继续", timeBudgetMinutes);
+            return true;
+        }
+        if (!isPurgeOwner()) {
+            log.info("分片 0 的租约已转给其他实例，停止清理");
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 持有分片 0 租约的实例负责清理，同一时间只有一个实例删除和归档
+     */
+    private boolean isPurgeOwner() {
+        return syncLeaseService.getOwnedShards().contains(0);
+    }
+
+    private void pause() throws InterruptedException {
+        if (pauseMillis > 0) {
+            Thread.sleep(pauseMillis);
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("running", running.get());
+        stats.put("retentionDays", retentionDays);
+        stats.put("chunkSize", chunkSize);
+        stats.put("lastStartTime", lastStartTime);
+        stats.put("lastEndTime", lastEndTime);
+        stats.put("lastCutoff", lastCutoff);
+        stats.put("deleted", lastDeleted);
+        stats.put("historyArchived", lastHistoryArchived);
+        stats.put("chunks", lastChunks);
+        stats.put("budgetExceeded", lastBudgetExceeded);
+        stats.put("error", lastError);
+        return stats;
+    }
+}
@@ -1,34 +1,56 @@
 package com.example.print.service;
 
-import com.example.print.model.PrintClient;
+import com.example.print.model.ArchivedTask;
 import com.example.print.model.PrintHistory;
 import com.example.print.model.PrintTask;
 import com.example.print.model.PrintTaskStatus;
+import com.example.print.model.PrintTaskType;
+import com.example.print.model.TaskStatusUpdate;
 import com.example.print.repository.PrintHistoryRepository;
 import com.example.print.repository.PrintTaskRepository;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import javax.annotation.PreDestroy;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.Duration;
 import java.time.LocalDateTime;
-import java.util.List;
-import java.util.Optional;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 @Service
 @Slf4j
 public class PrintTaskService {
 
+    // 状态条件更新冲突时的最多尝试次数
+    private static final int MAX_TRANSITION_ATTEMPTS = 3;
+
+    // 卡住后需要重新分发的状态（失败的任务由重试定时处理）
+    private static final Set<PrintTaskStatus> STUCK_STATUSES =
+            EnumSet.of(PrintTaskStatus.PENDING, PrintTaskStatus.PRINTING);
+
     @Autowired
     private PrintTaskRepository taskRepository;
 
     @Autowired
-    private PrintHistoryRepository historyRepository;
+    private PrintHistoryWriter historyWriter;
 
     @Autowired
     private PrintClientService clientService;
@@ -36,6 +58,63 @@ public class PrintTaskService {
     @Autowired
     private NotificationService notificationService;
 
+    @Autowired
+    private PrintTaskContentStore contentStore;
+
+    @Autowired
+    private PendingTaskIndex pendingTaskIndex;
+
+    @Autowired
+    private TaskArchiveService archiveService;
+
+    @Autowired
+    private PrintHistoryRepository historyRepository;
+
+    @Autowired
+    private RetryTimingWheel retryTimingWheel;
+
+    @Autowired
+    private TaskAssignmentService assignmentService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Value("${print.task.max-retry:3}")
+    private int maxRetry;
+
+    @Value("${print.task.expire-minutes:30}")
+    private long expireMinutes;
+
+    @Value("${print.task.stuck-check-interval:600000}")
+    private long stuckCheckInterval;
+
+    @Value("${print.task.retry.base-delay-seconds:10}")
+    private long retryBaseDelaySeconds;
+
+    @Value("${print.task.retry.max-delay-seconds:300}")
+    private long retryMaxDelaySeconds;
+
+    @Value("${print.task.batch-status.max-size:500}")
+    private int batchStatusMaxSize;
+
+    @Value("${print.task.recovery.store-interval:200}")
+    private long recoveryStoreInterval;
+
+    @Value("${print.task.recovery.task-interval:20}")
+    private long recoveryTaskInterval;
+
+    // 卡住任务的重新分发
+    private final ScheduledExecutorService recoveryExecutor = Executors.newScheduledThreadPool(2, r -> {
+        Thread thread = new Thread(r, "stuck-task-recovery");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final AtomicLong retriesScheduled = new AtomicLong();
+    private final AtomicLong retried = new AtomicLong();
+    private final AtomicLong deadLettered = new AtomicLong();
+    private final AtomicLong expired = new AtomicLong();
+
     /**
      * 创建打印任务
      */
@@ -51,44 +130,171 @@ public class PrintTaskService {
         if (task.getStatus() == null) {
             task.setStatus(PrintTaskStatus.PENDING);
         }
+        if (task.getTaskType() == null) {
+            task.setTaskType(PrintTaskType.ORDER);
+        }
+        if (task.getPriority() == null) {
+            task.setPriority(task.getTaskType().getDefaultPriority());
+        }
 
         log.info("创建打印任务: {}, 订单号: {}", task.getTaskId(), task.getOrderNo());
-        return taskRepository.save(task);
+        String content = task.getContent();
+        PrintTask saved = taskRepository.save(task);
+
+        // 内容单独存放，返回的任务仍带内容用于推送
+        contentStore.save(saved.getTaskId(), content);
+        saved.setContent(content);
+        pendingTaskIndex.update(saved);
+
+        String taskId = saved.getTaskId();
+        LocalDateTime createTime = saved.getCreateTime();
+        TransactionCallbacks.afterCommit(() -> scheduleExpiry(taskId, createTime));
+        return saved;
     }
 
     /**
      * 检查是否已为此订单创建过打印任务
      */
     public boolean isOrderExists(int orderId) {
-        return taskRepository.countByOrderId(orderId) > 0;
+        return taskRepository.countByOrderIdAndTaskType(orderId, PrintTaskType.ORDER) > 0;
+    }
+
+    /**
+     * 查询一批订单中已创建过指定类型任务的订单ID
+     */
+    public Set<Integer> findExistingOrderIds(Collection<Integer> orderIds, PrintTaskType taskType) {
+        if (orderIds.isEmpty()) {
+            return Collections.emptySet();
+        }
+        return new HashSet<>(taskRepository.findExistingOrderIds(orderIds, taskType));
+    }
+
+    /**
+     * 查询某时间之后创建的指定类型任务的订单ID
+     */
+    public List<Integer> findOrderIdsCreatedSince(PrintTaskType taskType, LocalDateTime since) {
+        return taskRepository.findOrderIdsCreatedSince(taskType, since);
+    }
+
+    /**
+     * 检查是否已为此订单创建过退货单
+     */
+    public boolean isRefundExists(int orderId) {
+        return taskRepository.countByOrderIdAndTaskType(orderId, PrintTaskType.REFUND) > 0;
+    }
+
+    /**
+     * 启动时回填历史任务的任务类型
+     * 旧数据只能通过打印内容中的 "type":"refund" 和测试单号识别，需在打印内容迁移出旧列之前执行
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Order(Ordered.HIGHEST_PRECEDENCE)
+    @Transactional
+    public void backfillTaskType() {
+        int refund = 0;
+        if (contentStore.hasLegacyColumn()) {
+            refund = taskRepository.backfillTaskTypeByContent(PrintTaskType.REFUND.name(), "%\"type\":\"refund\"%");
+        }
+        int test = taskRepository.backfillTaskTypeByOrderNo(PrintTaskType.TEST, "TEST_%");
+        int order = taskRepository.backfillTaskType(PrintTaskType.ORDER);
+
+        if (refund + test + order > 0) {
+            log.info("回填任务类型完成: 退货单={}, 测试={}, 订单={}", refund, test, order);
+        }
+
+        // 旧任务按任务类型补上默认优先级
+        int priority = 0;
+        for (PrintTaskType taskType : PrintTaskType.values()) {
+            priority += taskRepository.backfillPriority(taskType, taskType.getDefaultPriority());
+        }
+        if (priority > 0) {
+            log.info("回填任务优先级完成: {} 个任务", priority);
+        }
     }
 
     /**
-     * 获取打印任务
+     * 获取打印任务，热表中没有时查询归档
      */
     public Optional<PrintTask> getTask(String taskId) {
-        return taskRepository.findById(taskId);
+        Optional<PrintTask> task = taskRepository.findById(taskId).map(contentStore::attach);
+        if (task.isPresent()) {
+            return task;
+        }
+        return archiveService.findByTaskId(taskId).map(ArchivedTask::getTask);
     }
 
     /**
-     * 获取待处理任务列表
+     * 按订单号查询任务，合并热表和归档（同一任务以热表为准）
+     */
+    public List<PrintTask> getTasksByOrderNo(String orderNo) {
+        List<PrintTask> tasks = contentStore.attachAll(taskRepository.findByOrderNo(orderNo));
+        Set<String> taskIds = new HashSet<>();
+        for (PrintTask task : tasks) {
+            taskIds.add(task.getTaskId());
+        }
+        for (ArchivedTask archived : archiveService.findByOrderNo(orderNo)) {
+            if (archived.getTask() != null && taskIds.add(archived.getTaskId())) {
+                tasks.add(archived.getTask());
+            }
+        }
+        tasks.sort(Comparator.comparing(PrintTask::getCreateTime, Comparator.nullsFirst(Comparator.naturalOrder())));
+        return tasks;
+    }
+
+    /**
+     * 按订单号查询打印历史，合并热表和归档
+     */
+    public List<PrintHistory> getHistoryByOrderNo(String orderNo) {
+        List<PrintHistory> histories = new ArrayList<>(historyRepository.findByOrderNo(orderNo));
+        Set<Integer> ids = new HashSet<>();
+        for (PrintHistory history : histories) {
+            ids.add(history.getId());
+        }
+        for (ArchivedTask archived : archiveService.findByOrderNo(orderNo)) {
+            for (PrintHistory history : archived.getHistory()) {
+                if (history.getId() == null || ids.add(history.getId())) {
+                    histories.add(history);
+                }
+            }
+        }
+        histories.sort(Comparator.comparing(PrintHistory::getPrintTime, Comparator.nullsFirst(Comparator.naturalOrder())));
+        return histories;
+    }
+
+    /**
+     * 获取待处理任务列表，按优先级和创建时间排序
      */
     public List<PrintTask> getPendingTasks() {
-        return taskRepository.findByStatus(PrintTaskStatus.PENDING);
+        if (pendingTaskIndex.isReady()) {
+            return pendingTaskIndex.getAllPending();
+        }
+        return inDispatchOrder(taskRepository.findByStatus(PrintTaskStatus.PENDING));
     }
 
     /**
-     * 获取商户的待处理任务
+     * 获取商户的待处理任务，按优先级和创建时间排序
      */
     public List<PrintTask> getPendingTasksByMerchant(int merchantId) {
-        return taskRepository.findByMerchantIdAndStatus(merchantId, PrintTaskStatus.PENDING);
+        if (pendingTaskIndex.isReady()) {
+            return pendingTaskIndex.getPendingByMerchant(merchantId);
+        }
+        return inDispatchOrder(taskRepository.findByMerchantIdAndStatus(merchantId, PrintTaskStatus.PENDING));
     }
 
     /**
-     * 获取店铺的待处理任务
+     * 获取店铺的待处理任务，按优先级和创建时间排序
      */
     public List<PrintTask> getPendingTasksByStore(int storeId) {
-        return taskRepository.findByStoreIdAndStatus(storeId, PrintTaskStatus.PENDING);
+        if (pendingTaskIndex.isReady()) {
+            return pendingTaskIndex.getPendingByStore(storeId);
+        }
+        return inDispatchOrder(taskRepository.findByStoreIdAndStatus(storeId, PrintTaskStatus.PENDING));
+    }
+
+    private List<PrintTask> inDispatchOrder(List<PrintTask> tasks) {
+        List<PrintTask> sorted = new ArrayList<>(contentStore.attachAll(tasks));
+        sorted.sort(PrintTask.DISPATCH_ORDER);
+        return sorted;
     }
 
 
@@ -99,88 +305,418 @@ public class PrintTaskService {
      */
     public Page<PrintTask> getTasksByMerchant(int merchantId, int page, int size) {
         Pageable pageable = PageRequest.of(page, size, Sort.by(Sort.Direction.DESC, "createTime"));
-        return taskRepository.findByMerchantIdOrderByCreateTimeDesc(merchantId, pageable);
+        Page<PrintTask> tasks = taskRepository.findByMerchantIdOrderByCreateTimeDesc(merchantId, pageable);
+        contentStore.attachAll(tasks.getContent());
+        return tasks;
     }
 
     /**
      * 更新任务状态
+     * 按状态流转表做条件更新（任务ID + 版本号 + 源状态），只有实际更新了任务才记录历史和发送通知。
+     * 优先使用内存索引中的任务快照，省去一次查询；快照过期导致更新失败时从数据库重新读取后重试
      */
     @Transactional
     public PrintTask updateTaskStatus(String taskId, PrintTaskStatus status, String clientId) {
-        Optional<PrintTask> taskOpt = taskRepository.findById(taskId);
+        PrintTask task = pendingTaskIndex.get(taskId);
+        if (task == null) {
+            task = taskRepository.findById(taskId).orElse(null);
+        }
 
-        if (!taskOpt.isPresent()) {
-            log.warn("找不到任务: {}", taskId);
-            return null;
+        for (int attempt = 0; attempt < MAX_TRANSITION_ATTEMPTS; attempt++) {
+            if (task == null) {
+                log.warn("找不到任务: {}", taskId);
+                return null;
+            }
+
+            // 只处理客户端上报的状态
+            if (status != PrintTaskStatus.COMPLETED && status != PrintTaskStatus.FAILED
+                    && status != PrintTaskStatus.PRINTING) {
+                return task;
+            }
+
+            if (!task.getStatus().canTransitionTo(status)) {
+                log.info("任务状态 {} 不能变更为 {}，忽略: {}", task.getStatus(), status, taskId);
+                return task;
+            }
+
+            if (transition(task, status)) {
+                // 客户端已接收或处理完，结束分配
+                assignmentService.acknowledge(taskId);
+
+                if (status == PrintTaskStatus.COMPLETED) {
+                    log.info("任务完成: {}, 客户端: {}", taskId, clientId);
+                    recordPrintHistory(task, clientId, "SUCCESS", null);
+                } else if (status == PrintTaskStatus.FAILED) {
+                    log.info("任务失败: {}, 客户端: {}, 失败次数: {}", taskId, clientId, task.getRetryCount());
+                    recordPrintHistory(task, clientId, "FAILED", "打印失败");
+                    retryOrDeadLetter(task);
+                } else {
+                    log.info("任务打印中: {}, 客户端: {}", taskId, clientId);
+                }
+
+                // 通知其他客户端任务状态变更
+                notificationService.notifyTaskStatusUpdate(task);
+                return task;
+            }
+
+            // 任务已被其他请求更新，读取最新状态后重试
+            task = taskRepository.findById(taskId).orElse(null);
         }
 
-        PrintTask task = taskOpt.get();
+        log.warn("任务状态更新冲突次数过多，放弃更新: {} -> {}", taskId, status);
+        return task;
+    }
 
-        // 先检查任务是否已经是完成状态，避免重复处理
-        if (task.getStatus() == PrintTaskStatus.COMPLETED && status == PrintTaskStatus.COMPLETED) {
-            log.info("任务已经是完成状态: {}", taskId);
-            return task;
+    /**
+     * 条件更新任务状态，成功时同步修改传入的任务对象并更新内存索引
+     *
+     * @return 是否实际更新了任务
+     */
+    private boolean transition(PrintTask task, PrintTaskStatus status) {
+        Set<PrintTaskStatus> sources = PrintTaskStatus.sourcesOf(status);
+        LocalDateTime now = LocalDateTime.now();
+
+        int updated;
+        switch (status) {
+            case COMPLETED:
+                updated = taskRepository.completeTask(task.getTaskId(), task.getVersion(), sources, now);
+                break;
+            case FAILED:
+                updated = taskRepository.failTask(task.getTaskId(), task.getVersion(), sources, now);
+                break;
+            case DEAD_LETTER:
+                updated = taskRepository.deadLetterTask(task.getTaskId(), task.getVersion(), sources, now);
+                break;
+            default:
+                updated = taskRepository.transitionStatus(task.getTaskId(), task.getVersion(), sources, status, now);
+                break;
         }
+        if (updated == 0) {
+            return false;
+        }
+        applyTransition(task, status, now);
+        return true;
+    }
 
-        // 只有非失败状态的任务才能标记为完成
-        if (status == PrintTaskStatus.COMPLETED && task.getStatus() != PrintTaskStatus.FAILED) {
-            log.info("任务完成: {}, 客户端: {}", taskId, clientId);
+    /**
+     * 更新成功后同步修改任务对象（与数据库中的更新保持一致）并更新内存索引
+     */
+    private void applyTransition(PrintTask task, PrintTaskStatus status, LocalDateTime now) {
+        task.setStatus(status);
+        task.setLastUpdateTime(now);
+        task.setVersion(task.getVersion() + 1);
+        if (status == PrintTaskStatus.COMPLETED) {
+            task.setPrintTime(now);
+            task.setLeaseExpireTime(null);
+        } else if (status == PrintTaskStatus.FAILED) {
+            task.setRetryCount(task.getRetryCount() + 1);
+            task.setLeaseExpireTime(null);
+        } else if (status == PrintTaskStatus.DEAD_LETTER) {
+            task.setLeaseExpireTime(null);
+        }
+        pendingTaskIndex.update(task);
+    }
 
-            task.setStatus(status);
-            task.setPrintTime(LocalDateTime.now());
-            task.setLastUpdateTime(LocalDateTime.now());
+    /**
+     * 批量更新任务状态（客户端一次上报多个打印结果）
+     * 所有状态流转在一个事务中按目标状态分组，用 JDBC 批量条件更新（任务ID + 版本号 + 源状态）；
+     * 打印历史进入批量写入队列，事务提交后每个门店只发送一条汇总的状态通知。
+     * 条件更新失败的任务不重试，结果标记为 CONFLICT，由客户端按需重新上报
+     *
+     * @return 任务ID -> 处理结果：UPDATED / IGNORED（当前状态不能变更为目标状态）/ CONFLICT / NOT_FOUND / INVALID
+     */
+    @Transactional
+    public Map<String, String> updateTaskStatuses(List<TaskStatusUpdate> updates, String clientId) {
+        if (updates.size() > batchStatusMaxSize) {
+            throw new IllegalArgumentException("单次最多上报 " + batchStatusMaxSize + " 个任务状态");
+        }
 
-            // 记录打印历史
-            recordPrintHistory(task, clientId, "SUCCESS", null);
+        // 同一任务以最后一条为准
+        Map<String, String> results = new LinkedHashMap<>();
+        Map<String, TaskStatusUpdate> requested = new LinkedHashMap<>();
+        for (TaskStatusUpdate update : updates) {
+            if (update.getTaskId() == null) {
+                continue;
+            }
+            if (parseReportedStatus(update.getStatus()) == null) {
+                results.put(update.getTaskId(), "INVALID");
+                continue;
+            }
+            requested.put(update.getTaskId(), update);
+        }
 
-            // 保存任务
-            taskRepository.save(task);
+        // 当前状态优先取内存索引，其余一次查询（复制一份，避免修改受管实体在提交时再次写库）
+        Map<String, PrintTask> tasks = new HashMap<>();
+        List<String> missing = new ArrayList<>();
+        for (String taskId : requested.keySet()) {
+            PrintTask task = pendingTaskIndex.get(taskId);
+            if (task != null) {
+                tasks.put(taskId, task);
+            } else {
+                missing.add(taskId);
+            }
+        }
+        if (!missing.isEmpty()) {
+            for (PrintTask task : taskRepository.findAllById(missing)) {
+                tasks.put(task.getTaskId(), task.toBuilder().build());
+            }
+        }
 
-            // 通知其他客户端任务状态变更
-            notificationService.notifyTaskStatusUpdate(task);
+        Map<PrintTaskStatus, List<PrintTask>> byStatus = new EnumMap<>(PrintTaskStatus.class);
+        for (TaskStatusUpdate update : requested.values()) {
+            PrintTask task = tasks.get(update.getTaskId());
+            PrintTaskStatus status = parseReportedStatus(update.getStatus());
+            if (task == null) {
+                results.put(update.getTaskId(), "NOT_FOUND");
+            } else if (!task.getStatus().canTransitionTo(status)) {
+                results.put(update.getTaskId(), "IGNORED");
+            } else {
+                byStatus.computeIfAbsent(status, k -> new ArrayList<>()).add(task);
+            }
+        }
 
-            return task;
+        LocalDateTime now = LocalDateTime.now();
+        List<PrintTask> updated = new ArrayList<>();
+        for (Map.Entry<PrintTaskStatus, List<PrintTask>> entry : byStatus.entrySet()) {
+            PrintTaskStatus status = entry.getKey();
+            List<PrintTask> group = entry.getValue();
+            boolean[] succeeded = batchTransition(group, status, now);
+            for (int i = 0; i < group.size(); i++) {
+                PrintTask task = group.get(i);
+                if (!succeeded[i]) {
+                    results.put(task.getTaskId(), "CONFLICT");
+                    continue;
+                }
+                applyTransition(task, status, now);
+                assignmentService.acknowledge(task.getTaskId());
+                if (status == PrintTaskStatus.COMPLETED) {
+                    recordPrintHistory(task, clientId, "SUCCESS", null);
+                } else if (status == PrintTaskStatus.FAILED) {
+                    String errorMessage = requested.get(task.getTaskId()).getErrorMessage();
+                    recordPrintHistory(task, clientId, "FAILED", errorMessage != null ? errorMessage : "打印失败");
+                    retryOrDeadLetter(task);
+                }
+                results.put(task.getTaskId(), "UPDATED");
+                updated.add(task);
+            }
         }
-        // 处理失败状态
-        else if (status == PrintTaskStatus.FAILED) {
-            log.info("任务失败: {}, 客户端: {}", taskId, clientId);
 
-            task.setStatus(status);
-            task.setLastUpdateTime(LocalDateTime.now());
-            task.setRetryCount(task.getRetryCount() + 1);
+        notificationService.notifyTaskStatusUpdates(updated);
+        log.info("批量更新任务状态: 客户端={}, 上报 {} 个, 更新 {} 个", clientId, updates.size(), updated.size());
+        return results;
+    }
 
-            // 记录打印历史
-            recordPrintHistory(task, clientId, "FAILED", "打印失败");
+    /**
+     * 客户端可上报的状态，其他值返回 null
+     */
+    private static PrintTaskStatus parseReportedStatus(String status) {
+        if (status == null) {
+            return null;
+        }
+        try {
+            PrintTaskStatus parsed = PrintTaskStatus.valueOf(status.trim().toUpperCase());
+            if (parsed == PrintTaskStatus.PRINTING || parsed == PrintTaskStatus.COMPLETED
+                    || parsed == PrintTaskStatus.FAILED) {
+                return parsed;
+            }
+        } catch (IllegalArgumentException e) {
+            // 无效状态
+        }
+        return null;
+    }
 
-            // 保存任务
-            taskRepository.save(task);
+    /**
+     * 一组任务流转到同一目标状态的 JDBC 批量条件更新，与单个任务的条件更新语句一致
+     *
+     * @return 每个任务是否更新成功
+     */
+    private boolean[] batchTransition(List<PrintTask> tasks, PrintTaskStatus status, LocalDateTime now) {
+        StringBuilder sources = new StringBuilder();
+        for (PrintTaskStatus source : PrintTaskStatus.sourcesOf(status)) {
+            sources.append(sources.length() > 0 ? ", " : "").append('\'').append(source.name()).append('\'');
+        }
+        String extra = "";
+        if (status == PrintTaskStatus.COMPLETED) {
+            extra = ", print_time = ?, lease_expire_time = NULL";
+        } else if (status == PrintTaskStatus.FAILED) {
+            extra = ", retry_count = retry_count + 1, lease_expire_time = NULL";
+        }
+        String sql = "UPDATE print_tasks SET status = ?, last_update_time = ?, version = version + 1" + extra +
+                " WHERE task_id = ? AND version = ? AND status IN (" + sources + ")";
+
+        Timestamp timestamp = Timestamp.valueOf(now);
+        List<Object[]> args = new ArrayList<>(tasks.size());
+        for (PrintTask task : tasks) {
+            args.add(status == PrintTaskStatus.COMPLETED
+                    ? new Object[]{status.name(), timestamp, timestamp, task.getTaskId(), task.getVersion()}
+                    : new Object[]{status.name(), timestamp, task.getTaskId(), task.getVersion()});
+        }
+        int[] counts = jdbcTemplate.batchUpdate(sql, args);
+
+        boolean[] succeeded = new boolean[tasks.size()];
+        List<Integer> unknown = new ArrayList<>();
+        for (int i = 0; i < tasks.size(); i++) {
+            if (counts[i] == Statement.SUCCESS_NO_INFO) {
+                unknown.add(i);
+            } else {
+                succeeded[i] = counts[i] > 0;
+            }
+        }
 
-            // 通知其他客户端任务状态变更
-            notificationService.notifyTaskStatusUpdate(task);
+        // 驱动未返回单条更新数时按版本号核对
+        for (int i : unknown) {
+            PrintTask task = tasks.get(i);
+            List<Long> versions = jdbcTemplate.queryForList(
+                    "SELECT version FROM print_tasks WHERE task_id = ? AND status = ?",
+                    Long.class, task.getTaskId(), status.name());
+            succeeded[i] = !versions.isEmpty() && versions.get(0) == task.getVersion() + 1;
+        }
+        return succeeded;
+    }
 
-            return task;
+    /**
+     * 失败次数未超过最大重试次数时按指数退避安排重试（事务提交后生效），否则标记为死信
+     */
+    private void retryOrDeadLetter(PrintTask task) {
+        if (task.getRetryCount() > maxRetry) {
+            if (transition(task, PrintTaskStatus.DEAD_LETTER)) {
+                deadLettered.incrementAndGet();
+                log.warn("任务失败 {} 次，超过最大重试次数，标记为死信: {}", task.getRetryCount(), task.getTaskId());
+            }
+            return;
         }
-        // 更新为打印中状态
-        else if (status == PrintTaskStatus.PRINTING) {
-            log.info("任务打印中: {}, 客户端: {}", taskId, clientId);
 
-            task.setStatus(status);
-            task.setLastUpdateTime(LocalDateTime.now());
+        long delay = retryDelaySeconds(task.getRetryCount());
+        String taskId = task.getTaskId();
+        long version = task.getVersion();
+        TransactionCallbacks.afterCommit(() -> {
+            retryTimingWheel.schedule(delay, TimeUnit.SECONDS, () -> retryFailedTask(taskId, version));
+            retriesScheduled.incrementAndGet();
+        });
+        log.info("任务 {} 将在 {} 秒后重试（第 {} 次）", taskId, delay, task.getRetryCount());
+    }
 
-            // 保存任务
-            taskRepository.save(task);
+    /**
+     * 第 n 次失败后的重试延迟：base * 2^(n-1)，不超过上限
+     */
+    private long retryDelaySeconds(int retryCount) {
+        int exponent = Math.min(Math.max(retryCount - 1, 0), 20);
+        return Math.min(retryBaseDelaySeconds << exponent, retryMaxDelaySeconds);
+    }
+
+    /**
+     * 重试定时到期：任务仍是安排重试时的失败状态（版本号未变）时重置为待打印并重新推送
+     */
+    private void retryFailedTask(String taskId, long version) {
+        try {
+            PrintTask task = taskRepository.findById(taskId).orElse(null);
+            if (task == null || task.getStatus() != PrintTaskStatus.FAILED || task.getVersion() != version) {
+                return;
+            }
+            if (task.getRetryCount() > maxRetry) {
+                // 标记死信前服务停止的任务
+                if (transition(task, PrintTaskStatus.DEAD_LETTER)) {
+                    deadLettered.incrementAndGet();
+                    notificationService.notifyTaskStatusUpdate(task);
+                }
+                return;
+            }
+            if (!transition(task, PrintTaskStatus.PENDING)) {
+                return;
+            }
+            retried.incrementAndGet();
+            log.info("重试失败的任务: {}, 已失败 {} 次", taskId, task.getRetryCount());
+            notificationService.broadcastToPrintersByStore(task.getStoreId(), contentStore.attach(task));
+        } catch (Exception e) {
+            log.error("重试任务失败: {}", taskId, e);
+        }
+    }
 
-            // 通知其他客户端任务状态变更
-            notificationService.notifyTaskStatusUpdate(task);
+    /**
+     * 安排任务在创建后 expire-minutes 过期
+     */
+    private void scheduleExpiry(String taskId, LocalDateTime createTime) {
+        LocalDateTime expireTime = (createTime != null ? createTime : LocalDateTime.now()).plusMinutes(expireMinutes);
+        long delay = Duration.between(LocalDateTime.now(), expireTime).toMillis();
+        retryTimingWheel.schedule(delay, TimeUnit.MILLISECONDS, () -> expireTask(taskId));
+    }
 
-            return task;
+    /**
+     * 过期定时到期：任务仍未完成时标记为死信并通知客户端；客户端领取的租约未到期时推迟到租约到期再检查
+     * 索引已载入且任务不在索引中时说明已完成或已失败，不再查库（失败的任务过期由定时检查批量处理）
+     */
+    private void expireTask(String taskId) {
+        try {
+            PrintTask task = pendingTaskIndex.get(taskId);
+            if (task == null) {
+                if (pendingTaskIndex.isReady()) {
+                    return;
+                }
+                task = taskRepository.findById(taskId).orElse(null);
+            }
+            for (int attempt = 0; attempt < MAX_TRANSITION_ATTEMPTS; attempt++) {
+                if (task == null || !task.getStatus().canTransitionTo(PrintTaskStatus.DEAD_LETTER)) {
+                    return;
+                }
+                LocalDateTime leaseExpireTime = task.getLeaseExpireTime();
+                LocalDateTime now = LocalDateTime.now();
+                if (leaseExpireTime != null && !leaseExpireTime.isBefore(now)) {
+                    long delay = Duration.between(now, leaseExpireTime).toMillis() + 1;
+                    retryTimingWheel.schedule(delay, TimeUnit.MILLISECONDS, () -> expireTask(taskId));
+                    return;
+                }
+                if (transition(task, PrintTaskStatus.DEAD_LETTER)) {
+                    expired.incrementAndGet();
+                    log.warn("任务超过 {} 分钟未完成，标记为死信: {}", expireMinutes, taskId);
+                    notificationService.notifyTaskStatusUpdate(task);
+                    return;
+                }
+                task = taskRepository.findById(taskId).orElse(null);
+            }
+        } catch (Exception e) {
+            log.error("任务过期处理失败: {}", taskId, e);
         }
+    }
 
-        return task;
+    /**
+     * 启动时为未完成的任务恢复过期定时，为失败的任务恢复重试定时
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void restoreTimers() {
+        List<PrintTask> tasks = taskRepository.findByStatusIn(
+                EnumSet.of(PrintTaskStatus.PENDING, PrintTaskStatus.PRINTING, PrintTaskStatus.FAILED));
+        int retries = 0;
+        for (PrintTask task : tasks) {
+            scheduleExpiry(task.getTaskId(), task.getCreateTime());
+            if (task.getStatus() == PrintTaskStatus.FAILED) {
+                String taskId = task.getTaskId();
+                long version = task.getVersion();
+                long delay = task.getRetryCount() > maxRetry ? 0 : retryDelaySeconds(task.getRetryCount());
+                retryTimingWheel.schedule(delay, TimeUnit.SECONDS, () -> retryFailedTask(taskId, version));
+                retriesScheduled.incrementAndGet();
+                retries++;
+            }
+        }
+        log.info("恢复 {} 个未完成任务的过期定时，其中 {} 个失败任务", tasks.size(), retries);
     }
 
     /**
-     * 记录打印历史
+     * 重试与过期统计
+     */
+    public Map<String, Object> getRetryStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("maxRetry", maxRetry);
+        stats.put("expireMinutes", expireMinutes);
+        stats.put("retriesScheduled", retriesScheduled.get());
+        stats.put("retried", retried.get());
+        stats.put("deadLettered", deadLettered.get());
+        stats.put("expired", expired.get());
+        stats.put("wheel", retryTimingWheel.getStats());
+        return stats;
+    }
+
+    /**
+     * 记录打印历史（事务提交后异步批量写入）
      */
     private void recordPrintHistory(PrintTask task, String clientId, String status, String errorMessage) {
         PrintHistory history = new PrintHistory();
@@ -194,67 +730,89 @@ public class PrintTaskService {
         history.setStatus(status);
         history.setErrorMessage(errorMessage);
 
-        historyRepository.save(history);
+        historyWriter.record(history);
         log.info("记录打印历史: 任务={}, 客户端={}, 状态={}", task.getTaskId(), clientId, status);
     }
 
     /**
      * 定时检查长时间未完成的任务
-     * 每10分钟执行一次
+     * 按 stuck-check-interval 执行：先把超过 expire-minutes 的任务批量标记为死信（兜底过期定时丢失的任务），
+     * 再按门店批量处理：统计各门店卡住的任务 → 一次查询有在线客户端的门店 →
+     * 一条 UPDATE 重置这些门店的任务 → 各门店错开时间重新分发，查询次数与门店数相关而与任务数无关
      */
-    @Scheduled(fixedRate = 600000)
+    @Scheduled(fixedRateString = "${print.task.stuck-check-interval:600000}")
     public void checkStuckTasks() {
         log.info("开始检查卡住的任务");
 
-        // 查找30分钟前创建但仍处于PENDING或PRINTING状态的任务
-        LocalDateTime threshold = LocalDateTime.now().minusMinutes(30);
-
-        List<PrintTask> stuckTasks = taskRepository.findStuckTasks(PrintTaskStatus.PRINTING, threshold);
-        stuckTasks.addAll(taskRepository.findStuckTasks(PrintTaskStatus.PENDING, threshold));
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime expireThreshold = now.minusMinutes(expireMinutes);
+        int expiredCount = taskRepository.expireTasks(
+                PrintTaskStatus.sourcesOf(PrintTaskStatus.DEAD_LETTER), expireThreshold, now);
+        if (expiredCount > 0) {
+            pendingTaskIndex.removeCreatedBefore(expireThreshold, now);
+            expired.addAndGet(expiredCount);
+            log.warn("{} 个任务超过 {} 分钟未完成，标记为死信", expiredCount, expireMinutes);
+        }
 
-        log.info("发现 {} 个卡住的任务", stuckTasks.size());
+        // 查找一个检查周期之前创建但仍处于PENDING或PRINTING状态的任务
+        LocalDateTime threshold = now.minus(Duration.ofMillis(stuckCheckInterval));
+        Set<PrintTaskStatus> sources = STUCK_STATUSES;
+
+        Map<Integer, Integer> stuckByStore;
+        if (pendingTaskIndex.isReady()) {
+            stuckByStore = pendingTaskIndex.countCreatedBeforeByStore(threshold);
+        } else {
+            stuckByStore = new HashMap<>();
+            for (Object[] row : taskRepository.countStuckTasksByStore(sources, threshold)) {
+                stuckByStore.put((Integer) row[0], ((Number) row[1]).intValue());
+            }
+        }
+        if (stuckByStore.isEmpty()) {
+            log.info("没有卡住的任务");
+            return;
+        }
 
-        for (PrintTask task : stuckTasks) {
-            // 检查是否有活跃的客户端可以重新打印
-            List<PrintClient> availableClients = clientService.findAvailableClientsByMerchant(Integer.valueOf(task.getMerchantId()));
+        // 只重新分发有在线客户端的门店
+        Set<Integer> storeIds = clientService.findStoresWithOnlineClients(stuckByStore.keySet());
+        log.info("发现 {} 个门店有卡住的任务，其中 {} 个门店有在线客户端", stuckByStore.size(), storeIds.size());
+        if (storeIds.isEmpty()) {
+            return;
+        }
 
-            if (!availableClients.isEmpty()) {
-                // 重置任务状态为待处理
-                task.setStatus(PrintTaskStatus.PENDING);
-                task.setLastUpdateTime(LocalDateTime.now());
-                taskRepository.save(task);
+        int reset = taskRepository.resetStuckTasks(storeIds, sources, threshold, LocalDateTime.now());
+        log.info("重置 {} 个卡住的任务为待打印", reset);
 
-                // 通知客户端重新打印
-                notificationService.broadcastToPrintersByStore(task.getStoreId(), task);
-                log.info("重新分发卡住的任务: {}", task.getTaskId());
-            }
+        int index = 0;
+        for (Integer storeId : storeIds) {
+            recoveryExecutor.schedule(() -> redistributeStuckTasks(storeId, threshold),
+                    (long) index++ * recoveryStoreInterval, TimeUnit.MILLISECONDS);
         }
     }
 
     /**
-     * 删除旧的打印任务记录
-     * 每天凌晨1点执行
+     * 重新分发门店中已重置的任务，高优先级的先发，任务之间间隔发送，避免客户端一次收到大量任务
      */
-    @Scheduled(cron = "0 0 1 * * ?")
-    @Transactional
-    public void cleanupOldTasks() {
-        log.info("开始清理旧的打印任务");
-
-        // 删除30天前的已完成任务
-        LocalDateTime threshold = LocalDateTime.now().minusDays(30);
-
-        List<PrintTask> oldTasks = taskRepository.findByCreateTimeBetween(
-                LocalDateTime.now().minusYears(1), threshold);
-
-        int count = 0;
-        for (PrintTask task : oldTasks) {
-            // 只删除已完成的任务
-            if (task.getStatus() == PrintTaskStatus.COMPLETED) {
-                taskRepository.delete(task);
-                count++;
+    private void redistributeStuckTasks(int storeId, LocalDateTime threshold) {
+        try {
+            List<PrintTask> tasks = inDispatchOrder(
+                    taskRepository.findStuckTasksByStore(storeId, PrintTaskStatus.PENDING, threshold));
+            for (PrintTask task : tasks) {
+                pendingTaskIndex.update(task);
+                notificationService.broadcastToPrintersByStore(storeId, task);
+                if (recoveryTaskInterval > 0) {
+                    Thread.sleep(recoveryTaskInterval);
+                }
             }
+            log.info("门店 {} 重新分发 {} 个卡住的任务", storeId, tasks.size());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            log.error("门店 {} 重新分发卡住的任务失败", storeId, e);
         }
+    }
 
-        log.info("清理了 {} 个旧的打印任务", count);
+    @PreDestroy
+    public void shutdown() {
+        recoveryExecutor.shutdownNow();
     }
 }
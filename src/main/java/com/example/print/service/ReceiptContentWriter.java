@@ -0,0 +1,403 @@
+package com.example.print.service;
+
+import com.example.print.model.mall.*;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.io.CharArrayWriter;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+
+/**
+ * 小票内容生成
+ * 用 JsonGenerator 直接写入线程内复用的缓冲区，不再构建 HashMap 树；
+ * 字段顺序与原先 HashMap 序列化的顺序一致，输出逐字节兼容
+ */
+@Component
+public class ReceiptContentWriter {
+
+    // 以下字段顺序即原 HashMap 的迭代顺序，增删字段时需按新的键集合重新确定，并由 ReceiptContentWriterTest 与原实现逐字节比对
+    private static final String[] ORDER_FIELDS_ONLINE = {
+            "payTime", "goods_price", "user_name", "user_address", "goodsItems", "remark", "delivery_time", "type",
+            "pay_money", "delivery_fee", "customerPhone", "orderTime", "pickup_type", "day_index", "bill_type",
+            "user_phone", "pay_type", "pack_fee", "orderNo", "show_schedule_time", "user_delivery_fee", "merchant",
+            "all_money", "pay_real", "customer"
+    };
+
+    private static final String[] ORDER_FIELDS_OFFLINE_WITH_USER = {
+            "pack_fee", "orderNo", "payTime", "goods_price", "user_address", "user_delivery_fee", "goodsItems",
+            "merchant", "delivery_time", "type", "pay_money", "delivery_fee", "customerPhone", "orderTime",
+            "day_index", "pay_type", "all_money", "pay_real", "customer"
+    };
+
+    private static final String[] ORDER_FIELDS_OFFLINE = {
+            "pack_fee", "orderNo", "payTime", "goods_price", "user_delivery_fee", "goodsItems", "merchant",
+            "delivery_time", "type", "pay_money", "delivery_fee", "customerPhone", "orderTime", "day_index",
+            "pay_type", "all_money", "pay_real", "customer"
+    };
+
+    private static final String[] ORDER_ITEM_FIELDS = {
+            "goods_name", "sell_subtotal", "sell_price", "is_food", "goods_code", "spec_text", "sell_num"
+    };
+
+    private static final String[] REFUND_FIELDS = {
+            "orderNo", "originalPayTime", "refundTime", "goodsItems", "merchant", "pay_type", "totalRefundAmount", "type"
+    };
+
+    private static final String[] REFUND_ITEM_FIELDS = {
+            "goods_name", "is_food", "goods_code", "spec_text", "refund_money", "sell_num"
+    };
+
+    private static final String DEFAULT_MERCHANT = "指尖赤壁";
+
+    // 超过该大小的缓冲区用完后不再保留
+    private static final int MAX_RETAINED_BUFFER = 64 * 1024;
+
+    private static final DateTimeFormatter TIME_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static final DateTimeFormatter REFUND_TIME_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH-mm-ss");
+
+    private final ThreadLocal<CharArrayWriter> buffers = ThreadLocal.withInitial(() -> new CharArrayWriter(2048));
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private JsonFactory jsonFactory;
+
+    @PostConstruct
+    public void init() {
+        // 使用 ObjectMapper 的工厂，生成器特性与原 writeValueAsString 保持一致
+        jsonFactory = objectMapper.getFactory();
+    }
+
+    /**
+     * 生成订单小票内容
+     */
+    public String writeOrder(MallOrder order, OrderBatchLoader.OrderBatch batch) throws IOException {
+        List<MallOrderItem> orderItems = batch.getOrderItems(order.getId());
+        MallUser userInfo = batch.getUser(order.getUid());
+        MallStore storeInfo = batch.getStore(order.getStoreId(), order.getMerchantId());
+
+        // 线上订单信息（如果是线上订单），1线上 2线下
+        MallOnlineOrder onlineInfo = order.getType() == 1 ? batch.getOnlineInfo(order.getId()) : null;
+
+        // 单据类型：配送单 / 预约单 / 自提单
+        String billType = null;
+        boolean showScheduleTime = false;
+        String userAddress = null;
+        String[] fields;
+        if (onlineInfo != null) {
+            int pickupType = onlineInfo.getPickupType();
+            if (pickupType == 0) {
+                Integer sendType = onlineInfo.getSendType();
+                if (sendType != null && sendType == 1) {
+                    billType = "预约单";
+                    showScheduleTime = true;
+                } else {
+                    billType = "配送单";
+                }
+            } else if (pickupType == 1) {
+                billType = "自提单";
+                showScheduleTime = true; // 自提单也显示自提时间
+            } else {
+                billType = "配送单";
+            }
+            userAddress = onlineInfo.getUserAddress();
+            fields = ORDER_FIELDS_ONLINE;
+        } else if (userInfo != null) {
+            fields = ORDER_FIELDS_OFFLINE_WITH_USER;
+        } else {
+            fields = ORDER_FIELDS_OFFLINE;
+        }
+        // 没有线上订单地址信息时使用用户基本地址
+        if (userAddress == null && userInfo != null) {
+            userAddress = userInfo.getAddress();
+        }
+
+        CharArrayWriter buffer = acquireBuffer();
+        try (JsonGenerator gen = jsonFactory.createGenerator(buffer)) {
+            gen.writeStartObject();
+            for (String field : fields) {
+                switch (field) {
+                    case "orderNo":
+                        gen.writeStringField(field, order.getOrderNo());
+                        break;
+                    case "merchant":
+                        gen.writeStringField(field, storeInfo != null ? storeInfo.getName() : DEFAULT_MERCHANT);
+                        break;
+                    case "day_index":
+                        gen.writeStringField(field, batch.getDayIndex(order.getId()));
+                        break;
+                    case "payTime":
+                        writeLongField(gen, field, order.getPayTime());
+                        break;
+                    case "orderTime":
+                        gen.writeStringField(field, formatTimestamp(order.getPayTime()));
+                        break;
+                    case "type":
+                        gen.writeNumberField(field, order.getType());
+                        break;
+                    case "pay_type":
+                        gen.writeNumberField(field, order.getPayType());
+                        break;
+                    case "goods_price":
+                        gen.writeNumberField(field, order.getGoodsPrice());
+                        break;
+                    case "pay_money":
+                        gen.writeNumberField(field, order.getPayMoney());
+                        break;
+                    case "delivery_fee":
+                        gen.writeNumberField(field, order.getDeliveryFee());
+                        break;
+                    case "pay_real":
+                        writeDecimalField(gen, field, order.getPayReal());
+                        break;
+                    case "all_money":
+                        writeDecimalField(gen, field, order.getAllMoney());
+                        break;
+                    case "user_delivery_fee":
+                        writeDecimalField(gen, field, order.getUserDeliveryFee());
+                        break;
+                    case "goodsItems":
+                        gen.writeFieldName(field);
+                        writeOrderItems(gen, orderItems);
+                        break;
+                    case "pickup_type":
+                        gen.writeNumberField(field, onlineInfo.getPickupType());
+                        break;
+                    case "bill_type":
+                        gen.writeStringField(field, billType);
+                        break;
+                    case "show_schedule_time":
+                        gen.writeBooleanField(field, showScheduleTime);
+                        break;
+                    case "user_name":
+                        gen.writeStringField(field, onlineInfo.getUserName());
+                        break;
+                    case "user_phone":
+                        gen.writeStringField(field, onlineInfo.getUserPhone());
+                        break;
+                    case "user_address":
+                        gen.writeStringField(field, userAddress);
+                        break;
+                    case "remark":
+                        gen.writeStringField(field, onlineInfo.getRemark());
+                        break;
+                    case "delivery_time":
+                        gen.writeStringField(field, formatTimestamp(onlineInfo != null ? onlineInfo.getUserSelectTime() : null));
+                        break;
+                    case "pack_fee":
+                        gen.writeNumberField(field, order.getPackFee());
+                        break;
+                    case "customer":
+                        gen.writeStringField(field, userInfo != null ? userInfo.getNickname() : "未知用户");
+                        break;
+                    case "customerPhone":
+                        gen.writeStringField(field, userInfo != null ? userInfo.getMobile() : "");
+                        break;
+                    default:
+                        throw new IllegalStateException("未知的小票字段: " + field);
+                }
+            }
+            gen.writeEndObject();
+        }
+        return releaseBuffer(buffer);
+    }
+
+    private void writeOrderItems(JsonGenerator gen, List<MallOrderItem> items) throws IOException {
+        gen.writeStartArray();
+        for (MallOrderItem item : items) {
+            gen.writeStartObject();
+            for (String field : ORDER_ITEM_FIELDS) {
+                switch (field) {
+                    case "goods_name":
+                        gen.writeStringField(field, item.getGoodsName());
+                        break;
+                    case "goods_code":
+                        gen.writeStringField(field, item.getGoodsCode());
+                        break;
+                    case "sell_num":
+                        // 销售数量转为整数
+                        gen.writeNumberField(field, (int) item.getSellNum());
+                        break;
+                    case "sell_price":
+                        gen.writeNumberField(field, item.getSellPrice());
+                        break;
+                    case "sell_subtotal":
+                        gen.writeNumberField(field, item.getSellNum() * item.getSellPrice());
+                        break;
+                    case "is_food":
+                        gen.writeBooleanField(field, item.isFood());
+                        break;
+                    case "spec_text":
+                        // 只有餐饮商品有规格信息
+                        if (item.isFood()) {
+                            gen.writeStringField(field, formatSpecsText(item.getSpecs()));
+                        }
+                        break;
+                    default:
+                        throw new IllegalStateException("未知的商品字段: " + field);
+                }
+            }
+            gen.writeEndObject();
+        }
+        gen.writeEndArray();
+    }
+
+    /**
+     * 生成退货单内容
+     *
+     * @throws IllegalStateException 订单没有退款成功的商品
+     */
+    public String writeRefund(MallOrder order, OrderBatchLoader.OrderBatch batch) throws IOException {
+        // 该订单下所有的退款成功的商品
+        List<MallOrderItem> refundItems = batch.getOrderItems(order.getId());
+        if (refundItems.isEmpty()) {
+            throw new IllegalStateException("没有找到退款商品");
+        }
+
+        MallStore storeInfo = batch.getStore(order.getStoreId(), order.getMerchantId());
+
+        CharArrayWriter buffer = acquireBuffer();
+        try (JsonGenerator gen = jsonFactory.createGenerator(buffer)) {
+            gen.writeStartObject();
+            for (String field : REFUND_FIELDS) {
+                switch (field) {
+                    case "type":
+                        gen.writeStringField(field, "refund");
+                        break;
+                    case "orderNo":
+                        gen.writeStringField(field, order.getOrderNo());
+                        break;
+                    case "merchant":
+                        gen.writeStringField(field, storeInfo != null ? storeInfo.getName() : DEFAULT_MERCHANT);
+                        break;
+                    case "refundTime":
+                        // 退款时间（使用当前时间）
+                        gen.writeStringField(field, LocalDateTime.now().format(REFUND_TIME_FORMATTER));
+                        break;
+                    case "originalPayTime":
+                        gen.writeStringField(field, formatTimestamp(order.getPayTime()));
+                        break;
+                    case "goodsItems":
+                        gen.writeFieldName(field);
+                        writeRefundItems(gen, refundItems);
+                        break;
+                    case "totalRefundAmount":
+                        double totalRefundAmount = 0.0;
+                        for (MallOrderItem item : refundItems) {
+                            totalRefundAmount += item.getRefundMoney();
+                        }
+                        gen.writeNumberField(field, -totalRefundAmount);
+                        break;
+                    case "pay_type":
+                        gen.writeNumberField(field, order.getPayType());
+                        break;
+                    default:
+                        throw new IllegalStateException("未知的退货单字段: " + field);
+                }
+            }
+            gen.writeEndObject();
+        }
+        return releaseBuffer(buffer);
+    }
+
+    private void writeRefundItems(JsonGenerator gen, List<MallOrderItem> items) throws IOException {
+        gen.writeStartArray();
+        for (MallOrderItem item : items) {
+            gen.writeStartObject();
+            for (String field : REFUND_ITEM_FIELDS) {
+                switch (field) {
+                    case "goods_name":
+                        gen.writeStringField(field, item.getGoodsName());
+                        break;
+                    case "goods_code":
+                        gen.writeStringField(field, item.getGoodsCode());
+                        break;
+                    case "sell_num":
+                        gen.writeNumberField(field, -item.getSellNum());
+                        break;
+                    case "refund_money":
+                        gen.writeNumberField(field, -item.getRefundMoney());
+                        break;
+                    case "is_food":
+                        gen.writeBooleanField(field, item.isFood());
+                        break;
+                    case "spec_text":
+                        if (item.isFood()) {
+                            gen.writeStringField(field, formatSpecsText(item.getSpecs()));
+                        }
+                        break;
+                    default:
+                        throw new IllegalStateException("未知的商品字段: " + field);
+                }
+            }
+            gen.writeEndObject();
+        }
+        gen.writeEndArray();
+    }
+
+    private static void writeLongField(JsonGenerator gen, String field, Long value) throws IOException {
+        if (value == null) {
+            gen.writeNullField(field);
+        } else {
+            gen.writeNumberField(field, value);
+        }
+    }
+
+    private static void writeDecimalField(JsonGenerator gen, String field, BigDecimal value) throws IOException {
+        if (value == null) {
+            gen.writeNullField(field);
+        } else {
+            gen.writeNumberField(field, value);
+        }
+    }
+
+    private CharArrayWriter acquireBuffer() {
+        CharArrayWriter buffer = buffers.get();
+        buffer.reset();
+        return buffer;
+    }
+
+    private String releaseBuffer(CharArrayWriter buffer) {
+        String content = buffer.toString();
+        if (buffer.size() > MAX_RETAINED_BUFFER) {
+            buffers.remove();
+        }
+        return content;
+    }
+
+    /**
+     * 格式化规格信息为打印文本
+     * 将 [醋, 大份] 转换为 "{醋，大份}"
+     */
+    private static String formatSpecsText(List<String> specs) {
+        if (specs == null || specs.isEmpty()) {
+            return "";
+        }
+        return "{" + String.join("，", specs) + "}";
+    }
+
+    /**
+     * 格式化Unix时间戳
+     */
+    static String formatTimestamp(Long timestamp) {
+        if (timestamp == null || timestamp == 0) {
+            return "";
+        }
+
+        LocalDateTime dateTime = LocalDateTime.ofInstant(
+                Instant.ofEpochSecond(timestamp),
+                ZoneId.systemDefault());
+
+        return dateTime.format(TIME_FORMATTER);
+    }
+}
@@ -0,0 +1,340 @@
+package com.example.print.service;
+
+import com.example.print.model.PrintClient;
+import com.example.print.model.PrintTask;
+import com.example.print.model.PrintTaskType;
+import com.example.print.model.ReceiptTemplate;
+import com.example.print.repository.PrintClientRepository;
+import com.example.print.repository.ReceiptTemplateRepository;
+import com.example.print.service.escpos.EscPosImage;
+import com.example.print.service.escpos.EscPosTemplate;
+import com.example.print.service.escpos.EscPosWriter;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StreamUtils;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 服务端小票渲染
+ * 按门店模板把打印数据编译为 ESC/POS 字节流；编译后的模板、标题、Logo 按门店缓存。
+ * 只有门店存在声明了 ESCPOS 能力的在线客户端时才渲染，其余客户端继续使用 JSON 内容
+ */
+@Service
+@Slf4j
+public class ReceiptRenderService {
+
+    public static final String CAPABILITY_ESCPOS = "ESCPOS";
+
+    // 默认模板的门店ID
+    public static final int DEFAULT_STORE_ID = 0;
+
+    @Autowired
+    private ReceiptTemplateRepository templateRepository;
+
+    @Autowired
+    private PrintClientRepository clientRepository;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Value("${print.render.enabled:false}")
+    private boolean enabled;
+
+    @Value("${print.render.charset:GBK}")
+    private String charsetName;
+
+    @Value("${print.render.paper-width:32}")
+    private int defaultPaperWidth;
+
+    @Value("${print.render.logo-max-width:384}")
+    private int logoMaxWidth;
+
+    @Value("${print.render.template-cache-seconds:300}")
+    private int templateCacheSeconds;
+
+    @Value("${print.render.capability-cache-seconds:30}")
+    private int capabilityCacheSeconds;
+
+    private Charset charset;
+
+    // 内置默认模板（classpath），数据库中没有模板时使用
+    private final Map<PrintTaskType, EscPosTemplate> builtinTemplates = new EnumMap<>(PrintTaskType.class);
+
+    // 门店编译后的模板，键为 门店ID:模板类型
+    private final Map<String, CompiledTemplate> templates = new ConcurrentHashMap<>();
+
+    // 门店是否有支持 ESC/POS 的在线客户端
+    private final Map<Integer, CapabilityEntry> storeCapabilities = new ConcurrentHashMap<>();
+
+    private final AtomicLong rendered = new AtomicLong();
+    private final AtomicLong renderFailures = new AtomicLong();
+    private final AtomicLong templateCompiles = new AtomicLong();
+
+    @PostConstruct
+    public void init() throws IOException {
+        charset = Charset.forName(charsetName);
+        builtinTemplates.put(PrintTaskType.ORDER, EscPosTemplate.compile(readResource("receipt-templates/order.tpl")));
+        builtinTemplates.put(PrintTaskType.REFUND, EscPosTemplate.compile(readResource("receipt-templates/refund.tpl")));
+        log.info("服务端小票渲染{}，字符集: {}", enabled ? "已启用" : "未启用", charset);
+    }
+
+    /**
+     * 门店有支持 ESC/POS 的客户端时，为任务附带渲染结果
+     * 渲染失败只记录日志，客户端仍可使用 JSON 内容
+     */
+    public void attachRendered(PrintTask task) {
+        if (!enabled || task.getStoreId() == null || task.getEscposContent() != null) {
+            return;
+        }
+        if (!storeSupportsEscPos(task.getStoreId())) {
+            return;
+        }
+        try {
+            task.setEscposContent(Base64.getEncoder().encodeToString(render(task)));
+        } catch (Exception e) {
+            renderFailures.incrementAndGet();
+            log.error("渲染任务 {} 的 ESC/POS 数据失败", task.getTaskId(), e);
+        }
+    }
+
+    /**
+     * 渲染任务的 ESC/POS 数据
+     */
+    public byte[] render(PrintTask task) throws IOException {
+        PrintTaskType type = task.getTaskType() != null ? task.getTaskType() : PrintTaskType.ORDER;
+        int storeId = task.getStoreId() != null ? task.getStoreId() : DEFAULT_STORE_ID;
+        String content = task.getContent() != null ? task.getContent() : "";
+
+        byte[] bytes;
+        if (type == PrintTaskType.TEST || !content.trim().startsWith("{")) {
+            // 测试任务等纯文本内容按行输出
+            bytes = renderPlainText(content, storeId, type);
+        } else {
+            bytes = render(storeId, type, objectMapper.readTree(content));
+        }
+        rendered.incrementAndGet();
+        return bytes;
+    }
+
+    /**
+     * 按门店模板渲染打印数据
+     */
+    public byte[] render(int storeId, PrintTaskType type, JsonNode data) {
+        CompiledTemplate compiled = getTemplate(storeId, type);
+        EscPosWriter writer = new EscPosWriter(charset, compiled.paperWidth, 1024);
+        writer.init();
+        compiled.template.render(data, writer, compiled.header, compiled.logo);
+        return writer.toByteArray();
+    }
+
+    private byte[] renderPlainText(String content, int storeId, PrintTaskType type) {
+        CompiledTemplate compiled = getTemplate(storeId, type);
+        EscPosWriter writer = new EscPosWriter(charset, compiled.paperWidth, 256);
+        writer.init();
+        for (String line : content.split("\r?\n")) {
+            writer.line(line);
+        }
+        writer.feed(3).cut();
+        return writer.toByteArray();
+    }
+
+    /**
+     * 编译并校验模板，供保存前检查
+     *
+     * @throws IllegalArgumentException 模板语法错误
+     */
+    public void validate(ReceiptTemplate template) throws IOException {
+        EscPosTemplate.compile(template.getContent());
+        if (template.getLogo() != null && template.getLogo().length > 0) {
+            EscPosImage.toRaster(template.getLogo(), logoMaxWidth);
+        }
+    }
+
+    /**
+     * 模板变更后清除门店缓存
+     */
+    public void invalidateTemplates(int storeId) {
+        if (storeId == DEFAULT_STORE_ID) {
+            // 默认模板被所有没有自定义模板的门店使用
+            templates.clear();
+        } else {
+            templates.keySet().removeIf(key -> key.startsWith(storeId + ":"));
+        }
+    }
+
+    /**
+     * 客户端注册后重新判断门店能力
+     */
+    public void invalidateCapabilities(Integer storeId) {
+        if (storeId != null) {
+            storeCapabilities.remove(storeId);
+        }
+    }
+
+    private boolean storeSupportsEscPos(int storeId) {
+        long now = System.currentTimeMillis();
+        CapabilityEntry entry = storeCapabilities.get(storeId);
+        if (entry != null && entry.expireAt > now) {
+            return entry.supported;
+        }
+
+        boolean supported = false;
+        for (PrintClient client : clientRepository.findByStoreIdAndOnlineTrue(storeId)) {
+            if (hasCapability(client, CAPABILITY_ESCPOS)) {
+                supported = true;
+                break;
+            }
+        }
+        storeCapabilities.put(storeId, new CapabilityEntry(supported,
+                now + TimeUnit.SECONDS.toMillis(capabilityCacheSeconds)));
+        return supported;
+    }
+
+    static boolean hasCapability(PrintClient client, String capability) {
+        if (client.getCapabilities() == null) {
+            return false;
+        }
+        for (String item : client.getCapabilities().split(",")) {
+            if (capability.equalsIgnoreCase(item.trim())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private CompiledTemplate getTemplate(int storeId, PrintTaskType type) {
+        String key = storeId + ":" + type;
+        long now = System.currentTimeMillis();
+        CompiledTemplate compiled = templates.get(key);
+        if (compiled != null && compiled.expireAt > now) {
+            return compiled;
+        }
+
+        compiled = compile(storeId, type, now + TimeUnit.SECONDS.toMillis(templateCacheSeconds));
+        templates.put(key, compiled);
+        return compiled;
+    }
+
+    /**
+     * 依次使用门店模板、默认模板、内置模板；标题和 Logo 取门店模板的，没有时取默认模板的
+     */
+    private CompiledTemplate compile(int storeId, PrintTaskType type, long expireAt) {
+        ReceiptTemplate storeTemplate = storeId != DEFAULT_STORE_ID
+                ? templateRepository.findByStoreIdAndTemplateType(storeId, type).orElse(null) : null;
+        ReceiptTemplate defaultTemplate = templateRepository.findByStoreIdAndTemplateType(DEFAULT_STORE_ID, type).orElse(null);
+        ReceiptTemplate source = storeTemplate != null ? storeTemplate : defaultTemplate;
+
+        EscPosTemplate template = null;
+        if (source != null) {
+            try {
+                template = EscPosTemplate.compile(source.getContent());
+            } catch (IllegalArgumentException e) {
+                log.error("门店 {} 的{}模板有误，使用内置模板: {}", storeId, type.getDescription(), e.getMessage());
+            }
+        }
+        if (template == null) {
+            template = builtinTemplates.getOrDefault(type, builtinTemplates.get(PrintTaskType.ORDER));
+        }
+
+        int paperWidth = source != null && source.getPaperWidth() != null ? source.getPaperWidth() : defaultPaperWidth;
+        byte[] header = compileHeader(source, paperWidth);
+        byte[] logo = compileLogo(storeTemplate, defaultTemplate, storeId);
+
+        templateCompiles.incrementAndGet();
+        log.debug("编译门店 {} 的{}模板", storeId, type.getDescription());
+        return new CompiledTemplate(template, header, logo, paperWidth, expireAt);
+    }
+
+    private byte[] compileHeader(ReceiptTemplate source, int paperWidth) {
+        if (source == null || source.getHeaderText() == null || source.getHeaderText().trim().isEmpty()) {
+            return null;
+        }
+        EscPosWriter writer = new EscPosWriter(charset, paperWidth, 128);
+        writer.align(EscPosWriter.Align.CENTER).bold(true).size(2, 2);
+        for (String line : source.getHeaderText().split("\r?\n")) {
+            writer.line(line.trim());
+        }
+        writer.size(1, 1).bold(false).align(EscPosWriter.Align.LEFT);
+        return writer.toByteArray();
+    }
+
+    private byte[] compileLogo(ReceiptTemplate storeTemplate, ReceiptTemplate defaultTemplate, int storeId) {
+        byte[] image = storeTemplate != null && storeTemplate.getLogo() != null && storeTemplate.getLogo().length > 0
+                ? storeTemplate.getLogo()
+                : defaultTemplate != null ? defaultTemplate.getLogo() : null;
+        if (image == null || image.length == 0) {
+            return null;
+        }
+        try {
+            byte[] raster = EscPosImage.toRaster(image, logoMaxWidth);
+            // 恢复左对齐
+            byte[] result = Arrays.copyOf(raster, raster.length + 3);
+            result[raster.length] = 0x1B;
+            result[raster.length + 1] = 'a';
+            result[raster.length + 2] = 0;
+            return result;
+        } catch (IOException e) {
+            log.error("门店 {} 的 Logo 无法转换: {}", storeId, e.getMessage());
+            return null;
+        }
+    }
+
+    private static String readResource(String path) throws IOException {
+        try (InputStream in = new ClassPathResource(path).getInputStream()) {
+            return StreamUtils.copyToString(in, StandardCharsets.UTF_8);
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("cachedTemplates", templates.size());
+        stats.put("templateCompiles", templateCompiles.get());
+        stats.put("rendered", rendered.get());
+        stats.put("renderFailures", renderFailures.get());
+        return stats;
+    }
+
+    /**
+     * 编译后的门店模板
+     */
+    private static class CompiledTemplate {
+        private final EscPosTemplate template;
+        private final byte[] header;
+        private final byte[] logo;
+        private final int paperWidth;
+        private final long expireAt;
+
+        CompiledTemplate(EscPosTemplate template, byte[] header, byte[] logo, int paperWidth, long expireAt) {
+            this.template = template;
+            this.header = header;
+            this.logo = logo;
+            this.paperWidth = paperWidth;
+            this.expireAt = expireAt;
+        }
+    }
+
+    private static class CapabilityEntry {
+        private final boolean supported;
+        private final long expireAt;
+
+        CapabilityEntry(boolean supported, long expireAt) {
+            this.supported = supported;
+            this.expireAt = expireAt;
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.example.print.service;
+
+import com.example.print.model.PrintTaskType;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 近期已处理订单的布隆过滤器
+ * 判断为"不存在"的订单一定没有被本实例记录过，同步时可以跳过查重查询，
+ * 由 print_tasks 的唯一键兜底；判断为"可能存在"时再查询数据库确认。
+ * 使用两代过滤器轮换，保证至少覆盖一个轮换周期（默认等于同步时间窗口）内的订单
+ */
+@Component
+@Slf4j
+public class RecentOrderFilter {
+
+    @Value("${print.order.dedup.expected-orders:200000}")
+    private int expectedOrders;
+
+    @Value("${print.order.dedup.false-positive-rate:0.01}")
+    private double falsePositiveRate;
+
+    @Value("${print.order.dedup.rotate-hours:${print.order.sync.time-limit-hours:24}}")
+    private int rotateHours;
+
+    @Autowired
+    private PrintTaskService printTaskService;
+
+    private int numBits;
+    private int numHashes;
+
+    private volatile AtomicLongArray current;
+    private volatile AtomicLongArray previous;
+    private volatile long rotateAt;
+
+    // 载入完成前无法判断"不存在"，全部按"可能存在"处理
+    private volatile boolean seeded;
+
+    @PostConstruct
+    public void init() {
+        // m = -n·ln(p) / (ln2)^2, k = m/n·ln2
+        double bits = -expectedOrders * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2));
+        numBits = (int) Math.max(64, Math.min(Integer.MAX_VALUE - 64, bits));
+        numHashes = Math.max(1, (int) Math.round((double) numBits / expectedOrders * Math.log(2)));
+
+        current = new AtomicLongArray((numBits + 63) / 64);
+        previous = new AtomicLongArray((numBits + 63) / 64);
+        rotateAt = System.currentTimeMillis() + TimeUnit.HOURS.toMillis(rotateHours);
+        log.info("初始化订单布隆过滤器，位数: {}, 哈希次数: {}", numBits, numHashes);
+    }
+
+    /**
+     * 启动时载入同步时间窗口内已创建任务的订单
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void seed() {
+        try {
+            List<Integer> orderIds = printTaskService.findOrderIdsCreatedSince(
+                    PrintTaskType.ORDER, LocalDateTime.now().minusHours(rotateHours));
+            for (Integer orderId : orderIds) {
+                if (orderId != null) {
+                    put(orderId);
+                }
+            }
+            seeded = true;
+            log.info("订单布隆过滤器已载入 {} 个订单", orderIds.size());
+        } catch (Exception e) {
+            // 载入失败时过滤器不生效，查重仍走数据库
+            log.error("载入订单布隆过滤器失败", e);
+        }
+    }
+
+    /**
+     * 记录订单
+     */
+    public void put(int orderId) {
+        rotateIfNeeded();
+        AtomicLongArray bits = current;
+        long hash = mix(orderId);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 1; i <= numHashes; i++) {
+            int index = ((h1 + i * h2) & Integer.MAX_VALUE) % numBits;
+            setBit(bits, index);
+        }
+    }
+
+    /**
+     * 订单是否可能已记录，返回 false 表示一定未记录
+     */
+    public boolean mightContain(int orderId) {
+        if (!seeded) {
+            return true;
+        }
+        rotateIfNeeded();
+        return contains(current, orderId) || contains(previous, orderId);
+    }
+
+    private boolean contains(AtomicLongArray bits, int orderId) {
+        long hash = mix(orderId);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 1; i <= numHashes; i++) {
+            int index = ((h1 + i * h2) & Integer.MAX_VALUE) % numBits;
+            if ((bits.get(index >>> 6) & (1L << index)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void setBit(AtomicLongArray bits, int index) {
+        int word = index >>> 6;
+        long mask = 1L << index;
+        long old;
+        do {
+            old = bits.get(word);
+            if ((old & mask) != 0) {
+                return;
+            }
+        } while (!bits.compareAndSet(word, old, old | mask));
+    }
+
+    private void rotateIfNeeded() {
+        long now = System.currentTimeMillis();
+        if (now < rotateAt) {
+            return;
+        }
+        synchronized (this) {
+            if (now < rotateAt) {
+                return;
+            }
+            previous = current;
+            current = new AtomicLongArray(previous.length());
+            rotateAt = now + TimeUnit.HOURS.toMillis(rotateHours);
+            log.info("订单布隆过滤器轮换");
+        }
+    }
+
+    /**
+     * 64位混合哈希（SplitMix64）
+     */
+    private static long mix(int value) {
+        long z = value * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
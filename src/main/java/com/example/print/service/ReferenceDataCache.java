@@ -0,0 +1,186 @@
+package com.example.print.service;
+
+import com.example.print.model.mall.MallStore;
+import com.example.print.model.mall.MallUser;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 小票渲染用的基础数据缓存：店铺、用户、商品类型标记
+ * 这些数据在订单之间几乎不变，命中后同步流程不再访问商城库
+ */
+@Component
+@Slf4j
+public class ReferenceDataCache {
+
+    @Value("${print.cache.reference.max-size:2000}")
+    private int maxSize;
+
+    @Value("${print.cache.reference.ttl-minutes:10}")
+    private int ttlMinutes;
+
+    private LruTtlCache<Integer, MallStore> stores;
+    private LruTtlCache<Integer, MallUser> users;
+    private LruTtlCache<Integer, GoodsFlags> goodsFlags;
+
+    @PostConstruct
+    public void init() {
+        long ttlMillis = TimeUnit.MINUTES.toMillis(ttlMinutes);
+        stores = new LruTtlCache<>(maxSize, ttlMillis);
+        users = new LruTtlCache<>(maxSize, ttlMillis);
+        goodsFlags = new LruTtlCache<>(maxSize, ttlMillis);
+        log.info("初始化基础数据缓存，容量: {}, 过期时间: {}分钟", maxSize, ttlMinutes);
+    }
+
+    public LruTtlCache<Integer, MallStore> stores() {
+        return stores;
+    }
+
+    public LruTtlCache<Integer, MallUser> users() {
+        return users;
+    }
+
+    public LruTtlCache<Integer, GoodsFlags> goodsFlags() {
+        return goodsFlags;
+    }
+
+    /**
+     * 缓存统计信息
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("stores", stores.getStats());
+        stats.put("users", users.getStats());
+        stats.put("goodsFlags", goodsFlags.getStats());
+        return stats;
+    }
+
+    /**
+     * 商品类型标记（tp_retail_goods.is_takeout / is_package）
+     */
+    public static class GoodsFlags {
+
+        private final int isTakeout;
+        private final int isPackage;
+
+        public GoodsFlags(int isTakeout, int isPackage) {
+            this.isTakeout = isTakeout;
+            this.isPackage = isPackage;
+        }
+
+        public int getIsTakeout() {
+            return isTakeout;
+        }
+
+        public int getIsPackage() {
+            return isPackage;
+        }
+    }
+
+    /**
+     * 有容量上限的 LRU 缓存，条目写入后超过 TTL 即失效
+     */
+    public static class LruTtlCache<K, V> {
+
+        private final int maxSize;
+        private final long ttlMillis;
+        private final LinkedHashMap<K, Entry<V>> entries;
+
+        private final AtomicLong hits = new AtomicLong();
+        private final AtomicLong misses = new AtomicLong();
+        private final AtomicLong evictions = new AtomicLong();
+
+        LruTtlCache(int maxSize, long ttlMillis) {
+            this.maxSize = maxSize;
+            this.ttlMillis = ttlMillis;
+            // accessOrder=true，按访问顺序淘汰
+            this.entries = new LinkedHashMap<K, Entry<V>>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+                    if (size() > LruTtlCache.this.maxSize) {
+                        evictions.incrementAndGet();
+                        return true;
+                    }
+                    return false;
+                }
+            };
+        }
+
+        /**
+         * 读取缓存，不存在或已过期返回 null
+         */
+        public synchronized V get(K key) {
+            Entry<V> entry = entries.get(key);
+            if (entry == null) {
+                misses.incrementAndGet();
+                return null;
+            }
+            if (entry.expireAt < System.currentTimeMillis()) {
+                entries.remove(key);
+                misses.incrementAndGet();
+                return null;
+            }
+            hits.incrementAndGet();
+            return entry.value;
+        }
+
+        /**
+         * 批量读取，返回命中的条目，未命中的 key 放入 missing
+         */
+        public synchronized Map<K, V> getAll(Collection<K> keys, Collection<K> missing) {
+            Map<K, V> found = new HashMap<>();
+            for (K key : keys) {
+                V value = get(key);
+                if (value != null) {
+                    found.put(key, value);
+                } else {
+                    missing.add(key);
+                }
+            }
+            return found;
+        }
+
+        public synchronized void put(K key, V value) {
+            entries.put(key, new Entry<>(value, System.currentTimeMillis() + ttlMillis));
+        }
+
+        public synchronized void invalidate(K key) {
+            entries.remove(key);
+        }
+
+        public synchronized void clear() {
+            entries.clear();
+        }
+
+        public synchronized Map<String, Object> getStats() {
+            long hitCount = hits.get();
+            long missCount = misses.get();
+            long total = hitCount + missCount;
+
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("size", entries.size());
+            stats.put("maxSize", maxSize);
+            stats.put("hits", hitCount);
+            stats.put("misses", missCount);
+            stats.put("evictions", evictions.get());
+            stats.put("hitRate", total == 0 ? 0.0 : (double) hitCount / total);
+            return stats;
+        }
+
+        private static class Entry<V> {
+            private final V value;
+            private final long expireAt;
+
+            Entry(V value, long expireAt) {
+                this.value = value;
+                this.expireAt = expireAt;
+            }
+        }
+    }
+}
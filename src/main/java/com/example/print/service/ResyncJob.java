@@ -0,0 +1,162 @@
+package com.example.print.service;
+
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 按时间范围补同步订单的后台任务，记录进度并支持取消
+ */
+public class ResyncJob {
+
+    public enum Type {
+        PAID,
+        REFUND
+    }
+
+    public enum Status {
+        PENDING,
+        RUNNING,
+        COMPLETED,
+        CANCELLED,
+        FAILED
+    }
+
+    private final String jobId;
+    private final Type type;
+    private final LocalDateTime startTime;
+    private final LocalDateTime endTime;
+    private final LocalDateTime submitTime = LocalDateTime.now();
+
+    private volatile Status status = Status.PENDING;
+    private volatile boolean cancelRequested;
+    private volatile LocalDateTime beginTime;
+    private volatile LocalDateTime finishTime;
+    private volatile long beginNanos;
+    private volatile long finishNanos;
+    private volatile int lastOrderId;
+    private volatile String errorMessage;
+
+    private final AtomicInteger scanned = new AtomicInteger();
+    private final AtomicInteger created = new AtomicInteger();
+    private final AtomicInteger skipped = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final AtomicInteger pages = new AtomicInteger();
+
+    public ResyncJob(String jobId, Type type, LocalDateTime startTime, LocalDateTime endTime) {
+        this.jobId = jobId;
+        this.type = type;
+        this.startTime = startTime;
+        this.endTime = endTime;
+    }
+
+    public String getJobId() {
+        return jobId;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public LocalDateTime getStartTime() {
+        return startTime;
+    }
+
+    public LocalDateTime getEndTime() {
+        return endTime;
+    }
+
+    public LocalDateTime getSubmitTime() {
+        return submitTime;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public boolean isFinished() {
+        return status == Status.COMPLETED || status == Status.CANCELLED || status == Status.FAILED;
+    }
+
+    /**
+     * 请求取消，当前页处理完后停止
+     */
+    public void cancel() {
+        cancelRequested = true;
+    }
+
+    public boolean isCancelRequested() {
+        return cancelRequested;
+    }
+
+    public int getCreated() {
+        return created.get();
+    }
+
+    void markRunning() {
+        beginTime = LocalDateTime.now();
+        beginNanos = System.nanoTime();
+        status = Status.RUNNING;
+    }
+
+    void markFinished(Status finalStatus, String error) {
+        finishTime = LocalDateTime.now();
+        finishNanos = System.nanoTime();
+        errorMessage = error;
+        status = finalStatus;
+    }
+
+    void onPage(int size, int lastId) {
+        pages.incrementAndGet();
+        scanned.addAndGet(size);
+        lastOrderId = lastId;
+    }
+
+    void onCreated() {
+        created.incrementAndGet();
+    }
+
+    void onSkipped() {
+        skipped.incrementAndGet();
+    }
+
+    void onFailed() {
+        failed.incrementAndGet();
+    }
+
+    /**
+     * 进度快照，用于接口返回
+     */
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("jobId", jobId);
+        map.put("type", type);
+        map.put("startTime", startTime);
+        map.put("endTime", endTime);
+        map.put("status", status);
+        map.put("cancelRequested", cancelRequested);
+        map.put("submitTime", submitTime);
+        map.put("beginTime", beginTime);
+        map.put("finishTime", finishTime);
+        map.put("pages", pages.get());
+        map.put("scanned", scanned.get());
+        map.put("created", created.get());
+        map.put("skipped", skipped.get());
+        map.put("failed", failed.get());
+        map.put("lastOrderId", lastOrderId);
+
+        long elapsedMs = 0;
+        if (beginNanos != 0) {
+            long end = finishNanos != 0 ? finishNanos : System.nanoTime();
+            elapsedMs = (end - beginNanos) / 1_000_000;
+        }
+        map.put("elapsedMs", elapsedMs);
+        // 吞吐量：每秒扫描的订单数
+        map.put("ordersPerSecond", elapsedMs > 0 ? Math.round(scanned.get() * 10000.0 / elapsedMs) / 10.0 : 0.0);
+        if (errorMessage != null) {
+            map.put("errorMessage", errorMessage);
+        }
+        return map;
+    }
+}
@@ -0,0 +1,135 @@
+package com.example.print.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 时间范围补同步任务管理
+ * 任务在后台线程中按订单ID分页执行，每页处理完即释放，内存占用与时间范围无关
+ */
+@Service
+@Slf4j
+public class ResyncJobService {
+
+    @Autowired
+    private OrderSyncService orderSyncService;
+
+    @Value("${print.order.resync.workers:1}")
+    private int workers;
+
+    @Value("${print.order.resync.page-size:200}")
+    private int pageSize;
+
+    @Value("${print.order.resync.max-finished-jobs:50}")
+    private int maxFinishedJobs;
+
+    private final Map<String, ResyncJob> jobs = new ConcurrentHashMap<>();
+
+    private ExecutorService executor;
+
+    @PostConstruct
+    public void init() {
+        AtomicInteger counter = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(Math.max(1, workers), r -> {
+            Thread thread = new Thread(r, "order-resync-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        jobs.values().forEach(ResyncJob::cancel);
+        executor.shutdown();
+    }
+
+    /**
+     * 提交补同步任务
+     */
+    public ResyncJob submit(ResyncJob.Type type, LocalDateTime startTime, LocalDateTime endTime) {
+        if (startTime == null || endTime == null || endTime.isBefore(startTime)) {
+            throw new IllegalArgumentException("时间范围无效: " + startTime + " 至 " + endTime);
+        }
+
+        ResyncJob job = new ResyncJob(UUID.randomUUID().toString(), type, startTime, endTime);
+        jobs.put(job.getJobId(), job);
+        purgeFinishedJobs();
+
+        executor.submit(() -> run(job));
+        log.info("提交补同步任务: {}, 类型: {}, 时间范围: {} 至 {}", job.getJobId(), type, startTime, endTime);
+        return job;
+    }
+
+    private void run(ResyncJob job) {
+        if (job.isCancelRequested()) {
+            job.markFinished(ResyncJob.Status.CANCELLED, null);
+            return;
+        }
+
+        job.markRunning();
+        try {
+            if (job.getType() == ResyncJob.Type.PAID) {
+                orderSyncService.resyncPaidOrders(job, pageSize);
+            } else {
+                orderSyncService.resyncRefundOrders(job, pageSize);
+            }
+            job.markFinished(job.isCancelRequested() ? ResyncJob.Status.CANCELLED : ResyncJob.Status.COMPLETED, null);
+            log.info("补同步任务结束: {}", job.toMap());
+        } catch (Exception e) {
+            log.error("补同步任务失败: {}", job.getJobId(), e);
+            job.markFinished(ResyncJob.Status.FAILED, e.getMessage());
+        }
+    }
+
+    public Optional<ResyncJob> getJob(String jobId) {
+        return Optional.ofNullable(jobs.get(jobId));
+    }
+
+    /**
+     * 全部任务，按提交顺序倒序
+     */
+    public List<ResyncJob> getJobs() {
+        List<ResyncJob> list = new ArrayList<>(jobs.values());
+        list.sort(Comparator.comparing(ResyncJob::getSubmitTime).reversed());
+        return list;
+    }
+
+    /**
+     * 取消任务
+     *
+     * @return 任务不存在时返回 false
+     */
+    public boolean cancel(String jobId) {
+        ResyncJob job = jobs.get(jobId);
+        if (job == null) {
+            return false;
+        }
+        job.cancel();
+        log.info("请求取消补同步任务: {}", jobId);
+        return true;
+    }
+
+    /**
+     * 只保留最近的已结束任务
+     */
+    private void purgeFinishedJobs() {
+        List<ResyncJob> finished = new ArrayList<>();
+        for (ResyncJob job : getJobs()) {
+            if (job.isFinished()) {
+                finished.add(job);
+            }
+        }
+        for (int i = maxFinishedJobs; i < finished.size(); i++) {
+            jobs.remove(finished.get(i).getJobId());
+        }
+    }
+}
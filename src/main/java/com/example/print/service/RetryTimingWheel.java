@@ -0,0 +1,166 @@
+package com.example.print.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 哈希时间轮，用于任务重试和过期等大量延迟回调
+ * 新定时先进入无锁队列，由时间轮线程每个刻度转入对应的槽；槽只由时间轮线程访问，
+ * 到期的回调交给执行线程运行。添加定时为 O(1)，精度为一个刻度
+ */
+@Component
+@Slf4j
+public class RetryTimingWheel {
+
+    @Value("${print.task.retry.tick-millis:1000}")
+    private long tickMillis;
+
+    @Value("${print.task.retry.wheel-size:512}")
+    private int wheelSize;
+
+    private final Queue<Timeout> incoming = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicLong fired = new AtomicLong();
+
+    private List<Timeout>[] buckets;
+    private int mask;
+    private long tickNanos;
+    private long startTime;
+
+    private Thread worker;
+    private ExecutorService executor;
+    private volatile boolean running;
+
+    @PostConstruct
+    @SuppressWarnings("unchecked")
+    public void start() {
+        // 槽数取不小于配置值的 2 的幂，用位运算定位槽
+        int size = Integer.highestOneBit(Math.max(2, wheelSize) - 1) << 1;
+        buckets = new List[size];
+        for (int i = 0; i < size; i++) {
+            buckets[i] = new ArrayList<>();
+        }
+        mask = size - 1;
+        tickNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, tickMillis));
+        startTime = System.nanoTime();
+
+        AtomicInteger counter = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(2, r -> {
+            Thread thread = new Thread(r, "task-retry-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        running = true;
+        worker = new Thread(this::run, "task-retry-wheel");
+        worker.setDaemon(true);
+        worker.start();
+        log.info("初始化重试时间轮，刻度: {}ms, 槽数: {}", tickMillis, size);
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        worker.interrupt();
+        executor.shutdownNow();
+    }
+
+    /**
+     * 延迟执行回调
+     */
+    public void schedule(long delay, TimeUnit unit, Runnable task) {
+        long deadline = System.nanoTime() - startTime + Math.max(0, unit.toNanos(delay));
+        incoming.add(new Timeout(deadline, task));
+        pending.incrementAndGet();
+    }
+
+    private void run() {
+        long tick = 0;
+        while (running) {
+            long sleepNanos = startTime + (tick + 1) * tickNanos - System.nanoTime();
+            if (sleepNanos > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleepNanos);
+                } catch (InterruptedException e) {
+                    if (!running) {
+                        return;
+                    }
+                }
+            }
+
+            transferIncoming(tick);
+            expire(buckets[(int) (tick & mask)]);
+            tick++;
+        }
+    }
+
+    /**
+     * 把新定时放入对应的槽，已过期的放入当前槽
+     */
+    private void transferIncoming(long tick) {
+        Timeout timeout;
+        while ((timeout = incoming.poll()) != null) {
+            long expireTick = timeout.deadline / tickNanos;
+            timeout.rounds = (expireTick - tick) / buckets.length;
+            long slot = Math.max(expireTick, tick);
+            buckets[(int) (slot & mask)].add(timeout);
+        }
+    }
+
+    private void expire(List<Timeout> bucket) {
+        Iterator<Timeout> iterator = bucket.iterator();
+        while (iterator.hasNext()) {
+            Timeout timeout = iterator.next();
+            if (timeout.rounds > 0) {
+                timeout.rounds--;
+                continue;
+            }
+            iterator.remove();
+            pending.decrementAndGet();
+            fired.incrementAndGet();
+            try {
+                executor.execute(timeout.task);
+            } catch (Exception e) {
+                log.error("执行到期回调失败", e);
+            }
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("pending", pending.get());
+        stats.put("fired", fired.get());
+        stats.put("tickMillis", tickMillis);
+        stats.put("wheelSize", buckets.length);
+        return stats;
+    }
+
+    private static final class Timeout {
+
+        // 相对时间轮启动时间的到期时刻（纳秒）
+        private final long deadline;
+        private final Runnable task;
+        private long rounds;
+
+        Timeout(long deadline, Runnable task) {
+            this.deadline = deadline;
+            this.task = task;
+        }
+    }
+}
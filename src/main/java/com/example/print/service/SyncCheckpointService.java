@@ -0,0 +1,59 @@
+package com.example.print.service;
+
+import com.example.print.model.SyncCheckpoint;
+import com.example.print.repository.SyncCheckpointRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.Optional;
+
+/**
+ * 同步水位持久化
+ * 每批同步完成后记录已处理到的订单ID，重启后从该位置继续
+ */
+@Service
+@Slf4j
+public class SyncCheckpointService {
+
+    public static final String PAID_ORDER = "PAID_ORDER";
+    public static final String REFUND_ORDER = "REFUND_ORDER";
+
+    @Autowired
+    private SyncCheckpointRepository checkpointRepository;
+
+    /**
+     * 读取水位，不存在时返回默认值
+     */
+    public int load(String syncName, int defaultValue) {
+        try {
+            Optional<SyncCheckpoint> checkpoint = checkpointRepository.findById(syncName);
+            if (checkpoint.isPresent()) {
+                return checkpoint.get().getLastOrderId();
+            }
+        } catch (Exception e) {
+            log.error("读取同步水位失败: {}", syncName, e);
+        }
+        return defaultValue;
+    }
+
+    /**
+     * 保存水位，失败只记录日志，下次批次会再次写入
+     */
+    @Transactional
+    public void save(String syncName, int lastOrderId) {
+        try {
+            SyncCheckpoint checkpoint = SyncCheckpoint.builder()
+                    .syncName(syncName)
+                    .lastOrderId(lastOrderId)
+                    .updateTime(LocalDateTime.now())
+                    .build();
+            checkpointRepository.save(checkpoint);
+            log.debug("保存同步水位: {} -> {}", syncName, lastOrderId);
+        } catch (Exception e) {
+            log.error("保存同步水位失败: {} -> {}", syncName, lastOrderId, e);
+        }
+    }
+}
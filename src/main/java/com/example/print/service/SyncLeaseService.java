@@ -0,0 +1,225 @@
+package com.example.print.service;
+
+import com.example.print.model.SyncLease;
+import com.example.print.repository.SyncLeaseRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.net.InetAddress;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 订单同步分片租约
+ * 订单按 merchant_id % 分片数 划分，多个实例通过 sync_leases 表竞争分片租约，
+ * 每个实例只同步自己持有租约的分片；实例停止或租约过期后由其他实例接管。
+ * 续期使用独立线程，公共调度线程上的长任务不会让租约过期
+ */
+@Service
+@Slf4j
+public class SyncLeaseService {
+
+    @Autowired
+    private SyncLeaseRepository leaseRepository;
+
+    @Autowired
+    private DailyOrderCounter dailyOrderCounter;
+
+    @Value("${print.instance-id:}")
+    private String configuredInstanceId;
+
+    @Value("${print.order.sync.shard-count:1}")
+    private int shardCount;
+
+    @Value("${print.order.sync.lease-seconds:30}")
+    private int leaseSeconds;
+
+    @Value("${print.order.sync.lease-renew-interval:10000}")
+    private long renewInterval;
+
+    private String instanceId;
+
+    // 持有的分片及本地记录的租约到期时间
+    private final Map<Integer, LocalDateTime> ownedShards = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService renewExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "sync-lease-renew");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @PostConstruct
+    public void init() {
+        instanceId = configuredInstanceId != null && !configuredInstanceId.isEmpty()
+                ? configuredInstanceId : defaultInstanceId();
+        shardCount = Math.max(1, shardCount);
+
+        // 初始化分片记录，多个实例同时启动时重复插入会失败，忽略即可
+        for (int shardId = 0; shardId < shardCount; shardId++) {
+            if (!leaseRepository.existsById(shardId)) {
+                try {
+                    leaseRepository.save(SyncLease.builder()
+                            .shardId(shardId)
+                            .leaseUntil(LocalDateTime.now())
+                            .updateTime(LocalDateTime.now())
+                            .build());
+                } catch (DataIntegrityViolationException e) {
+                    log.debug("分片记录已由其他实例创建: {}", shardId);
+                }
+            }
+        }
+
+        renewLeases();
+        renewExecutor.scheduleWithFixedDelay(this::renewLeases, renewInterval, renewInterval, TimeUnit.MILLISECONDS);
+        log.info("初始化同步租约，实例: {}, 分片数: {}, 持有分片: {}", instanceId, shardCount, ownedShards.keySet());
+    }
+
+    /**
+     * 续期已持有的租约，并按活跃实例数均衡获取或释放分片（由续期线程按 lease-renew-interval 执行）
+     */
+    public void renewLeases() {
+        try {
+            LocalDateTime now = LocalDateTime.now();
+            LocalDateTime leaseUntil = now.plusSeconds(leaseSeconds);
+
+            List<SyncLease> leases = leaseRepository.findAll();
+
+            // 活跃实例数（含自己），决定每个实例应持有的分片数
+            Set<String> activeOwners = new HashSet<>();
+            activeOwners.add(instanceId);
+            for (SyncLease lease : leases) {
+                if (lease.getOwnerId() != null && lease.getLeaseUntil().isAfter(now)) {
+                    activeOwners.add(lease.getOwnerId());
+                }
+            }
+            int fairShare = (shardCount + activeOwners.size() - 1) / activeOwners.size();
+
+            // 1. 续期自己的租约，超出均分数量的（编号靠后的）释放给其他实例
+            List<Integer> mine = new ArrayList<>();
+            for (SyncLease lease : leases) {
+                if (instanceId.equals(lease.getOwnerId()) && lease.getShardId() < shardCount) {
+                    mine.add(lease.getShardId());
+                }
+            }
+            Collections.sort(mine);
+
+            // 数据库中已不属于自己的分片（租约过期后被其他实例接管）
+            for (Integer shardId : new ArrayList<>(ownedShards.keySet())) {
+                if (!mine.contains(shardId)) {
+                    ownedShards.remove(shardId);
+                    onShardChanged(shardId);
+                }
+            }
+
+            List<Integer> toRelease = new ArrayList<>();
+            for (int i = 0; i < mine.size(); i++) {
+                int shardId = mine.get(i);
+                if (i >= fairShare) {
+                    toRelease.add(shardId);
+                } else if (leaseRepository.tryAcquire(shardId, instanceId, leaseUntil, now) > 0) {
+                    // 本地租约已过期后才续期成功，期间分片可能被其他实例处理过
+                    LocalDateTime previous = ownedShards.put(shardId, leaseUntil);
+                    if (previous == null || !previous.isAfter(now)) {
+                        onShardChanged(shardId);
+                    }
+                } else if (ownedShards.remove(shardId) != null) {
+                    onShardChanged(shardId);
+                }
+            }
+            if (!toRelease.isEmpty()) {
+                for (Integer shardId : toRelease) {
+                    ownedShards.remove(shardId);
+                    onShardChanged(shardId);
+                }
+                leaseRepository.release(toRelease, instanceId, now);
+                log.info("释放分片租约给其他实例: {}", toRelease);
+            }
+
+            // 2. 接管空闲或已过期的分片
+            for (SyncLease lease : leases) {
+                if (ownedShards.size() >= fairShare) {
+                    break;
+                }
+                int shardId = lease.getShardId();
+                boolean free = lease.getOwnerId() == null || !lease.getLeaseUntil().isAfter(now);
+                if (shardId < shardCount && free && !ownedShards.containsKey(shardId)
+                        && leaseRepository.tryAcquire(shardId, instanceId, leaseUntil, now) > 0) {
+                    ownedShards.put(shardId, leaseUntil);
+                    onShardChanged(shardId);
+                    log.info("获取分片租约: {}, 原持有者: {}", shardId, lease.getOwnerId());
+                }
+            }
+        } catch (Exception e) {
+            log.error("续期同步租约失败", e);
+        }
+    }
+
+    /**
+     * 当前有效持有的分片（本地租约未到期）
+     */
+    public List<Integer> getOwnedShards() {
+        LocalDateTime now = LocalDateTime.now();
+        List<Integer> shards = new ArrayList<>();
+        for (Map.Entry<Integer, LocalDateTime> entry : ownedShards.entrySet()) {
+            if (entry.getValue().isAfter(now)) {
+                shards.add(entry.getKey());
+            }
+        }
+        Collections.sort(shards);
+        return shards;
+    }
+
+    public int getShardCount() {
+        return shardCount;
+    }
+
+    public String getInstanceId() {
+        return instanceId;
+    }
+
+    /**
+     * 停止时释放租约，滚动重启期间其他实例可立即接管
+     */
+    @PreDestroy
+    public void releaseAll() {
+        renewExecutor.shutdownNow();
+        if (ownedShards.isEmpty()) {
+            return;
+        }
+        try {
+            List<Integer> shards = new ArrayList<>(ownedShards.keySet());
+            ownedShards.clear();
+            shards.forEach(this::onShardChanged);
+            leaseRepository.release(shards, instanceId, LocalDateTime.now());
+            log.info("释放全部分片租约: {}", shards);
+        } catch (Exception e) {
+            log.error("释放分片租约失败", e);
+        }
+    }
+
+    /**
+     * 分片获取或丢失：清理该分片商户的每日订单计数
+     */
+    private void onShardChanged(int shardId) {
+        dailyOrderCounter.invalidateShard(shardId, shardCount);
+    }
+
+    private String defaultInstanceId() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (Exception e) {
+            host = "unknown";
+        }
+        return host + "-" + UUID.randomUUID().toString().substring(0, 8);
+    }
+}
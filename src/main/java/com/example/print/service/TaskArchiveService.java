@@ -0,0 +1,191 @@
+package com.example.print.service;
+
+import com.example.print.model.ArchivedTask;
+import com.example.print.model.PrintHistory;
+import com.example.print.model.PrintTask;
+import com.example.print.model.PrintTaskStatus;
+import com.example.print.repository.PrintHistoryRepository;
+import com.example.print.repository.PrintTaskRepository;
+import com.example.print.service.archive.ArchiveSegmentStore;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.io.File;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.*;
+
+/**
+ * 已完成任务的冷归档
+ * 清理旧任务时先把任务（含内容）和打印历史写入压缩分段文件，再从热表删除；
+ * 按订单号、任务ID查询时与热表合并。
+ * 默认关闭，需要配置归档目录后启用；多实例部署时目录应为各实例共享的存储，查询前读取其他实例追加的索引
+ */
+@Service
+@Slf4j
+public class TaskArchiveService {
+
+    @Value("${print.archive.enabled:false}")
+    private boolean enabled;
+
+    @Value("${print.archive.directory:}")
+    private String directory;
+
+    @Value("${print.archive.segment-max-mb:64}")
+    private long segmentMaxMb;
+
+    @Autowired
+    private PrintTaskRepository taskRepository;
+
+    @Autowired
+    private PrintHistoryRepository historyRepository;
+
+    @Autowired
+    private PrintTaskContentStore contentStore;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private ArchiveSegmentStore store;
+
+    @PostConstruct
+    public void init() {
+        if (!enabled) {
+            log.info("冷归档未启用，旧任务清理时直接删除");
+            return;
+        }
+        if (directory == null || directory.trim().isEmpty()) {
+            // 归档不可用时不清理任务，避免数据丢失
+            log.error("冷归档已启用但未配置 print.archive.directory，旧任务清理暂停");
+            return;
+        }
+        try {
+            store = new ArchiveSegmentStore(new File(directory), segmentMaxMb * 1024 * 1024, objectMapper);
+            store.open();
+            log.info("初始化冷归档: {}", store.getStats());
+        } catch (IOException e) {
+            // 归档不可用时不清理任务，避免数据丢失
+            log.error("初始化冷归档失败: {}", directory, e);
+            store = null;
+        }
+    }
+
+    /**
+     * 是否启用归档（启用时清理旧任务前先归档）
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 归档一批已完成任务及其打印历史
+     *
+     * @return 已归档的任务ID，只有这些任务可以从热表删除
+     */
+    public List<String> archiveTasks(Collection<String> taskIds) throws IOException {
+        ArchiveSegmentStore archive = requireStore();
+
+        List<PrintTask> tasks = contentStore.attachAll(taskRepository.findAllById(taskIds));
+        Map<String, List<PrintHistory>> historyByTask = groupByTask(historyRepository.findByTaskIdIn(taskIds));
+
+        LocalDateTime now = LocalDateTime.now();
+        List<ArchivedTask> records = new ArrayList<>(tasks.size());
+        List<String> archived = new ArrayList<>(tasks.size());
+        for (PrintTask task : tasks) {
+            if (task.getStatus() != PrintTaskStatus.COMPLETED) {
+                continue;
+            }
+            List<PrintHistory> history = historyByTask.getOrDefault(task.getTaskId(), new ArrayList<>());
+            records.add(new ArchivedTask(task.getTaskId(), task.getOrderNo(), task, history, now));
+            archived.add(task.getTaskId());
+        }
+        archive.append(records);
+        return archived;
+    }
+
+    /**
+     * 归档任务已不在热表中的打印历史
+     */
+    public void archiveHistory(List<PrintHistory> histories) throws IOException {
+        ArchiveSegmentStore archive = requireStore();
+
+        LocalDateTime now = LocalDateTime.now();
+        List<ArchivedTask> records = new ArrayList<>();
+        for (Map.Entry<String, List<PrintHistory>> entry : groupByTask(histories).entrySet()) {
+            // 同一任务之前已归档过时合并历史，查询以最后一次归档为准
+            List<PrintHistory> merged = new ArrayList<>();
+            ArchivedTask existing = archive.findByTaskId(entry.getKey());
+            PrintTask task = null;
+            if (existing != null) {
+                task = existing.getTask();
+                merged.addAll(existing.getHistory());
+            }
+            merged.addAll(entry.getValue());
+            records.add(new ArchivedTask(entry.getKey(), entry.getValue().get(0).getOrderNo(), task, merged, now));
+        }
+        archive.append(records);
+    }
+
+    private ArchiveSegmentStore requireStore() throws IOException {
+        if (store == null) {
+            throw new IOException("冷归档不可用: " + directory);
+        }
+        return store;
+    }
+
+    private static Map<String, List<PrintHistory>> groupByTask(List<PrintHistory> histories) {
+        Map<String, List<PrintHistory>> grouped = new LinkedHashMap<>();
+        for (PrintHistory history : histories) {
+            grouped.computeIfAbsent(history.getTaskId(), k -> new ArrayList<>()).add(history);
+        }
+        return grouped;
+    }
+
+    /**
+     * 按任务ID查询归档记录
+     */
+    public Optional<ArchivedTask> findByTaskId(String taskId) {
+        if (store == null) {
+            return Optional.empty();
+        }
+        try {
+            return Optional.ofNullable(store.findByTaskId(taskId));
+        } catch (IOException e) {
+            log.error("读取归档任务失败: {}", taskId, e);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * 按订单号查询归档记录
+     */
+    public List<ArchivedTask> findByOrderNo(String orderNo) {
+        if (store == null) {
+            return Collections.emptyList();
+        }
+        try {
+            return store.findByOrderNo(orderNo);
+        } catch (IOException e) {
+            log.error("读取归档订单失败: {}", orderNo, e);
+            return Collections.emptyList();
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        if (store == null) {
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("enabled", enabled);
+            stats.put("available", false);
+            return stats;
+        }
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("available", true);
+        stats.putAll(store.getStats());
+        return stats;
+    }
+}
@@ -0,0 +1,258 @@
+package com.example.print.service;
+
+import com.example.print.model.PrintClient;
+import com.example.print.model.PrintTask;
+import com.example.print.model.PrintTaskStatus;
+import com.example.print.repository.PrintClientRepository;
+import com.example.print.repository.PrintTaskRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+/**
+ * 打印任务分配
+ * 门店的在线客户端都声明了 ASSIGN 能力时，每个任务只发给一个客户端：按 未确认任务数 / 权重 选择负载最低的客户端，
+ * 记录到 assignedClientId；客户端在确认超时时间内没有接收（任务仍是待打印）时换下一个客户端，
+ * 所有客户端都试过后退回门店广播。门店有未声明能力的客户端时仍然广播，兼容旧客户端
+ */
+@Service
+@Slf4j
+public class TaskAssignmentService {
+
+    public static final String CAPABILITY_ASSIGN = "ASSIGN";
+
+    @Value("${print.dispatch.assignment.enabled:true}")
+    private boolean enabled;
+
+    @Value("${print.dispatch.assignment.ack-timeout-seconds:30}")
+    private long ackTimeoutSeconds;
+
+    @Value("${print.dispatch.assignment.client-cache-seconds:10}")
+    private int clientCacheSeconds;
+
+    @Autowired
+    private PrintClientRepository clientRepository;
+
+    @Autowired
+    private PrintTaskRepository taskRepository;
+
+    @Autowired
+    private PendingTaskIndex pendingTaskIndex;
+
+    @Autowired
+    private RetryTimingWheel retryTimingWheel;
+
+    // 门店的在线客户端
+    private final Map<Integer, ClientsEntry> storeClients = new ConcurrentHashMap<>();
+
+    // 任务ID -> 未确认的分配
+    private final Map<String, Assignment> assignments = new ConcurrentHashMap<>();
+
+    // 客户端ID -> 未确认任务数
+    private final Map<String, AtomicInteger> outstanding = new ConcurrentHashMap<>();
+
+    private final AtomicLong assigned = new AtomicLong();
+    private final AtomicLong reassigned = new AtomicLong();
+    private final AtomicLong acknowledged = new AtomicLong();
+    private final AtomicLong fallbackBroadcasts = new AtomicLong();
+
+    /**
+     * 为任务选择一个客户端
+     *
+     * @param redispatch 确认超时后重新分发任务的回调（门店ID, 任务）
+     * @return 分配的客户端ID，返回 null 时调用方应向门店广播
+     */
+    public String assign(int storeId, PrintTask task, BiConsumer<Integer, PrintTask> redispatch) {
+        if (!enabled) {
+            return null;
+        }
+        List<PrintClient> clients = getOnlineClients(storeId);
+        if (clients.isEmpty()) {
+            return null;
+        }
+        for (PrintClient client : clients) {
+            if (!ReceiptRenderService.hasCapability(client, CAPABILITY_ASSIGN)) {
+                return null;
+            }
+        }
+
+        Assignment previous = assignments.remove(task.getTaskId());
+        Set<String> tried = new HashSet<>();
+        if (previous != null) {
+            release(previous);
+            tried.addAll(previous.tried);
+        }
+
+        PrintClient client = select(clients, tried);
+        if (client == null) {
+            fallbackBroadcasts.incrementAndGet();
+            log.info("门店 {} 的客户端都未确认任务 {}，改为广播", storeId, task.getTaskId());
+            return null;
+        }
+
+        tried.add(client.getClientId());
+        Assignment assignment = new Assignment(storeId, task, client.getClientId(), tried, redispatch);
+        assignments.put(task.getTaskId(), assignment);
+        outstanding.computeIfAbsent(client.getClientId(), k -> new AtomicInteger()).incrementAndGet();
+        taskRepository.assignClient(task.getTaskId(), client.getClientId(), PrintTaskStatus.PENDING);
+        task.setAssignedClientId(client.getClientId());
+
+        if (previous != null) {
+            reassigned.incrementAndGet();
+        } else {
+            assigned.incrementAndGet();
+        }
+        retryTimingWheel.schedule(ackTimeoutSeconds, TimeUnit.SECONDS, () -> checkAcknowledged(assignment));
+        return client.getClientId();
+    }
+
+    /**
+     * 按 (未确认任务数 + 1) / 权重 选择负载最低的客户端，跳过已试过的客户端
+     */
+    private PrintClient select(List<PrintClient> clients, Set<String> tried) {
+        PrintClient best = null;
+        double bestLoad = Double.MAX_VALUE;
+        for (PrintClient client : clients) {
+            if (tried.contains(client.getClientId())) {
+                continue;
+            }
+            AtomicInteger count = outstanding.get(client.getClientId());
+            int weight = client.getWeight() != null && client.getWeight() > 0 ? client.getWeight() : 1;
+            double load = ((count != null ? count.get() : 0) + 1) / (double) weight;
+            if (load < bestLoad) {
+                best = client;
+                bestLoad = load;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * 确认超时：任务仍是待打印时换客户端重新分发
+     */
+    private void checkAcknowledged(Assignment assignment) {
+        String taskId = assignment.task.getTaskId();
+        if (assignments.get(taskId) != assignment) {
+            return;
+        }
+        try {
+            PrintTask current = pendingTaskIndex.isReady()
+                    ? pendingTaskIndex.get(taskId)
+                    : taskRepository.findById(taskId).orElse(null);
+            if (current == null || current.getStatus() != PrintTaskStatus.PENDING) {
+                acknowledge(taskId);
+                return;
+            }
+            log.info("客户端 {} 未在 {} 秒内确认任务 {}，重新分配", assignment.clientId, ackTimeoutSeconds, taskId);
+            assignment.redispatch.accept(assignment.storeId, assignment.task);
+        } catch (Exception e) {
+            log.error("检查任务确认失败: {}", taskId, e);
+        }
+    }
+
+    /**
+     * 任务已被客户端接收或处理完，结束分配
+     */
+    public void acknowledge(String taskId) {
+        Assignment assignment = assignments.remove(taskId);
+        if (assignment != null) {
+            release(assignment);
+            acknowledged.incrementAndGet();
+        }
+    }
+
+    private void release(Assignment assignment) {
+        AtomicInteger count = outstanding.get(assignment.clientId);
+        if (count != null && count.decrementAndGet() <= 0) {
+            outstanding.remove(assignment.clientId, count);
+        }
+    }
+
+    /**
+     * 客户端离线后立即重新分配其未确认的任务
+     */
+    public void releaseClient(String clientId) {
+        for (Assignment assignment : assignments.values()) {
+            if (assignment.clientId.equals(clientId)) {
+                retryTimingWheel.schedule(0, TimeUnit.SECONDS, () -> checkAcknowledged(assignment));
+            }
+        }
+    }
+
+    /**
+     * 客户端注册或离线后重新读取门店的在线客户端
+     */
+    public void invalidateClients(Integer storeId) {
+        if (storeId != null) {
+            storeClients.remove(storeId);
+        }
+    }
+
+    private List<PrintClient> getOnlineClients(int storeId) {
+        long now = System.currentTimeMillis();
+        ClientsEntry entry = storeClients.get(storeId);
+        if (entry != null && entry.expireAt > now) {
+            return entry.clients;
+        }
+        List<PrintClient> clients = clientRepository.findByStoreIdAndOnlineTrue(storeId);
+        storeClients.put(storeId, new ClientsEntry(clients, now + TimeUnit.SECONDS.toMillis(clientCacheSeconds)));
+        return clients;
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Integer> byClient = new TreeMap<>();
+        for (Map.Entry<String, AtomicInteger> entry : outstanding.entrySet()) {
+            byClient.put(entry.getKey(), entry.getValue().get());
+        }
+
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("ackTimeoutSeconds", ackTimeoutSeconds);
+        stats.put("assigned", assigned.get());
+        stats.put("reassigned", reassigned.get());
+        stats.put("acknowledged", acknowledged.get());
+        stats.put("fallbackBroadcasts", fallbackBroadcasts.get());
+        stats.put("unacknowledged", assignments.size());
+        stats.put("outstandingByClient", byClient);
+        return stats;
+    }
+
+    /**
+     * 未确认的分配
+     */
+    private static class Assignment {
+
+        private final int storeId;
+        private final PrintTask task;
+        private final String clientId;
+        private final Set<String> tried;
+        private final BiConsumer<Integer, PrintTask> redispatch;
+
+        Assignment(int storeId, PrintTask task, String clientId, Set<String> tried,
+                   BiConsumer<Integer, PrintTask> redispatch) {
+            this.storeId = storeId;
+            this.task = task;
+            this.clientId = clientId;
+            this.tried = tried;
+            this.redispatch = redispatch;
+        }
+    }
+
+    private static class ClientsEntry {
+        private final List<PrintClient> clients;
+        private final long expireAt;
+
+        ClientsEntry(List<PrintClient> clients, long expireAt) {
+            this.clients = clients;
+            this.expireAt = expireAt;
+        }
+    }
+}
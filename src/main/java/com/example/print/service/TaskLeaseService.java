@@ -0,0 +1,227 @@
+package com.example.print.service;
+
+import com.example.print.model.PrintClient;
+import com.example.print.model.PrintTask;
+import com.example.print.model.PrintTaskStatus;
+import com.example.print.repository.PrintClientRepository;
+import com.example.print.repository.PrintTaskRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 打印任务领取租约
+ * 拉取模式的客户端一次领取门店最多 N 个待打印任务（按优先级和创建时间），任务变为打印中并记录租约到期时间；
+ * 客户端打印期间续租，租约过期的任务在几秒内重置为待打印并重新分发，打印机电脑宕机后任务很快转给其他客户端。
+ * 领取使用 SELECT ... FOR UPDATE SKIP LOCKED，多个客户端、多个实例同时领取不会拿到同一个任务
+ */
+@Service
+@Slf4j
+public class TaskLeaseService {
+
+    private static final String PRIORITY_ORDER =
+            "CASE priority WHEN 'HIGH' THEN 0 WHEN 'LOW' THEN 2 ELSE 1 END";
+
+    @Value("${print.task.lease.default-seconds:60}")
+    private int defaultLeaseSeconds;
+
+    @Value("${print.task.lease.max-seconds:600}")
+    private int maxLeaseSeconds;
+
+    @Value("${print.task.lease.max-claim:50}")
+    private int maxClaim;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private NamedParameterJdbcTemplate namedJdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private PrintTaskRepository taskRepository;
+
+    @Autowired
+    private PrintClientRepository clientRepository;
+
+    @Autowired
+    private PrintTaskContentStore contentStore;
+
+    @Autowired
+    private PendingTaskIndex pendingTaskIndex;
+
+    @Autowired
+    private NotificationService notificationService;
+
+    @Autowired
+    private TaskAssignmentService assignmentService;
+
+    private final AtomicLong claims = new AtomicLong();
+    private final AtomicLong claimedTasks = new AtomicLong();
+    private final AtomicLong renewals = new AtomicLong();
+    private final AtomicLong expiredLeases = new AtomicLong();
+
+    /**
+     * 客户端领取所在门店的待打印任务
+     *
+     * @param limit        最多领取数量，不超过 max-claim
+     * @param leaseSeconds 租约时长，为空时使用默认值，不超过 max-seconds
+     * @return 领取到的任务（带打印内容和租约到期时间），客户端不存在时返回 null
+     */
+    public List<PrintTask> claim(String clientId, int limit, Integer leaseSeconds) {
+        PrintClient client = clientRepository.findById(clientId).orElse(null);
+        if (client == null) {
+            log.warn("领取任务失败，客户端不存在: {}", clientId);
+            return null;
+        }
+
+        int count = Math.max(1, Math.min(limit, maxClaim));
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime expireTime = now.plusSeconds(leaseDuration(leaseSeconds));
+
+        List<String> taskIds = transactionTemplate.execute(status -> {
+            List<String> ids = jdbcTemplate.queryForList(
+                    "SELECT task_id FROM print_tasks WHERE store_id = ? AND status = ? " +
+                            "ORDER BY " + PRIORITY_ORDER + ", create_time LIMIT ? FOR UPDATE SKIP LOCKED",
+                    String.class, client.getStoreId(), PrintTaskStatus.PENDING.name(), count);
+            if (ids.isEmpty()) {
+                return ids;
+            }
+            MapSqlParameterSource params = new MapSqlParameterSource()
+                    .addValue("ids", ids)
+                    .addValue("clientId", clientId)
+                    .addValue("expireTime", Timestamp.valueOf(expireTime))
+                    .addValue("now", Timestamp.valueOf(now))
+                    .addValue("pending", PrintTaskStatus.PENDING.name())
+                    .addValue("printing", PrintTaskStatus.PRINTING.name());
+            namedJdbcTemplate.update("UPDATE print_tasks SET status = :printing, assigned_client_id = :clientId, " +
+                    "lease_expire_time = :expireTime, last_update_time = :now, version = version + 1 " +
+                    "WHERE task_id IN (:ids) AND status = :pending", params);
+            return ids;
+        });
+
+        claims.incrementAndGet();
+        if (taskIds == null || taskIds.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        List<PrintTask> tasks = contentStore.attachAll(taskRepository.findAllById(taskIds));
+        tasks.sort(PrintTask.DISPATCH_ORDER);
+        for (PrintTask task : tasks) {
+            pendingTaskIndex.update(task);
+            assignmentService.acknowledge(task.getTaskId());
+            notificationService.notifyTaskStatusUpdate(task);
+        }
+        claimedTasks.addAndGet(tasks.size());
+        log.info("客户端 {} 领取门店 {} 的 {} 个任务，租约到期: {}", clientId, client.getStoreId(), tasks.size(), expireTime);
+        return tasks;
+    }
+
+    /**
+     * 续租：只延长仍由该客户端持有且仍在打印中的任务
+     *
+     * @return 续租成功的任务ID及新的到期时间
+     */
+    public Map<String, Object> renew(String clientId, Collection<String> taskIds, Integer leaseSeconds) {
+        LocalDateTime expireTime = LocalDateTime.now().plusSeconds(leaseDuration(leaseSeconds));
+        List<String> renewed = new ArrayList<>();
+        if (!taskIds.isEmpty()) {
+            MapSqlParameterSource params = new MapSqlParameterSource()
+                    .addValue("ids", taskIds)
+                    .addValue("clientId", clientId)
+                    .addValue("expireTime", Timestamp.valueOf(expireTime))
+                    .addValue("printing", PrintTaskStatus.PRINTING.name());
+            String condition = "WHERE task_id IN (:ids) AND assigned_client_id = :clientId " +
+                    "AND status = :printing AND lease_expire_time IS NOT NULL";
+            renewed = transactionTemplate.execute(status -> {
+                namedJdbcTemplate.update("UPDATE print_tasks SET lease_expire_time = :expireTime " + condition, params);
+                return namedJdbcTemplate.queryForList("SELECT task_id FROM print_tasks " + condition,
+                        params, String.class);
+            });
+            renewals.addAndGet(renewed.size());
+        }
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("renewed", renewed);
+        result.put("leaseExpireTime", expireTime.toString());
+        return result;
+    }
+
+    private int leaseDuration(Integer leaseSeconds) {
+        if (leaseSeconds == null || leaseSeconds <= 0) {
+            return defaultLeaseSeconds;
+        }
+        return Math.min(leaseSeconds, maxLeaseSeconds);
+    }
+
+    /**
+     * 定时把租约过期的任务重置为待打印并重新分发
+     */
+    @Scheduled(fixedDelayString = "${print.task.lease.check-interval:5000}")
+    public void releaseExpiredLeases() {
+        try {
+            LocalDateTime now = LocalDateTime.now();
+            List<String> taskIds = jdbcTemplate.queryForList(
+                    "SELECT task_id FROM print_tasks WHERE status = ? AND lease_expire_time < ?",
+                    String.class, PrintTaskStatus.PRINTING.name(), Timestamp.valueOf(now));
+            if (taskIds.isEmpty()) {
+                return;
+            }
+
+            // 条件中再次检查状态和到期时间，期间完成或续租的任务不会被重置
+            MapSqlParameterSource params = new MapSqlParameterSource()
+                    .addValue("ids", taskIds)
+                    .addValue("now", Timestamp.valueOf(now))
+                    .addValue("pending", PrintTaskStatus.PENDING.name())
+                    .addValue("printing", PrintTaskStatus.PRINTING.name());
+            List<String> released = transactionTemplate.execute(status -> {
+                List<String> ids = namedJdbcTemplate.queryForList("SELECT task_id FROM print_tasks " +
+                        "WHERE task_id IN (:ids) AND status = :printing AND lease_expire_time < :now FOR UPDATE",
+                        params, String.class);
+                if (!ids.isEmpty()) {
+                    namedJdbcTemplate.update("UPDATE print_tasks SET status = :pending, assigned_client_id = NULL, " +
+                            "lease_expire_time = NULL, last_update_time = :now, version = version + 1 " +
+                            "WHERE task_id IN (:ids)", params.addValue("ids", ids));
+                }
+                return ids;
+            });
+            if (released == null || released.isEmpty()) {
+                return;
+            }
+
+            expiredLeases.addAndGet(released.size());
+            log.info("{} 个任务的领取租约已过期，重置为待打印", released.size());
+            for (PrintTask task : contentStore.attachAll(taskRepository.findAllById(released))) {
+                pendingTaskIndex.update(task);
+                notificationService.notifyTaskStatusUpdate(task);
+                notificationService.broadcastToPrintersByStore(task.getStoreId(), task);
+            }
+        } catch (Exception e) {
+            log.error("处理过期的领取租约失败", e);
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("defaultLeaseSeconds", defaultLeaseSeconds);
+        stats.put("maxClaim", maxClaim);
+        stats.put("claims", claims.get());
+        stats.put("claimedTasks", claimedTasks.get());
+        stats.put("renewals", renewals.get());
+        stats.put("expiredLeases", expiredLeases.get());
+        return stats;
+    }
+}
@@ -0,0 +1,298 @@
+package com.example.print.service.archive;
+
+import com.example.print.model.ArchivedTask;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 归档分段文件
+ * 每次追加写入一个 gzip 压缩块（块内每行一条 JSON 记录），分段文件超过大小上限后换新文件；
+ * 索引文件记录 任务ID、订单号 → 块位置，启动时载入内存。
+ * 先写分段再写索引，中途失败只会留下无索引的块；同一任务重复归档时以最后一次为准。
+ * 目录由多个实例共享时（同一时间只有一个实例写入），查询和写入前先读取其他实例追加的索引
+ */
+public class ArchiveSegmentStore {
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String INDEX_FILE = "index.dat";
+
+    // 位置编码：高位为分段序号，低 40 位为块在分段中的偏移
+    private static final int OFFSET_BITS = 40;
+
+    private final File directory;
+    private final long maxSegmentBytes;
+    private final ObjectMapper objectMapper;
+
+    private final Map<String, Long> locationsByTask = new ConcurrentHashMap<>();
+    private final Map<String, List<String>> tasksByOrderNo = new ConcurrentHashMap<>();
+
+    private int currentSegment;
+    private long blocks;
+
+    // 已载入的索引文件长度
+    private long indexLength;
+
+    public ArchiveSegmentStore(File directory, long maxSegmentBytes, ObjectMapper objectMapper) {
+        this.directory = directory;
+        this.maxSegmentBytes = maxSegmentBytes;
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * 载入索引并定位当前分段
+     */
+    public synchronized void open() throws IOException {
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("无法创建归档目录: " + directory);
+        }
+
+        currentSegment = latestSegment();
+        indexLength = 0;
+        loadIndex(true);
+    }
+
+    /**
+     * 读取其他实例追加的索引，并定位到最新的分段
+     */
+    public synchronized void refresh() throws IOException {
+        currentSegment = Math.max(currentSegment, latestSegment());
+        loadIndex(false);
+    }
+
+    private int latestSegment() {
+        int latest = 1;
+        File[] segments = directory.listFiles((dir, name) -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX));
+        if (segments != null) {
+            for (File segment : segments) {
+                String number = segment.getName().substring(SEGMENT_PREFIX.length(),
+                        segment.getName().length() - SEGMENT_SUFFIX.length());
+                latest = Math.max(latest, Integer.parseInt(number));
+            }
+        }
+        return latest;
+    }
+
+    /**
+     * 从上次载入的位置继续读取索引
+     *
+     * @param repair 是否截掉末尾不完整的记录（只在启动时执行，运行中可能是其他实例正在写入）
+     */
+    private void loadIndex(boolean repair) throws IOException {
+        File indexFile = new File(directory, INDEX_FILE);
+        if (!indexFile.exists() || indexFile.length() <= indexLength) {
+            return;
+        }
+
+        long valid = indexLength;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+            long skipped = 0;
+            while (skipped < indexLength) {
+                int n = in.skipBytes((int) Math.min(indexLength - skipped, Integer.MAX_VALUE));
+                if (n <= 0) {
+                    return;
+                }
+                skipped += n;
+            }
+            while (true) {
+                String taskId;
+                String orderNo;
+                long location;
+                int size;
+                try {
+                    byte[] taskIdBytes = readBytes(in);
+                    byte[] orderNoBytes = readBytes(in);
+                    location = in.readLong();
+                    taskId = new String(taskIdBytes, StandardCharsets.UTF_8);
+                    orderNo = new String(orderNoBytes, StandardCharsets.UTF_8);
+                    size = 2 + taskIdBytes.length + 2 + orderNoBytes.length + 8;
+                } catch (EOFException e) {
+                    break;
+                }
+                putIndex(taskId, orderNo, location);
+                valid += size;
+            }
+        }
+        indexLength = valid;
+
+        // 去掉写入中断留下的不完整记录
+        if (repair && valid < indexFile.length()) {
+            try (RandomAccessFile file = new RandomAccessFile(indexFile, "rw")) {
+                file.setLength(valid);
+            }
+        }
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readUnsignedShort()];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    private void putIndex(String taskId, String orderNo, long location) {
+        locationsByTask.put(taskId, location);
+        if (!orderNo.isEmpty()) {
+            List<String> taskIds = tasksByOrderNo.computeIfAbsent(orderNo, k -> new ArrayList<>(1));
+            synchronized (taskIds) {
+                if (!taskIds.contains(taskId)) {
+                    taskIds.add(taskId);
+                }
+            }
+        }
+    }
+
+    /**
+     * 追加一批记录为一个压缩块，写入并刷盘后再更新索引
+     */
+    public synchronized void append(List<ArchivedTask> records) throws IOException {
+        if (records.isEmpty()) {
+            return;
+        }
+
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        try (Writer writer = new OutputStreamWriter(new GZIPOutputStream(buffer), StandardCharsets.UTF_8)) {
+            for (ArchivedTask record : records) {
+                writer.write(objectMapper.writeValueAsString(record));
+                writer.write('\n');
+            }
+        }
+        byte[] block = buffer.toByteArray();
+
+        // 只有一个实例写入：先载入之前写入者追加的索引，并截掉其中断留下的不完整记录，新记录紧接在后面
+        currentSegment = Math.max(currentSegment, latestSegment());
+        loadIndex(true);
+        File segment = segmentFile(currentSegment);
+        if (segment.length() > 0 && segment.length() + block.length + 4 > maxSegmentBytes) {
+            currentSegment++;
+            segment = segmentFile(currentSegment);
+        }
+
+        long offset = segment.length();
+        try (FileOutputStream out = new FileOutputStream(segment, true)) {
+            DataOutputStream data = new DataOutputStream(out);
+            data.writeInt(block.length);
+            data.write(block);
+            data.flush();
+            out.getChannel().force(true);
+        }
+
+        long location = ((long) currentSegment << OFFSET_BITS) | offset;
+        try (FileOutputStream out = new FileOutputStream(new File(directory, INDEX_FILE), true)) {
+            DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+            for (ArchivedTask record : records) {
+                writeBytes(data, record.getTaskId());
+                writeBytes(data, record.getOrderNo());
+                data.writeLong(location);
+            }
+            data.flush();
+            out.getChannel().force(true);
+            indexLength += data.size();
+        }
+
+        for (ArchivedTask record : records) {
+            putIndex(record.getTaskId(), record.getOrderNo() != null ? record.getOrderNo() : "", location);
+        }
+        blocks++;
+    }
+
+    private static void writeBytes(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = (value != null ? value : "").getBytes(StandardCharsets.UTF_8);
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * 按任务ID查询归档记录
+     */
+    public ArchivedTask findByTaskId(String taskId) throws IOException {
+        refresh();
+        Long location = locationsByTask.get(taskId);
+        if (location == null) {
+            return null;
+        }
+        return readBlock(location, Collections.singleton(taskId)).get(taskId);
+    }
+
+    /**
+     * 按订单号查询归档记录
+     */
+    public List<ArchivedTask> findByOrderNo(String orderNo) throws IOException {
+        refresh();
+        List<String> taskIds = tasksByOrderNo.get(orderNo);
+        if (taskIds == null) {
+            return Collections.emptyList();
+        }
+
+        // 同一块中的任务只解压一次
+        Map<Long, Set<String>> byLocation = new LinkedHashMap<>();
+        synchronized (taskIds) {
+            for (String taskId : taskIds) {
+                Long location = locationsByTask.get(taskId);
+                if (location != null) {
+                    byLocation.computeIfAbsent(location, k -> new HashSet<>()).add(taskId);
+                }
+            }
+        }
+
+        List<ArchivedTask> result = new ArrayList<>();
+        for (Map.Entry<Long, Set<String>> entry : byLocation.entrySet()) {
+            result.addAll(readBlock(entry.getKey(), entry.getValue()).values());
+        }
+        return result;
+    }
+
+    private Map<String, ArchivedTask> readBlock(long location, Set<String> taskIds) throws IOException {
+        int segmentId = (int) (location >>> OFFSET_BITS);
+        long offset = location & ((1L << OFFSET_BITS) - 1);
+
+        byte[] block;
+        try (RandomAccessFile file = new RandomAccessFile(segmentFile(segmentId), "r")) {
+            file.seek(offset);
+            block = new byte[file.readInt()];
+            file.readFully(block);
+        }
+
+        Map<String, ArchivedTask> found = new LinkedHashMap<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(new ByteArrayInputStream(block)), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                ArchivedTask record = objectMapper.readValue(line, ArchivedTask.class);
+                if (taskIds.contains(record.getTaskId())) {
+                    found.put(record.getTaskId(), record);
+                }
+            }
+        }
+        return found;
+    }
+
+    private File segmentFile(int segmentId) {
+        return new File(directory, String.format("%s%06d%s", SEGMENT_PREFIX, segmentId, SEGMENT_SUFFIX));
+    }
+
+    public synchronized Map<String, Object> getStats() {
+        long bytes = 0;
+        File[] segments = directory.listFiles((dir, name) -> name.startsWith(SEGMENT_PREFIX));
+        if (segments != null) {
+            for (File segment : segments) {
+                bytes += segment.length();
+            }
+        }
+
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("directory", directory.getAbsolutePath());
+        stats.put("segments", segments != null ? segments.length : 0);
+        stats.put("currentSegment", currentSegment);
+        stats.put("segmentBytes", bytes);
+        stats.put("indexedTasks", locationsByTask.size());
+        stats.put("indexedOrders", tasksByOrderNo.size());
+        stats.put("blocksWritten", blocks);
+        return stats;
+    }
+}
@@ -0,0 +1,79 @@
+package com.example.print.service.escpos;
+
+import javax.imageio.ImageIO;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * 图片转 ESC/POS 光栅位图（GS v 0）
+ */
+public final class EscPosImage {
+
+    private EscPosImage() {
+    }
+
+    /**
+     * 转换图片，超过最大宽度时等比缩小
+     *
+     * @param image     图片文件内容（PNG/JPG/BMP）
+     * @param maxWidth  最大宽度（点），58mm 纸约 384，80mm 纸约 576
+     * @throws IOException 图片无法解析
+     */
+    public static byte[] toRaster(byte[] image, int maxWidth) throws IOException {
+        BufferedImage source = ImageIO.read(new ByteArrayInputStream(image));
+        if (source == null) {
+            throw new IOException("不支持的图片格式");
+        }
+
+        int width = source.getWidth();
+        int height = source.getHeight();
+        if (width > maxWidth) {
+            height = Math.max(1, height * maxWidth / width);
+            width = maxWidth;
+        }
+
+        BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = scaled.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.setColor(java.awt.Color.WHITE);
+            g.fillRect(0, 0, width, height);
+            g.drawImage(source, 0, 0, width, height, null);
+        } finally {
+            g.dispose();
+        }
+
+        int bytesPerRow = (width + 7) / 8;
+        ByteArrayOutputStream out = new ByteArrayOutputStream(8 + bytesPerRow * height);
+        // 居中
+        out.write(new byte[]{0x1B, 'a', 1}, 0, 3);
+        out.write(new byte[]{0x1D, 'v', '0', 0,
+                (byte) (bytesPerRow & 0xFF), (byte) ((bytesPerRow >> 8) & 0xFF),
+                (byte) (height & 0xFF), (byte) ((height >> 8) & 0xFF)}, 0, 8);
+        for (int y = 0; y < height; y++) {
+            for (int xByte = 0; xByte < bytesPerRow; xByte++) {
+                int bits = 0;
+                for (int bit = 0; bit < 8; bit++) {
+                    int x = xByte * 8 + bit;
+                    if (x < width && isDark(scaled.getRGB(x, y))) {
+                        bits |= 0x80 >> bit;
+                    }
+                }
+                out.write(bits);
+            }
+        }
+        out.write(0x0A);
+        return out.toByteArray();
+    }
+
+    private static boolean isDark(int rgb) {
+        int r = (rgb >> 16) & 0xFF;
+        int g = (rgb >> 8) & 0xFF;
+        int b = rgb & 0xFF;
+        return (r * 299 + g * 587 + b * 114) / 1000 < 128;
+    }
+}
@@ -0,0 +1,367 @@
+package com.example.print.service.escpos;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 已编译的小票模板
+ * 模板按行解析，编译结果可在多个线程间共享，渲染时只做取值和输出：
+ * <pre>
+ * # 注释
+ * &#64;align left|center|right      对齐方式
+ * &#64;bold on|off                  加粗
+ * &#64;size normal|wide|tall|double 字号
+ * &#64;logo / &#64;header               店铺 Logo / 店铺标题
+ * &#64;line [字符]                   分隔线，默认 -
+ * &#64;cols 16,6,10                 列宽，之后含 | 的行按列输出；不带参数时取消
+ * &#64;feed n / &#64;cut                走纸 / 切纸
+ * &#64;each 字段 ... &#64;end           遍历数组字段（如 goodsItems）
+ * &#64;if 字段 / &#64;ifnot 字段 ... &#64;end  按字段是否有值输出
+ * 其他行为文本，${字段} 取值，${字段:money} 保留两位小数，${字段:int} 取整
+ * </pre>
+ */
+public class EscPosTemplate {
+
+    private static final Pattern PLACEHOLDER = Pattern.compile("\\$\\{([A-Za-z0-9_]+)(?::([a-z]+))?}");
+
+    private final List<Op> ops;
+
+    private EscPosTemplate(List<Op> ops) {
+        this.ops = ops;
+    }
+
+    /**
+     * 编译模板
+     *
+     * @throws IllegalArgumentException 模板语法错误
+     */
+    public static EscPosTemplate compile(String source) {
+        Deque<Block> blocks = new ArrayDeque<>();
+        Block root = new Block();
+        blocks.push(root);
+        int[] columns = null;
+
+        String[] lines = source.split("\r?\n");
+        for (int lineNo = 1; lineNo <= lines.length; lineNo++) {
+            String line = lines[lineNo - 1];
+            String trimmed = line.trim();
+            List<Op> target = blocks.peek().ops;
+
+            if (trimmed.startsWith("#")) {
+                continue;
+            }
+            if (!trimmed.startsWith("@")) {
+                if (columns != null && line.contains("|")) {
+                    target.add(new ColumnsOp(columns, parseCells(line)));
+                } else {
+                    target.add(new TextOp(Text.parse(line)));
+                }
+                continue;
+            }
+
+            String[] parts = trimmed.substring(1).split("\\s+", 2);
+            String directive = parts[0];
+            String arg = parts.length > 1 ? parts[1].trim() : "";
+            switch (directive) {
+                case "align":
+                    EscPosWriter.Align align = EscPosWriter.Align.valueOf(arg.toUpperCase());
+                    target.add((ctx, node) -> ctx.writer.align(align));
+                    break;
+                case "bold":
+                    boolean on = !"off".equalsIgnoreCase(arg);
+                    target.add((ctx, node) -> ctx.writer.bold(on));
+                    break;
+                case "size":
+                    int[] size = parseSize(arg, lineNo);
+                    target.add((ctx, node) -> ctx.writer.size(size[0], size[1]));
+                    break;
+                case "logo":
+                    target.add((ctx, node) -> {
+                        if (ctx.logo != null) {
+                            ctx.writer.raw(ctx.logo);
+                        }
+                    });
+                    break;
+                case "header":
+                    target.add((ctx, node) -> {
+                        if (ctx.header != null) {
+                            ctx.writer.raw(ctx.header);
+                        }
+                    });
+                    break;
+                case "line":
+                    char c = arg.isEmpty() ? '-' : arg.charAt(0);
+                    target.add((ctx, node) -> ctx.writer.separator(c));
+                    break;
+                case "cols":
+                    // 不带参数时取消列模式
+                    columns = arg.isEmpty() ? null : parseColumns(arg, lineNo);
+                    break;
+                case "feed":
+                    int feed = arg.isEmpty() ? 1 : Integer.parseInt(arg);
+                    target.add((ctx, node) -> ctx.writer.feed(feed));
+                    break;
+                case "cut":
+                    target.add((ctx, node) -> ctx.writer.cut());
+                    break;
+                case "each":
+                case "if":
+                case "ifnot":
+                    if (arg.isEmpty()) {
+                        throw new IllegalArgumentException("第" + lineNo + "行 @" + directive + " 缺少字段名");
+                    }
+                    Block block = new Block();
+                    block.directive = directive;
+                    block.field = arg;
+                    blocks.push(block);
+                    break;
+                case "end":
+                    if (blocks.size() == 1) {
+                        throw new IllegalArgumentException("第" + lineNo + "行 @end 没有对应的块");
+                    }
+                    Block closed = blocks.pop();
+                    blocks.peek().ops.add(closed.toOp());
+                    break;
+                default:
+                    throw new IllegalArgumentException("第" + lineNo + "行 未知指令 @" + directive);
+            }
+        }
+
+        if (blocks.size() != 1) {
+            throw new IllegalArgumentException("@" + blocks.peek().directive + " " + blocks.peek().field + " 缺少 @end");
+        }
+        return new EscPosTemplate(root.ops);
+    }
+
+    /**
+     * 按打印数据渲染
+     *
+     * @param data   打印数据（PrintTask.content 解析后的 JSON）
+     * @param writer 输出
+     * @param header 已编译的店铺标题，可为空
+     * @param logo   已编译的店铺 Logo，可为空
+     */
+    public void render(JsonNode data, EscPosWriter writer, byte[] header, byte[] logo) {
+        Context ctx = new Context(writer, data, header, logo);
+        for (Op op : ops) {
+            op.render(ctx, data);
+        }
+    }
+
+    private static List<Text> parseCells(String line) {
+        List<Text> cells = new ArrayList<>();
+        for (String cell : line.split("\\|", -1)) {
+            cells.add(Text.parse(cell.trim()));
+        }
+        return cells;
+    }
+
+    private static int[] parseColumns(String arg, int lineNo) {
+        try {
+            String[] parts = arg.split(",");
+            int[] widths = new int[parts.length];
+            for (int i = 0; i < parts.length; i++) {
+                widths[i] = Integer.parseInt(parts[i].trim());
+            }
+            return widths;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("第" + lineNo + "行 @cols 格式错误: " + arg);
+        }
+    }
+
+    private static int[] parseSize(String arg, int lineNo) {
+        switch (arg.toLowerCase()) {
+            case "":
+            case "normal":
+                return new int[]{1, 1};
+            case "wide":
+                return new int[]{2, 1};
+            case "tall":
+                return new int[]{1, 2};
+            case "double":
+                return new int[]{2, 2};
+            default:
+                throw new IllegalArgumentException("第" + lineNo + "行 @size 不支持: " + arg);
+        }
+    }
+
+    /**
+     * 字段是否有值：非空、非 false、非空字符串、非 0
+     */
+    private static boolean truthy(JsonNode value) {
+        if (value == null || value.isNull() || value.isMissingNode()) {
+            return false;
+        }
+        if (value.isBoolean()) {
+            return value.booleanValue();
+        }
+        if (value.isNumber()) {
+            return value.doubleValue() != 0;
+        }
+        if (value.isTextual()) {
+            return !value.textValue().isEmpty();
+        }
+        return value.size() > 0 || value.isValueNode();
+    }
+
+    private static class Context {
+        private final EscPosWriter writer;
+        private final JsonNode root;
+        private final byte[] header;
+        private final byte[] logo;
+
+        Context(EscPosWriter writer, JsonNode root, byte[] header, byte[] logo) {
+            this.writer = writer;
+            this.root = root;
+            this.header = header;
+            this.logo = logo;
+        }
+
+        /**
+         * 先在当前节点（循环中的数组元素）取值，取不到再到根节点取
+         */
+        JsonNode lookup(JsonNode node, String field) {
+            JsonNode value = node.get(field);
+            if (value == null && node != root) {
+                value = root.get(field);
+            }
+            return value;
+        }
+    }
+
+    private interface Op {
+        void render(Context ctx, JsonNode node);
+    }
+
+    private static class Block {
+        private String directive;
+        private String field;
+        private final List<Op> ops = new ArrayList<>();
+
+        Op toOp() {
+            List<Op> body = ops;
+            String name = field;
+            if ("each".equals(directive)) {
+                return (ctx, node) -> {
+                    JsonNode array = ctx.lookup(node, name);
+                    if (array != null && array.isArray()) {
+                        for (JsonNode element : array) {
+                            for (Op op : body) {
+                                op.render(ctx, element);
+                            }
+                        }
+                    }
+                };
+            }
+            boolean negate = "ifnot".equals(directive);
+            return (ctx, node) -> {
+                if (truthy(ctx.lookup(node, name)) != negate) {
+                    for (Op op : body) {
+                        op.render(ctx, node);
+                    }
+                }
+            };
+        }
+    }
+
+    private static class TextOp implements Op {
+        private final Text text;
+
+        TextOp(Text text) {
+            this.text = text;
+        }
+
+        @Override
+        public void render(Context ctx, JsonNode node) {
+            ctx.writer.line(text.resolve(ctx, node));
+        }
+    }
+
+    private static class ColumnsOp implements Op {
+        private final int[] widths;
+        private final List<Text> cells;
+
+        ColumnsOp(int[] widths, List<Text> cells) {
+            this.widths = widths;
+            this.cells = cells;
+        }
+
+        @Override
+        public void render(Context ctx, JsonNode node) {
+            String[] values = new String[cells.size()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = cells.get(i).resolve(ctx, node);
+            }
+            ctx.writer.columns(widths, values);
+        }
+    }
+
+    /**
+     * 编译后的文本：常量片段与占位符交替
+     */
+    private static class Text {
+        private final String[] literals;
+        private final String[] fields;
+        private final String[] formats;
+
+        private Text(String[] literals, String[] fields, String[] formats) {
+            this.literals = literals;
+            this.fields = fields;
+            this.formats = formats;
+        }
+
+        static Text parse(String source) {
+            List<String> literals = new ArrayList<>();
+            List<String> fields = new ArrayList<>();
+            List<String> formats = new ArrayList<>();
+            Matcher matcher = PLACEHOLDER.matcher(source);
+            int last = 0;
+            while (matcher.find()) {
+                literals.add(source.substring(last, matcher.start()));
+                fields.add(matcher.group(1));
+                formats.add(matcher.group(2));
+                last = matcher.end();
+            }
+            literals.add(source.substring(last));
+            return new Text(literals.toArray(new String[0]), fields.toArray(new String[0]), formats.toArray(new String[0]));
+        }
+
+        String resolve(Context ctx, JsonNode node) {
+            if (fields.length == 0) {
+                return literals[0];
+            }
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < fields.length; i++) {
+                sb.append(literals[i]);
+                sb.append(format(ctx.lookup(node, fields[i]), formats[i]));
+            }
+            sb.append(literals[fields.length]);
+            return sb.toString();
+        }
+
+        private static String format(JsonNode value, String format) {
+            if (value == null || value.isNull()) {
+                return "";
+            }
+            if ("money".equals(format) && (value.isNumber() || value.isTextual())) {
+                try {
+                    return new BigDecimal(value.asText()).setScale(2, RoundingMode.HALF_UP).toPlainString();
+                } catch (NumberFormatException e) {
+                    return value.asText();
+                }
+            }
+            if ("int".equals(format) && value.isNumber()) {
+                return String.valueOf(value.longValue());
+            }
+            return value.asText();
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package com.example.print.service.escpos;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+
+/**
+ * ESC/POS 指令输出
+ * 文本按打印机字符集（默认 GBK）编码，宽度按显示列计算：全角字符占两列
+ */
+public class EscPosWriter {
+
+    public enum Align {
+        LEFT(0), CENTER(1), RIGHT(2);
+
+        private final int code;
+
+        Align(int code) {
+            this.code = code;
+        }
+    }
+
+    private static final byte ESC = 0x1B;
+    private static final byte GS = 0x1D;
+    private static final byte LF = 0x0A;
+
+    private final ByteArrayOutputStream out;
+    private final Charset charset;
+    private final int lineWidth;
+
+    private int sizeMultiplier = 1;
+
+    public EscPosWriter(Charset charset, int lineWidth, int initialCapacity) {
+        this.out = new ByteArrayOutputStream(initialCapacity);
+        this.charset = charset;
+        this.lineWidth = lineWidth;
+    }
+
+    /**
+     * 初始化打印机
+     */
+    public EscPosWriter init() {
+        out.write(ESC);
+        out.write('@');
+        return this;
+    }
+
+    public EscPosWriter align(Align align) {
+        out.write(ESC);
+        out.write('a');
+        out.write(align.code);
+        return this;
+    }
+
+    public EscPosWriter bold(boolean on) {
+        out.write(ESC);
+        out.write('E');
+        out.write(on ? 1 : 0);
+        return this;
+    }
+
+    /**
+     * 字符放大倍数（1-8）
+     */
+    public EscPosWriter size(int widthMultiplier, int heightMultiplier) {
+        int w = Math.max(1, Math.min(8, widthMultiplier));
+        int h = Math.max(1, Math.min(8, heightMultiplier));
+        out.write(GS);
+        out.write('!');
+        out.write(((w - 1) << 4) | (h - 1));
+        sizeMultiplier = w;
+        return this;
+    }
+
+    public EscPosWriter text(String text) {
+        byte[] bytes = text.getBytes(charset);
+        out.write(bytes, 0, bytes.length);
+        return this;
+    }
+
+    public EscPosWriter newLine() {
+        out.write(LF);
+        return this;
+    }
+
+    public EscPosWriter line(String text) {
+        return text(text).newLine();
+    }
+
+    /**
+     * 整行分隔线
+     */
+    public EscPosWriter separator(char c) {
+        int count = getLineWidth() / displayWidth(c);
+        StringBuilder sb = new StringBuilder(count);
+        for (int i = 0; i < count; i++) {
+            sb.append(c);
+        }
+        return line(sb.toString());
+    }
+
+    /**
+     * 按列宽输出一行，最后一列右对齐，其余左对齐；超宽内容截断
+     */
+    public EscPosWriter columns(int[] widths, String[] cells) {
+        StringBuilder sb = new StringBuilder(getLineWidth());
+        for (int i = 0; i < widths.length; i++) {
+            String cell = i < cells.length && cells[i] != null ? cells[i] : "";
+            boolean rightAlign = i == widths.length - 1 && widths.length > 1;
+            sb.append(pad(cell, widths[i], rightAlign));
+        }
+        return line(sb.toString());
+    }
+
+    public EscPosWriter feed(int lines) {
+        out.write(ESC);
+        out.write('d');
+        out.write(Math.max(0, Math.min(255, lines)));
+        return this;
+    }
+
+    /**
+     * 走纸并半切
+     */
+    public EscPosWriter cut() {
+        out.write(GS);
+        out.write('V');
+        out.write(66);
+        out.write(0);
+        return this;
+    }
+
+    /**
+     * 输出预先编译好的指令（标题、Logo 等）
+     */
+    public EscPosWriter raw(byte[] bytes) {
+        out.write(bytes, 0, bytes.length);
+        return this;
+    }
+
+    /**
+     * 当前字号下一行可容纳的列数
+     */
+    public int getLineWidth() {
+        return Math.max(1, lineWidth / sizeMultiplier);
+    }
+
+    public Charset getCharset() {
+        return charset;
+    }
+
+    public byte[] toByteArray() {
+        return out.toByteArray();
+    }
+
+    /**
+     * 按显示宽度补齐或截断
+     */
+    static String pad(String text, int width, boolean rightAlign) {
+        StringBuilder cell = new StringBuilder(width);
+        int used = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            int w = displayWidth(c);
+            if (used + w > width) {
+                break;
+            }
+            cell.append(c);
+            used += w;
+        }
+        StringBuilder padding = new StringBuilder();
+        for (int i = used; i < width; i++) {
+            padding.append(' ');
+        }
+        return rightAlign ? padding.append(cell).toString() : cell.append(padding).toString();
+    }
+
+    static int displayWidth(char c) {
+        return c < 0x2E80 ? 1 : 2;
+    }
+}
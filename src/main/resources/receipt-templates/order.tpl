@@ -0,0 +1,64 @@
+# 内置订单小票模板（58mm，每行32字符），语法见 EscPosTemplate
+@logo
+@header
+@align center
+@size double
+@if day_index
+第${day_index}单
+@end
+@size normal
+@bold on
+${merchant}
+@if bill_type
+${bill_type}
+@end
+@bold off
+@align left
+@line
+订单号：${orderNo}
+下单时间：${orderTime}
+@if show_schedule_time
+@bold on
+送达/自提时间：${delivery_time}
+@bold off
+@end
+@line
+@cols 16,6,10
+商品|数量|小计
+@each goodsItems
+${goods_name}|x${sell_num}|${sell_subtotal:money}
+@if spec_text
+  ${spec_text}
+@end
+@end
+@cols
+@line
+@cols 20,12
+商品金额|${goods_price:money}
+@if delivery_fee
+配送费|${delivery_fee:money}
+@end
+@if pack_fee
+打包费|${pack_fee:money}
+@end
+@bold on
+实付|${pay_money:money}
+@bold off
+@cols
+@line
+@if user_name
+收货人：${user_name} ${user_phone}
+@end
+@ifnot user_name
+顾客：${customer} ${customerPhone}
+@end
+@if user_address
+地址：${user_address}
+@end
+@if remark
+@bold on
+备注：${remark}
+@bold off
+@end
+@feed 3
+@cut
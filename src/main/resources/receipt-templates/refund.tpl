@@ -0,0 +1,31 @@
+# 内置退货单模板（58mm，每行32字符），语法见 EscPosTemplate
+@logo
+@header
+@align center
+@size double
+退货单
+@size normal
+@bold on
+${merchant}
+@bold off
+@align left
+@line
+订单号：${orderNo}
+原支付时间：${originalPayTime}
+退款时间：${refundTime}
+@line
+@cols 16,6,10
+商品|数量|金额
+@each goodsItems
+${goods_name}|${sell_num:int}|${refund_money:money}
+@if spec_text
+  ${spec_text}
+@end
+@end
+@line
+@bold on
+退款合计||${totalRefundAmount:money}
+@bold off
+@cols
+@feed 3
+@cut
@@ -0,0 +1,138 @@
+package com.example.print.service;
+
+import com.example.print.model.PrintTask;
+import com.example.print.model.PrintTaskPriority;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+/**
+ * 分发队列积压低优先级任务时，高优先级任务先发出且排队时间有上限
+ */
+class NotificationServiceTest {
+
+    private static final int STORE_ID = 3;
+    private static final int LOW_TASKS = 500;
+    private static final int HIGH_TASKS = 5;
+    // 每次发送的耗时，积压的低优先级任务约需 LOW_TASKS * SEND_MILLIS 才能发完
+    private static final long SEND_MILLIS = 2;
+
+    private final List<PrintTask> sent = Collections.synchronizedList(new ArrayList<>());
+    private volatile boolean slowSend = true;
+
+    private NotificationService notificationService;
+
+    @BeforeEach
+    void setUp() {
+        TaskAssignmentService assignmentService = mock(TaskAssignmentService.class);
+        // 未启用单独分配时返回 null，此处记录发送顺序并模拟发送耗时
+        doAnswer(invocation -> {
+            sent.add(invocation.getArgument(1));
+            if (slowSend) {
+                Thread.sleep(SEND_MILLIS);
+            }
+            return null;
+        }).when(assignmentService).assign(anyInt(), any(PrintTask.class), any());
+
+        notificationService = new NotificationService();
+        ReflectionTestUtils.setField(notificationService, "messagingTemplate", mock(SimpMessagingTemplate.class));
+        ReflectionTestUtils.setField(notificationService, "receiptRenderService", mock(ReceiptRenderService.class));
+        ReflectionTestUtils.setField(notificationService, "contentStore", mock(PrintTaskContentStore.class));
+        ReflectionTestUtils.setField(notificationService, "assignmentService", assignmentService);
+        ReflectionTestUtils.setField(notificationService, "dispatchWorkers", 1);
+        ReflectionTestUtils.setField(notificationService, "dispatchQueueCapacity", 10000);
+        notificationService.startDispatch();
+    }
+
+    @AfterEach
+    void tearDown() {
+        // 停止时队列中剩余的任务在当前线程发出，不再模拟耗时
+        slowSend = false;
+        notificationService.stopDispatch();
+    }
+
+    @Test
+    void highPriorityTasksOvertakeLowPriorityBacklog() throws Exception {
+        LocalDateTime createTime = LocalDateTime.now().minusMinutes(1);
+        for (int i = 0; i < LOW_TASKS; i++) {
+            notificationService.broadcastToPrintersByStore(STORE_ID, task("low-" + i, PrintTaskPriority.LOW, createTime));
+        }
+        // 分发线程开始处理积压后再提交高优先级任务
+        TimeUnit.MILLISECONDS.sleep(50);
+        int sentBeforeHigh = sent.size();
+        for (int i = 0; i < HIGH_TASKS; i++) {
+            notificationService.broadcastToPrintersByStore(STORE_ID,
+                    task("high-" + i, PrintTaskPriority.HIGH, LocalDateTime.now()));
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (highSent() < HIGH_TASKS && System.nanoTime() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(5);
+        }
+        assertEquals(HIGH_TASKS, highSent());
+
+        // 高优先级任务最多等待正在发送的一个任务，之后连续发出
+        List<PrintTask> snapshot;
+        synchronized (sent) {
+            snapshot = new ArrayList<>(sent);
+        }
+        int firstHigh = indexOfPriority(snapshot, PrintTaskPriority.HIGH);
+        assertTrue(firstHigh <= sentBeforeHigh + 1, "首个高优先级任务位于第 " + firstHigh + " 个");
+        for (int i = 0; i < HIGH_TASKS; i++) {
+            PrintTask task = snapshot.get(firstHigh + i);
+            assertEquals("high-" + i, task.getTaskId());
+        }
+        assertTrue(firstHigh + HIGH_TASKS < LOW_TASKS / 2, "高优先级任务应在积压的低优先级任务发完前发出");
+
+        Map<String, Object> highStats = priorityStats(PrintTaskPriority.HIGH);
+        assertEquals((long) HIGH_TASKS, highStats.get("dispatched"));
+        long highMaxWaitMs = (long) highStats.get("maxWaitMs");
+        assertTrue(highMaxWaitMs < 200, "高优先级任务排队时间 " + highMaxWaitMs + " ms");
+        assertTrue((int) notificationService.getDispatchStats().get("queueDepth") > 0, "低优先级任务仍在积压");
+    }
+
+    private int highSent() {
+        synchronized (sent) {
+            return (int) sent.stream().filter(task -> task.getPriority() == PrintTaskPriority.HIGH).count();
+        }
+    }
+
+    private static int indexOfPriority(List<PrintTask> tasks, PrintTaskPriority priority) {
+        for (int i = 0; i < tasks.size(); i++) {
+            if (tasks.get(i).getPriority() == priority) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> priorityStats(PrintTaskPriority priority) {
+        return (Map<String, Object>) notificationService.getDispatchStats().get(priority.name());
+    }
+
+    private static PrintTask task(String taskId, PrintTaskPriority priority, LocalDateTime createTime) {
+        return PrintTask.builder()
+                .taskId(taskId)
+                .priority(priority)
+                .createTime(createTime)
+                .orderId(1)
+                .build();
+    }
+}
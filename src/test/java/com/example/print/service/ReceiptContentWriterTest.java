@@ -0,0 +1,334 @@
+package com.example.print.service;
+
+import com.example.print.model.mall.*;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * 小票内容与原 HashMap 树 + ObjectMapper.writeValueAsString 的输出逐字节一致
+ * 原实现按改写前的 OrderSyncService 保留在本测试中作为基准
+ */
+class ReceiptContentWriterTest {
+
+    private static final long PAY_TIME = 1718000000L;
+
+    private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+
+    private ReceiptContentWriter writer;
+
+    @BeforeEach
+    void setUp() {
+        writer = new ReceiptContentWriter();
+        ReflectionTestUtils.setField(writer, "objectMapper", objectMapper);
+        writer.init();
+    }
+
+    @Test
+    void onlineOrdersMatchLegacyOutput() throws Exception {
+        // 预约配送单、普通配送单、自提单、其他取货方式
+        assertSameOrder(online(0, 1, "湖北省赤壁市某街道 1 号"), true);
+        assertSameOrder(online(0, null, "湖北省赤壁市某街道 2 号"), true);
+        assertSameOrder(online(1, null, null), true);
+        assertSameOrder(online(2, 0, null), false);
+    }
+
+    @Test
+    void offlineOrdersMatchLegacyOutput() throws Exception {
+        assertSameOrder(null, true);
+        assertSameOrder(null, false);
+    }
+
+    @Test
+    void refundMatchesLegacyOutput() throws Exception {
+        OrderBatchLoader.OrderBatch batch = batch(null, true);
+        MallOrder order = order(2);
+
+        String expected = legacyRefund(order, batch);
+        String actual = writer.writeRefund(order, batch);
+        // 退款时间取当前时间，两次生成可能跨秒
+        assertEquals(maskRefundTime(expected), maskRefundTime(actual));
+    }
+
+    /**
+     * 简单对比两种方式每张小票的耗时和分配字节数，流式写入的分配应明显少于构建 HashMap 树
+     */
+    @Test
+    void writerAllocatesLessThanLegacy() throws Exception {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(threadBean.isThreadAllocatedMemorySupported());
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+
+        OrderBatchLoader.OrderBatch batch = batch(online(0, 1, "湖北省赤壁市某街道 1 号"), true);
+        MallOrder order = order(1);
+        int iterations = 20000;
+        for (int i = 0; i < iterations; i++) {
+            writer.writeOrder(order, batch);
+            legacyOrder(order, batch);
+        }
+
+        long threadId = Thread.currentThread().getId();
+        long start = System.nanoTime();
+        long allocated = threadBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < iterations; i++) {
+            writer.writeOrder(order, batch);
+        }
+        long writerNanos = System.nanoTime() - start;
+        long writerBytes = threadBean.getThreadAllocatedBytes(threadId) - allocated;
+
+        start = System.nanoTime();
+        allocated = threadBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < iterations; i++) {
+            legacyOrder(order, batch);
+        }
+        long legacyNanos = System.nanoTime() - start;
+        long legacyBytes = threadBean.getThreadAllocatedBytes(threadId) - allocated;
+
+        System.out.printf("小票生成 %d 次: 流式写入 %d ns/张 %d B/张, HashMap 树 %d ns/张 %d B/张%n", iterations,
+                writerNanos / iterations, writerBytes / iterations, legacyNanos / iterations, legacyBytes / iterations);
+        assertTrue(writerBytes < legacyBytes, "流式写入分配 " + writerBytes + " B，原实现 " + legacyBytes + " B");
+    }
+
+    private void assertSameOrder(MallOnlineOrder onlineInfo, boolean withUser) throws Exception {
+        OrderBatchLoader.OrderBatch batch = batch(onlineInfo, withUser);
+        MallOrder order = order(onlineInfo != null ? 1 : 2);
+        assertEquals(legacyOrder(order, batch), writer.writeOrder(order, batch));
+    }
+
+    private static String maskRefundTime(String content) {
+        return content.replaceAll("\"refundTime\":\"[^\"]*\"", "\"refundTime\":\"\"");
+    }
+
+    private static MallOrder order(int type) {
+        MallOrder order = new MallOrder();
+        order.setId(1001);
+        order.setOrderNo("R202406100001");
+        order.setUid(42);
+        order.setMerchantId(7);
+        order.setStoreId(3);
+        order.setType(type);
+        order.setPayTime(PAY_TIME);
+        order.setPayType(1);
+        order.setGoodsPrice(35.5);
+        order.setPayMoney(38.5);
+        order.setDeliveryFee(3.0);
+        order.setPackFee(1.0);
+        order.setPayReal(new BigDecimal("38.50"));
+        order.setAllMoney(new BigDecimal("39.50"));
+        order.setUserDeliveryFee(new BigDecimal("3.00"));
+        return order;
+    }
+
+    private static MallOnlineOrder online(int pickupType, Integer sendType, String address) {
+        MallOnlineOrder online = new MallOnlineOrder();
+        online.setBillId(1001);
+        online.setPickupType(pickupType);
+        online.setSendType(sendType);
+        online.setUserName("张三");
+        online.setUserPhone("13800000000");
+        online.setUserAddress(address);
+        online.setRemark("少辣");
+        online.setUserSelectTime(PAY_TIME + 3600);
+        return online;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static OrderBatchLoader.OrderBatch batch(MallOnlineOrder onlineInfo, boolean withUser) {
+        OrderBatchLoader.OrderBatch batch = new OrderBatchLoader.OrderBatch();
+
+        MallOrderItem food = new MallOrderItem();
+        food.setBillId(1001);
+        food.setGoodsName("热干面");
+        food.setGoodsCode("F001");
+        food.setSellNum(2);
+        food.setSellPrice(12.5);
+        food.setRefundMoney(25.0);
+        food.setFood(true);
+        food.setSpecs(Arrays.asList("醋", "大份"));
+
+        MallOrderItem goods = new MallOrderItem();
+        goods.setBillId(1001);
+        goods.setGoodsName("矿泉水");
+        goods.setGoodsCode("G002");
+        goods.setSellNum(1);
+        goods.setSellPrice(10.5);
+        goods.setRefundMoney(10.5);
+
+        ((Map<Integer, List<MallOrderItem>>) ReflectionTestUtils.getField(batch, "orderItems"))
+                .put(1001, Arrays.asList(food, goods));
+
+        MallStore store = new MallStore();
+        store.setId(3);
+        store.setMerchantId(7);
+        store.setName("赤壁一店");
+        ((Map<Integer, MallStore>) ReflectionTestUtils.getField(batch, "stores")).put(3, store);
+
+        if (withUser) {
+            MallUser user = new MallUser();
+            user.setId(42);
+            user.setNickname("小王");
+            user.setMobile("13900000000");
+            user.setAddress("湖北省赤壁市用户地址");
+            ((Map<Integer, MallUser>) ReflectionTestUtils.getField(batch, "users")).put(42, user);
+        }
+        if (onlineInfo != null) {
+            ((Map<Integer, MallOnlineOrder>) ReflectionTestUtils.getField(batch, "onlineInfo")).put(1001, onlineInfo);
+        }
+        batch.putDayIndex(1001, "12");
+        return batch;
+    }
+
+    // ---- 原实现（改写前 OrderSyncService.generatePrintContent / generateRefundPrintContent） ----
+
+    private String legacyOrder(MallOrder order, OrderBatchLoader.OrderBatch batch) throws Exception {
+        List<MallOrderItem> orderItems = batch.getOrderItems(order.getId());
+        MallUser userInfo = batch.getUser(order.getUid());
+        MallStore storeInfo = batch.getStore(order.getStoreId(), order.getMerchantId());
+        MallOnlineOrder onlineInfo = null;
+        int orderType = order.getType();
+        if (orderType == 1) {
+            onlineInfo = batch.getOnlineInfo(order.getId());
+        }
+
+        Map<String, Object> printData = new HashMap<>();
+        printData.put("orderNo", order.getOrderNo());
+        if (storeInfo != null) {
+            printData.put("merchant", storeInfo.getName());
+        } else {
+            printData.put("merchant", "指尖赤壁");
+        }
+        printData.put("day_index", batch.getDayIndex(order.getId()));
+        Long payTime = order.getPayTime();
+        printData.put("payTime", payTime);
+        printData.put("orderTime", ReceiptContentWriter.formatTimestamp(payTime));
+        printData.put("type", orderType);
+        printData.put("pay_type", order.getPayType());
+        printData.put("goods_price", order.getGoodsPrice());
+        printData.put("pay_money", order.getPayMoney());
+        printData.put("delivery_fee", order.getDeliveryFee());
+        printData.put("pay_real", order.getPayReal());
+        printData.put("all_money", order.getAllMoney());
+        printData.put("user_delivery_fee", order.getUserDeliveryFee());
+
+        List<Map<String, Object>> goodsArray = new ArrayList<>();
+        for (MallOrderItem item : orderItems) {
+            Map<String, Object> goodsItem = new HashMap<>();
+            goodsItem.put("goods_name", item.getGoodsName());
+            goodsItem.put("goods_code", item.getGoodsCode());
+            double sellNum = item.getSellNum();
+            double sellPrice = item.getSellPrice();
+            goodsItem.put("sell_num", (int) sellNum);
+            goodsItem.put("sell_price", sellPrice);
+            goodsItem.put("sell_subtotal", sellNum * sellPrice);
+            boolean isFood = item.isFood();
+            goodsItem.put("is_food", isFood);
+            if (isFood) {
+                goodsItem.put("spec_text", formatSpecsText(item.getSpecs()));
+            }
+            goodsArray.add(goodsItem);
+        }
+        printData.put("goodsItems", goodsArray);
+
+        if (onlineInfo != null) {
+            int pickupType = onlineInfo.getPickupType();
+            printData.put("pickup_type", pickupType);
+            String billType;
+            boolean showScheduleTime = false;
+            if (pickupType == 0) {
+                Integer sendType = onlineInfo.getSendType();
+                if (sendType != null && sendType == 1) {
+                    billType = "预约单";
+                    showScheduleTime = true;
+                } else {
+                    billType = "配送单";
+                }
+            } else if (pickupType == 1) {
+                billType = "自提单";
+                showScheduleTime = true;
+            } else {
+                billType = "配送单";
+            }
+            printData.put("bill_type", billType);
+            printData.put("show_schedule_time", showScheduleTime);
+            printData.put("user_name", onlineInfo.getUserName());
+            printData.put("user_phone", onlineInfo.getUserPhone());
+            printData.put("user_address", onlineInfo.getUserAddress());
+            printData.put("remark", onlineInfo.getRemark());
+        }
+
+        Long selectTime = onlineInfo != null ? onlineInfo.getUserSelectTime() : null;
+        printData.put("delivery_time", ReceiptContentWriter.formatTimestamp(selectTime));
+        printData.put("pack_fee", order.getPackFee());
+
+        if (userInfo != null) {
+            printData.put("customer", userInfo.getNickname());
+            printData.put("customerPhone", userInfo.getMobile());
+            if (!printData.containsKey("user_address") || printData.get("user_address") == null) {
+                printData.put("user_address", userInfo.getAddress());
+            }
+        } else {
+            printData.put("customer", "未知用户");
+            printData.put("customerPhone", "");
+        }
+
+        return objectMapper.writeValueAsString(printData);
+    }
+
+    private String legacyRefund(MallOrder order, OrderBatchLoader.OrderBatch batch) throws Exception {
+        List<MallOrderItem> refundItems = batch.getOrderItems(order.getId());
+        MallStore storeInfo = batch.getStore(order.getStoreId(), order.getMerchantId());
+
+        HashMap<String, Object> printData = new HashMap<>();
+        printData.put("type", "refund");
+        printData.put("orderNo", order.getOrderNo());
+        printData.put("merchant", storeInfo != null ? storeInfo.getName() : "指尖赤壁");
+        printData.put("refundTime", LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH-mm-ss")));
+        printData.put("originalPayTime", ReceiptContentWriter.formatTimestamp(order.getPayTime()));
+
+        ArrayList<Map<String, Object>> refundGoodsArray = new ArrayList<>();
+        double totalRefundAmount = 0.0;
+        for (MallOrderItem item : refundItems) {
+            HashMap<String, Object> goodsItem = new HashMap<>();
+            goodsItem.put("goods_name", item.getGoodsName());
+            goodsItem.put("goods_code", item.getGoodsCode());
+            double sellNum = item.getSellNum();
+            double refundMoney = item.getRefundMoney();
+            goodsItem.put("sell_num", -sellNum);
+            goodsItem.put("refund_money", -refundMoney);
+            if (item.isFood()) {
+                goodsItem.put("spec_text", formatSpecsText(item.getSpecs()));
+                goodsItem.put("is_food", true);
+            } else {
+                goodsItem.put("is_food", false);
+            }
+            refundGoodsArray.add(goodsItem);
+            totalRefundAmount += refundMoney;
+        }
+        printData.put("goodsItems", refundGoodsArray);
+        printData.put("totalRefundAmount", -totalRefundAmount);
+        printData.put("pay_type", order.getPayType());
+
+        return objectMapper.writeValueAsString(printData);
+    }
+
+    private static String formatSpecsText(List<String> specs) {
+        if (specs == null || specs.isEmpty()) {
+            return "";
+        }
+        return "{" + String.join("，", specs) + "}";
+    }
+}
@@ -0,0 +1,77 @@
+package com.example.print.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Import;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 公共调度线程被长任务占用时，分片租约仍由续期线程按时续期
+ * 使用单独的内存数据库，后台续期不影响其他测试
+ */
+@DataJpaTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:lease-renewal;MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1",
+        "print.order.sync.lease-seconds=2",
+        "print.order.sync.lease-renew-interval=200"
+})
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@ActiveProfiles("test")
+@Import({SyncLeaseService.class, DailyOrderCounter.class, SyncLeaseRenewalTest.LongScheduledJob.class})
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+@DirtiesContext
+class SyncLeaseRenewalTest {
+
+    private static final long JOB_MILLIS = 5000;
+
+    @Autowired
+    private SyncLeaseService syncLeaseService;
+
+    @Autowired
+    private LongScheduledJob longScheduledJob;
+
+    @Test
+    void leasesAreRenewedWhileSchedulerThreadIsBusy() throws Exception {
+        assertTrue(longScheduledJob.started.await(5, TimeUnit.SECONDS));
+
+        // 超过租约时长后，长任务仍占用调度线程，租约不应过期
+        Thread.sleep(3000);
+        assertEquals(1, longScheduledJob.finished.getCount());
+        assertEquals(Arrays.asList(0, 1), syncLeaseService.getOwnedShards());
+    }
+
+    /**
+     * 占用公共调度线程的长任务（如历史任务清理）
+     */
+    @TestConfiguration
+    static class LongScheduledJob {
+
+        private final CountDownLatch started = new CountDownLatch(1);
+        private final CountDownLatch finished = new CountDownLatch(1);
+
+        @Scheduled(initialDelay = 0, fixedDelay = 3600000)
+        public void run() {
+            started.countDown();
+            try {
+                Thread.sleep(JOB_MILLIS);
+            } catch (InterruptedException e) {
+                // 测试结束关闭上下文
+                Thread.currentThread().interrupt();
+            }
+            finished.countDown();
+        }
+    }
+}
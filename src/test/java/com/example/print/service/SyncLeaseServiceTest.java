@@ -0,0 +1,195 @@
+package com.example.print.service;
+
+import com.example.print.model.mall.MallOrder;
+import com.example.print.repository.SyncLeaseRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 分片租约接管、重新获取与商户每日订单序号的连续性
+ * 实例 instance-a 由 Spring 创建，其他实例通过直接操作 sync_leases 表模拟
+ */
+@DataJpaTest
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@ActiveProfiles("test")
+@Import({SyncLeaseService.class, DailyOrderCounter.class})
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class SyncLeaseServiceTest {
+
+    private static final String OTHER_INSTANCE = "instance-b";
+
+    // 分片数为 2：商户 7 属于分片 1，商户 8 属于分片 0
+    private static final int MERCHANT_SHARD_1 = 7;
+    private static final int MERCHANT_SHARD_0 = 8;
+
+    @Autowired
+    private SyncLeaseService syncLeaseService;
+
+    @Autowired
+    private SyncLeaseRepository leaseRepository;
+
+    @Autowired
+    private DailyOrderCounter dailyOrderCounter;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void setUp() {
+        jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS tp_retail_bill_order (" +
+                "id INT PRIMARY KEY, merchant_id INT NOT NULL, pay_state INT NOT NULL, pay_time BIGINT)");
+        jdbcTemplate.update("DELETE FROM tp_retail_bill_order");
+        jdbcTemplate.update("UPDATE sync_leases SET owner_id = NULL, lease_until = ?",
+                Timestamp.valueOf(LocalDateTime.now()));
+        dailyOrderCounter.invalidateShard(0, 1);
+
+        syncLeaseService.renewLeases();
+        assertEquals(Arrays.asList(0, 1), syncLeaseService.getOwnedShards());
+    }
+
+    @Test
+    void expiredLeaseIsTakenOverAndNotRenewedByFormerOwner() {
+        LocalDateTime now = LocalDateTime.now();
+        expireLease(1);
+
+        assertEquals(1, leaseRepository.tryAcquire(1, OTHER_INSTANCE, now.plusSeconds(30), now));
+        // 其他实例持有期间，原持有者不能续期
+        assertEquals(0, leaseRepository.tryAcquire(1, syncLeaseService.getInstanceId(), now.plusSeconds(30), now));
+
+        syncLeaseService.renewLeases();
+        assertEquals(Collections.singletonList(0), syncLeaseService.getOwnedShards());
+    }
+
+    @Test
+    void dayIndexStaysContinuousAfterTakeoverAndReacquire() {
+        insertOrder(1, MERCHANT_SHARD_1);
+        insertOrder(2, MERCHANT_SHARD_1);
+        insertOrder(3, MERCHANT_SHARD_1);
+        insertOrder(4, MERCHANT_SHARD_0);
+        assertEquals(1, nextIndex(MERCHANT_SHARD_1, 1));
+        assertEquals(2, nextIndex(MERCHANT_SHARD_1, 2));
+        assertEquals(3, nextIndex(MERCHANT_SHARD_1, 3));
+        assertEquals(1, nextIndex(MERCHANT_SHARD_0, 4));
+
+        // 分片 1 的租约过期，被其他实例接管
+        LocalDateTime now = LocalDateTime.now();
+        expireLease(1);
+        assertEquals(1, leaseRepository.tryAcquire(1, OTHER_INSTANCE, now.plusSeconds(30), now));
+        syncLeaseService.renewLeases();
+        assertEquals(Collections.singletonList(0), syncLeaseService.getOwnedShards());
+
+        // 其他实例持有期间同步的订单
+        insertOrder(5, MERCHANT_SHARD_1);
+        insertOrder(6, MERCHANT_SHARD_1);
+
+        // 其他实例释放后重新获取
+        leaseRepository.release(Collections.singletonList(1), OTHER_INSTANCE, LocalDateTime.now());
+        syncLeaseService.renewLeases();
+        assertEquals(Arrays.asList(0, 1), syncLeaseService.getOwnedShards());
+
+        insertOrder(7, MERCHANT_SHARD_1);
+        insertOrder(8, MERCHANT_SHARD_1);
+        assertEquals(6, nextIndex(MERCHANT_SHARD_1, 7));
+        assertEquals(7, nextIndex(MERCHANT_SHARD_1, 8));
+
+        // 未变化的分片继续使用本地计数
+        insertOrder(9, MERCHANT_SHARD_0);
+        assertEquals(2, nextIndex(MERCHANT_SHARD_0, 9));
+    }
+
+    @Test
+    void delayedRenewalStopsSyncAndReseedsCounterWhenRenewed() {
+        insertOrder(1, MERCHANT_SHARD_1);
+        insertOrder(2, MERCHANT_SHARD_1);
+        assertEquals(1, nextIndex(MERCHANT_SHARD_1, 1));
+        assertEquals(2, nextIndex(MERCHANT_SHARD_1, 2));
+
+        // 续期延迟超过租约时长：本地和数据库中的租约都已过期
+        LocalDateTime past = LocalDateTime.now().minusSeconds(1);
+        Map<Integer, LocalDateTime> ownedShards = ownedShards();
+        ownedShards.replaceAll((shardId, leaseUntil) -> past);
+        expireLease(0);
+        expireLease(1);
+        assertTrue(syncLeaseService.getOwnedShards().isEmpty());
+
+        // 租约过期期间分片可能已被其他实例处理
+        insertOrder(3, MERCHANT_SHARD_1);
+
+        syncLeaseService.renewLeases();
+        assertEquals(Arrays.asList(0, 1), syncLeaseService.getOwnedShards());
+
+        insertOrder(4, MERCHANT_SHARD_1);
+        assertEquals(4, nextIndex(MERCHANT_SHARD_1, 4));
+    }
+
+    @Test
+    void resyncIndexesAreComputedFromDbWithoutTouchingLiveCounter() {
+        long yesterday = System.currentTimeMillis() / 1000 - 24 * 3600;
+        insertOrder(1, MERCHANT_SHARD_1, yesterday);
+        insertOrder(2, MERCHANT_SHARD_0, yesterday);
+        insertOrder(3, MERCHANT_SHARD_1, yesterday);
+        insertOrder(4, MERCHANT_SHARD_1);
+        insertOrder(5, MERCHANT_SHARD_1);
+        assertEquals(1, nextIndex(MERCHANT_SHARD_1, 4));
+
+        Map<Integer, Integer> indexes = dailyOrderCounter.indexesFromDb(Arrays.asList(
+                order(2, MERCHANT_SHARD_0, yesterday),
+                order(3, MERCHANT_SHARD_1, yesterday),
+                order(5, MERCHANT_SHARD_1, System.currentTimeMillis() / 1000)));
+        assertEquals(1, (int) indexes.get(2));
+        assertEquals(2, (int) indexes.get(3));
+        assertEquals(2, (int) indexes.get(5));
+
+        // 当天计数仍从订单 4 继续
+        assertEquals(2, nextIndex(MERCHANT_SHARD_1, 5));
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<Integer, LocalDateTime> ownedShards() {
+        return (Map<Integer, LocalDateTime>) ReflectionTestUtils.getField(syncLeaseService, "ownedShards");
+    }
+
+    private void expireLease(int shardId) {
+        jdbcTemplate.update("UPDATE sync_leases SET lease_until = ? WHERE shard_id = ?",
+                Timestamp.valueOf(LocalDateTime.now().minusSeconds(1)), shardId);
+    }
+
+    private void insertOrder(int orderId, int merchantId) {
+        insertOrder(orderId, merchantId, System.currentTimeMillis() / 1000);
+    }
+
+    private void insertOrder(int orderId, int merchantId, long payTime) {
+        jdbcTemplate.update("INSERT INTO tp_retail_bill_order (id, merchant_id, pay_state, pay_time) VALUES (?, ?, 1, ?)",
+                orderId, merchantId, payTime);
+    }
+
+    private MallOrder order(int orderId, int merchantId, long payTime) {
+        MallOrder order = new MallOrder();
+        order.setId(orderId);
+        order.setMerchantId(merchantId);
+        order.setPayTime(payTime);
+        return order;
+    }
+
+    private int nextIndex(int merchantId, int orderId) {
+        return dailyOrderCounter.nextIndex(merchantId, orderId, System.currentTimeMillis() / 1000);
+    }
+}
@@ -0,0 +1,59 @@
+package com.example.print.service.archive;
+
+import com.example.print.model.ArchivedTask;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+/**
+ * 多个实例共享归档目录：清理实例变化后，各实例都能查到对方写入的归档，写入不会覆盖
+ */
+class ArchiveSegmentStoreTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper()
+            .registerModule(new JavaTimeModule())
+            .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+
+    @TempDir
+    File directory;
+
+    @Test
+    void storesSharingDirectorySeeEachOthersArchives() throws Exception {
+        ArchiveSegmentStore first = open();
+        ArchiveSegmentStore second = open();
+
+        first.append(Collections.singletonList(record("task-1", "order-1")));
+        assertNotNull(second.findByTaskId("task-1"));
+
+        // 清理转到另一个实例后继续追加
+        second.append(Collections.singletonList(record("task-2", "order-1")));
+        assertEquals(2, first.findByOrderNo("order-1").size());
+        assertEquals(2, second.findByOrderNo("order-1").size());
+
+        first.append(Collections.singletonList(record("task-3", "order-3")));
+        ArchiveSegmentStore reopened = open();
+        assertNotNull(reopened.findByTaskId("task-1"));
+        assertNotNull(reopened.findByTaskId("task-2"));
+        assertNotNull(reopened.findByTaskId("task-3"));
+    }
+
+    private ArchiveSegmentStore open() throws Exception {
+        ArchiveSegmentStore store = new ArchiveSegmentStore(directory, 1024 * 1024, objectMapper);
+        store.open();
+        return store;
+    }
+
+    private ArchivedTask record(String taskId, String orderNo) {
+        return new ArchivedTask(taskId, orderNo, null, new ArrayList<>(), LocalDateTime.now());
+    }
+}